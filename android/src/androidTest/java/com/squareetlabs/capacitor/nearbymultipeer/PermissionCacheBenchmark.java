@@ -0,0 +1,61 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertTrue;
+
+import android.Manifest;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Coste por mensaje de comprobar el permiso Bluetooth: checkSelfPermission (IPC al sistema)
+ * frente a la lectura de {@link PermissionCache} que hacen el lector, el escritor y el
+ * callback de escaneo. Se ejecuta en un dispositivo y escribe el resultado en logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PermissionCacheBenchmark {
+
+    private static final String TAG = "PermissionCacheBenchmark";
+    private static final int WARMUP = 1_000;
+    private static final int ITERATIONS = 20_000;
+
+    // Evita que el compilador descarte las lecturas
+    private int sink;
+
+    @Test
+    public void cachedCheckIsCheaperThanSystemCheck() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? Manifest.permission.BLUETOOTH_CONNECT
+                : Manifest.permission.BLUETOOTH;
+        PermissionCache cache = new PermissionCache();
+        cache.refresh(context);
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += context.checkSelfPermission(permission);
+            sink += cache.hasConnect() ? 1 : 0;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += context.checkSelfPermission(permission);
+        }
+        long systemNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += cache.hasConnect() ? 1 : 0;
+        }
+        long cachedNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "checkSelfPermission: " + systemNanos + " ns/mensaje, PermissionCache: "
+                + cachedNanos + " ns/mensaje, ahorro: " + (systemNanos - cachedNanos) + " ns/mensaje (" + sink + ")");
+        assertTrue(cachedNanos < systemNanos);
+    }
+}
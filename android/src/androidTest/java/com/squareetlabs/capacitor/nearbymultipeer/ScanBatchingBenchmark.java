@@ -0,0 +1,97 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Callbacks de escaneo por minuto con reporte inmediato y con batching en el controlador,
+ * contados con {@link BleScanStats} como en el plugin. Escanea sin filtros durante un
+ * minuto en cada modo, así que el resultado depende de los anunciantes BLE cercanos; se
+ * omite si el hardware no admite batching o faltan permisos (concederlos con
+ * {@code adb shell pm grant}). Escribe el resultado en logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanBatchingBenchmark {
+
+    private static final String TAG = "ScanBatchingBenchmark";
+    private static final long MEASURE_MS = 60_000;
+
+    @Test
+    public void batchingReducesCallbacksPerMinute() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        BluetoothManager manager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothAdapter adapter = manager != null ? manager.getAdapter() : null;
+        assumeTrue(adapter != null && adapter.isEnabled());
+        assumeTrue(adapter.isOffloadedScanBatchingSupported());
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? Manifest.permission.BLUETOOTH_SCAN
+                : Manifest.permission.ACCESS_FINE_LOCATION;
+        assumeTrue(context.checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED);
+
+        BluetoothLeScanner scanner = adapter.getBluetoothLeScanner();
+        BleScanStats.Snapshot immediate = measure(scanner, 0);
+        BleScanStats.Snapshot batched = measure(scanner, NearbyMultipeer.DEFAULT_BATCH_SCAN_REPORT_DELAY_MS);
+
+        Log.i(TAG, "Inmediato: " + immediate.callbacksPerMinute + " callbacks/min ("
+                + immediate.resultCallbacks + " resultados); batching: " + batched.callbacksPerMinute
+                + " callbacks/min (" + batched.batchCallbacks + " lotes, " + batched.batchResults
+                + " resultados, " + batched.batchDuplicates + " duplicados)");
+        assumeTrue(immediate.resultCallbacks > 0);
+        assertTrue(batched.callbacksPerMinute < immediate.callbacksPerMinute);
+    }
+
+    private static BleScanStats.Snapshot measure(BluetoothLeScanner scanner, long reportDelayMs) {
+        BleScanStats stats = new BleScanStats();
+        ScanCallback callback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                stats.onResult();
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                Set<String> devices = new HashSet<>();
+                for (ScanResult result : results) {
+                    devices.add(result.getDevice().getAddress());
+                }
+                stats.onBatch(results.size(), devices.size());
+            }
+        };
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setReportDelay(reportDelayMs)
+                .build();
+
+        scanner.startScan(null, settings, callback);
+        stats.reset();
+        SystemClock.sleep(MEASURE_MS);
+        // Entrega lo que quede en el controlador antes de contar
+        scanner.flushPendingScanResults(callback);
+        BleScanStats.Snapshot snapshot = stats.snapshot();
+        scanner.stopScan(callback);
+        return snapshot;
+    }
+}
@@ -1,118 +1,337 @@
 package com.squareetlabs.capacitor.nearbymultipeer;
 
+import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
+import android.os.HandlerThread;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
- * Cola de comandos BLE para evitar operaciones concurrentes que pueden causar fallos
+ * Cola de comandos BLE para evitar operaciones concurrentes que pueden causar fallos.
+ *
+ * Los comandos se agrupan en carriles por dispositivo (dirección MAC): dentro de un
+ * carril se ejecutan de uno en uno y en orden de llegada, porque cada dispositivo sólo
+ * admite una operación GATT pendiente; carriles distintos avanzan en paralelo hasta un
+ * límite global de comandos simultáneos. Cuando hay que elegir, los carriles se atienden
+ * por turnos (round-robin), de modo que un dispositivo lento no acapara la cola.
+ * Los comandos sin dirección van a un carril común.
+ *
+ * Todo se ejecuta en un HandlerThread propio. Encolar nunca bloquea: cada comando
+ * devuelve un {@link CompletableFuture} que se completa con su resultado, con su
+ * excepción, con un {@link TimeoutException} si no termina a tiempo o con un
+ * {@link CancellationException} si se cancela. Los comandos síncronos ({@link Callable})
+ * ocupan el hilo mientras se ejecutan, así que deben ser breves; las operaciones GATT
+ * deben usar {@link #enqueueAsync} y completar el future desde su callback.
+ *
+ * Requiere API 24 por {@link CompletableFuture} (el plugin admite API 23 sin desugaring):
+ * quien la use debe comprobar {@code Build.VERSION.SDK_INT}. El plugin no la usa todavía,
+ * ya que no tiene rutas GATT; se ofrece como utilidad.
  */
+@RequiresApi(api = Build.VERSION_CODES.N)
 public class BleCommandQueue {
-    private static final String TAG = "BleCommandQueue";
-    private final Queue<QueueItem<?>> commandQueue = new LinkedList<>();
-    private boolean isExecuting = false;
-    private final Handler handler = new Handler(Looper.getMainLooper());
-    private long defaultTimeout = 10000; // 10 segundos por defecto
 
     /**
-     * Encola un comando para ejecución secuencial
+     * Comando cuyo resultado llega de forma asíncrona (por ejemplo, en un callback de GATT).
+     * Debe completar el future recibido; la cola no avanza hasta que se complete.
+     */
+    public interface AsyncCommand<T> {
+        void start(CompletableFuture<T> result) throws Exception;
+    }
+
+    // Carril de los comandos que no van asociados a un dispositivo
+    public static final String DEFAULT_LANE = "";
+
+    /**
+     * Métricas de un carril
+     */
+    public static final class LaneStats {
+        public final int queued;
+        public final boolean running;
+        public final int maxDepth;
+        public final long completed;
+
+        LaneStats(int queued, boolean running, int maxDepth, long completed) {
+            this.queued = queued;
+            this.running = running;
+            this.maxDepth = maxDepth;
+            this.completed = completed;
+        }
+
+        /**
+         * Comandos en el carril, incluido el que se está ejecutando
+         */
+        public int getDepth() {
+            return queued + (running ? 1 : 0);
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    // Lanes with queued work and nothing running, in the order they will be served
+    private final ArrayDeque<Lane> readyLanes = new ArrayDeque<>();
+    private int running = 0;
+    private int maxConcurrent = 4;
+    private boolean shutdown = false;
+
+    private final HandlerThread handlerThread; // null when the executor is supplied
+    private final Executor executor;
+    // Timeouts fire from their own thread so a command stuck on the handler thread still times out
+    private final ScheduledExecutorService timeoutScheduler;
+    private volatile long defaultTimeout = 10000; // 10 segundos por defecto
+
+    public BleCommandQueue() {
+        this(4);
+    }
+
+    /**
+     * @param maxConcurrent Número máximo de comandos en ejecución a la vez (entre todos los carriles)
+     */
+    public BleCommandQueue(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        handlerThread = new HandlerThread("BleCommandQueue");
+        handlerThread.start();
+        Handler handler = new Handler(handlerThread.getLooper());
+        executor = runnable -> {
+            if (!handler.post(runnable)) {
+                throw new RejectedExecutionException("Hilo de la cola detenido");
+            }
+        };
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BleCommandQueue-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cola que ejecuta los comandos en el executor indicado en lugar de en un HandlerThread
+     * propio (para tests)
+     * @param executor Ejecuta el arranque de cada comando
+     * @param timeoutScheduler Dispara los timeouts; se detiene en {@link #shutdown()}
+     */
+    BleCommandQueue(int maxConcurrent, Executor executor, ScheduledExecutorService timeoutScheduler) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.handlerThread = null;
+        this.executor = executor;
+        this.timeoutScheduler = timeoutScheduler;
+    }
+
+    /**
+     * Encola un comando para ejecución secuencial con el timeout por defecto
      * @param command Comando a ejecutar
      * @param <T> Tipo de retorno del comando
-     * @return Resultado del comando
+     * @return Future con el resultado del comando
      */
-    public synchronized <T> T enqueue(Callable<T> command) throws Exception {
+    public <T> CompletableFuture<T> enqueue(Callable<T> command) {
         return enqueue(command, defaultTimeout);
     }
 
     /**
      * Encola un comando para ejecución secuencial con timeout específico
      * @param command Comando a ejecutar
-     * @param timeout Timeout en milisegundos
+     * @param timeout Timeout en milisegundos desde que empieza a ejecutarse (0 para desactivar)
      * @param <T> Tipo de retorno del comando
-     * @return Resultado del comando
-     */
-    public synchronized <T> T enqueue(Callable<T> command, long timeout) throws Exception {
-        QueueItem<T> queueItem = new QueueItem<>(command);
-        commandQueue.add(queueItem);
-        
-        if (!isExecuting) {
-            executeNext();
-        }
-        
-        // Esperar a que se complete el comando o ocurra un timeout
-        if (timeout > 0) {
-            long startTime = System.currentTimeMillis();
-            while (!queueItem.isCompleted() && System.currentTimeMillis() - startTime < timeout) {
-                try {
-                    TimeUnit.MILLISECONDS.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new Exception("Command interrupted", e);
-                }
-            }
-            
-            if (!queueItem.isCompleted()) {
-                throw new TimeoutException("Command timed out after " + timeout + "ms");
-            }
-        } else {
-            // Esperar indefinidamente
-            while (!queueItem.isCompleted()) {
-                try {
-                    TimeUnit.MILLISECONDS.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new Exception("Command interrupted", e);
-                }
-            }
-        }
-        
-        if (queueItem.getException() != null) {
-            throw queueItem.getException();
-        }
-        
-        return queueItem.getResult();
+     * @return Future con el resultado del comando
+     */
+    public <T> CompletableFuture<T> enqueue(Callable<T> command, long timeout) {
+        return enqueue(DEFAULT_LANE, command, timeout);
+    }
+
+    /**
+     * Encola un comando en el carril de un dispositivo con el timeout por defecto
+     * @param deviceAddress Dirección del dispositivo (carril)
+     * @param command Comando a ejecutar
+     * @param <T> Tipo de retorno del comando
+     * @return Future con el resultado del comando
+     */
+    public <T> CompletableFuture<T> enqueue(String deviceAddress, Callable<T> command) {
+        return enqueue(deviceAddress, command, defaultTimeout);
+    }
+
+    /**
+     * Encola un comando en el carril de un dispositivo
+     * @param deviceAddress Dirección del dispositivo (carril)
+     * @param command Comando a ejecutar
+     * @param timeout Timeout en milisegundos desde que empieza a ejecutarse (0 para desactivar)
+     * @param <T> Tipo de retorno del comando
+     * @return Future con el resultado del comando
+     */
+    public <T> CompletableFuture<T> enqueue(String deviceAddress, Callable<T> command, long timeout) {
+        return enqueueAsync(deviceAddress, result -> result.complete(command.call()), timeout);
     }
-    
+
     /**
      * Encola un comando sin retorno (Runnable)
      * @param command Comando a ejecutar
+     * @return Future que se completa cuando el comando termina
      */
-    public synchronized void enqueueRunnable(Runnable command) throws Exception {
-        enqueue(() -> {
+    public CompletableFuture<Void> enqueueRunnable(Runnable command) {
+        return enqueue(() -> {
             command.run();
             return null;
         });
     }
 
-    private synchronized void executeNext() {
-        if (commandQueue.isEmpty()) {
-            isExecuting = false;
-            return;
+    /**
+     * Encola un comando que termina de forma asíncrona
+     * @param command Comando a ejecutar; debe completar el future que recibe
+     * @param timeout Timeout en milisegundos desde que empieza a ejecutarse (0 para desactivar)
+     * @param <T> Tipo de retorno del comando
+     * @return El mismo future que recibe el comando
+     */
+    public <T> CompletableFuture<T> enqueueAsync(AsyncCommand<T> command, long timeout) {
+        return enqueueAsync(DEFAULT_LANE, command, timeout);
+    }
+
+    /**
+     * Encola un comando asíncrono en el carril de un dispositivo
+     * @param deviceAddress Dirección del dispositivo (carril)
+     * @param command Comando a ejecutar; debe completar el future que recibe
+     * @param timeout Timeout en milisegundos desde que empieza a ejecutarse (0 para desactivar)
+     * @param <T> Tipo de retorno del comando
+     * @return El mismo future que recibe el comando
+     */
+    public <T> CompletableFuture<T> enqueueAsync(String deviceAddress, AsyncCommand<T> command, long timeout) {
+        String key = deviceAddress != null ? deviceAddress : DEFAULT_LANE;
+        Command<T> item;
+        synchronized (lock) {
+            if (shutdown) {
+                CompletableFuture<T> future = new CompletableFuture<>();
+                future.completeExceptionally(new CancellationException("Cola de comandos BLE cerrada"));
+                return future;
+            }
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            item = new Command<>(lane, command, timeout);
+            lane.queue.add(item);
+            lane.maxDepth = Math.max(lane.maxDepth, lane.queue.size() + (lane.current != null ? 1 : 0));
+            if (lane.current == null && lane.queue.size() == 1) {
+                readyLanes.add(lane);
+            }
         }
-        
-        isExecuting = true;
-        QueueItem<?> queueItem = commandQueue.poll();
-        
-        handler.post(() -> {
-            try {
-                Object result = queueItem.getCommand().call();
-                queueItem.setResult(result);
-            } catch (Exception e) {
-                Log.e(TAG, "Error executing command", e);
-                queueItem.setException(e);
-            } finally {
-                queueItem.setCompleted(true);
-                executeNext();
+        // Runs on whichever thread completes the future: result, error, timeout or cancel()
+        item.future.whenComplete((result, error) -> onFinished(item));
+        scheduleNext();
+        return item.future;
+    }
+
+    /**
+     * Número de comandos pendientes en todos los carriles, incluidos los que se están ejecutando
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            int count = running;
+            for (Lane lane : lanes.values()) {
+                count += lane.queue.size();
             }
-        });
+            return count;
+        }
+    }
+
+    /**
+     * Número de comandos ejecutándose ahora mismo
+     */
+    public int getRunningCount() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Métricas de profundidad de cada carril con comandos pendientes o en ejecución
+     * (un carril vacío se elimina, y con él sus métricas)
+     * @return Copia de las métricas, por dirección de dispositivo
+     */
+    public Map<String, LaneStats> getLaneStats() {
+        Map<String, LaneStats> stats = new HashMap<>();
+        synchronized (lock) {
+            for (Map.Entry<String, Lane> entry : lanes.entrySet()) {
+                Lane lane = entry.getValue();
+                stats.put(entry.getKey(), new LaneStats(lane.queue.size(), lane.current != null,
+                        lane.maxDepth, lane.completed));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Cambia el número máximo de comandos simultáneos
+     * @param maxConcurrent Nuevo límite (mínimo 1)
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (lock) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+        scheduleNext();
+    }
+
+    /**
+     * Cancela los comandos de un dispositivo (por ejemplo, al desconectarse) y elimina su carril
+     * @param deviceAddress Dirección del dispositivo
+     */
+    public void cancelLane(String deviceAddress) {
+        List<Command<?>> items = new ArrayList<>();
+        synchronized (lock) {
+            Lane lane = lanes.remove(deviceAddress);
+            if (lane == null) {
+                return;
+            }
+            // Queued commands leave the lane before the running one is cancelled, so finishing
+            // it cannot start the next command
+            items.addAll(lane.queue);
+            lane.queue.clear();
+            readyLanes.remove(lane);
+            if (lane.current != null) {
+                items.add(lane.current);
+            }
+        }
+        for (Command<?> item : items) {
+            item.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancela los comandos en curso y todos los pendientes
+     */
+    public void cancelAll() {
+        for (Command<?> item : drain()) {
+            item.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancela todos los comandos y detiene el hilo de la cola. No se puede reutilizar.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+        }
+        cancelAll();
+        timeoutScheduler.shutdownNow();
+        if (handlerThread != null) {
+            handlerThread.quitSafely();
+        }
     }
-    
+
     /**
      * Establece el timeout por defecto para todos los comandos
      * @param defaultTimeout Timeout en milisegundos (0 para desactivar)
@@ -120,46 +339,134 @@ public class BleCommandQueue {
     public void setDefaultTimeout(long defaultTimeout) {
         this.defaultTimeout = defaultTimeout;
     }
-    
-    /**
-     * Clase para almacenar un comando en la cola con su resultado/excepción
-     */
-    private static class QueueItem<T> {
-        private final Callable<T> command;
-        private T result;
-        private Exception exception;
-        private boolean completed = false;
-        
-        public QueueItem(Callable<T> command) {
-            this.command = command;
+
+    private List<Command<?>> drain() {
+        List<Command<?>> items = new ArrayList<>();
+        synchronized (lock) {
+            for (Lane lane : lanes.values()) {
+                if (lane.current != null) {
+                    items.add(lane.current);
+                }
+                items.addAll(lane.queue);
+            }
         }
-        
-        public Callable<T> getCommand() {
-            return command;
+        return items;
+    }
+
+    // Starts the head of each ready lane, in turn, until the concurrency cap is reached
+    private void scheduleNext() {
+        List<Command<?>> started = new ArrayList<>();
+        synchronized (lock) {
+            while (!shutdown && running < maxConcurrent) {
+                Lane lane = readyLanes.poll();
+                if (lane == null) {
+                    break;
+                }
+                Command<?> next = lane.queue.poll();
+                if (next == null) {
+                    continue;
+                }
+                lane.current = next;
+                running++;
+                started.add(next);
+            }
         }
-        
-        public T getResult() {
-            return result;
+        for (Command<?> next : started) {
+            try {
+                executor.execute(() -> start(next));
+            } catch (RejectedExecutionException e) {
+                next.future.completeExceptionally(new CancellationException("Cola de comandos BLE cerrada"));
+            }
         }
-        
-        public void setResult(Object result) {
-            this.result = (T) result;
+    }
+
+    private <T> void start(Command<T> item) {
+        if (item.future.isDone()) {
+            return;
         }
-        
-        public Exception getException() {
-            return exception;
+        if (item.timeout > 0) {
+            item.timeoutTask = timeoutScheduler.schedule(
+                () -> item.future.completeExceptionally(
+                    new TimeoutException("Command timed out after " + item.timeout + "ms")),
+                item.timeout,
+                TimeUnit.MILLISECONDS
+            );
         }
-        
-        public void setException(Exception exception) {
-            this.exception = exception;
+        try {
+            item.command.start(item.future);
+        } catch (Exception e) {
+            BleLogger.error("Error executing command", e);
+            item.future.completeExceptionally(e);
         }
-        
-        public boolean isCompleted() {
-            return completed;
+    }
+
+    private void onFinished(Command<?> item) {
+        ScheduledFuture<?> timeoutTask = item.timeoutTask;
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
         }
-        
-        public void setCompleted(boolean completed) {
-            this.completed = completed;
+
+        Lane lane = item.lane;
+        synchronized (lock) {
+            if (lane.current == item) {
+                lane.current = null;
+                lane.completed++;
+                running--;
+                // Back to the end of the line so other lanes get their turn first
+                if (!lane.queue.isEmpty()) {
+                    readyLanes.add(lane);
+                } else {
+                    removeIfIdle(lane);
+                }
+            } else {
+                // Cancelled while still waiting its turn
+                lane.queue.remove(item);
+                if (lane.queue.isEmpty()) {
+                    readyLanes.remove(lane);
+                    removeIfIdle(lane);
+                }
+                return;
+            }
+        }
+        scheduleNext();
+    }
+
+    // Drops a lane with nothing queued or running; call with the lock held
+    private void removeIfIdle(Lane lane) {
+        if (lane.current == null && lane.queue.isEmpty() && lanes.get(lane.address) == lane) {
+            lanes.remove(lane.address);
+        }
+    }
+
+    /**
+     * Comandos de un dispositivo: como mucho uno en ejecución
+     */
+    private static final class Lane {
+        final String address;
+        final ArrayDeque<Command<?>> queue = new ArrayDeque<>();
+        Command<?> current;
+        int maxDepth = 0;
+        long completed = 0;
+
+        Lane(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Comando en la cola con el future que recibirá su resultado
+     */
+    private static final class Command<T> {
+        final Lane lane;
+        final AsyncCommand<T> command;
+        final long timeout;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeoutTask;
+
+        Command(Lane lane, AsyncCommand<T> command, long timeout) {
+            this.lane = lane;
+            this.command = command;
+            this.timeout = timeout;
         }
     }
-} 
\ No newline at end of file
+}
@@ -7,7 +7,8 @@ import android.util.Log;
  */
 public class BleLogger {
     private static final String TAG = "NearbyMultipeer";
-    private static LogLevel logLevel = LogLevel.INFO;
+    private static volatile LogLevel logLevel = LogLevel.INFO;
+    private static volatile boolean logPayloads = false;
     
     /**
      * Niveles de log
@@ -38,6 +39,50 @@ public class BleLogger {
     public static void setLogLevel(LogLevel level) {
         logLevel = level;
     }
+
+    /**
+     * Genera el texto de un log sólo si el nivel está activo
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+    /**
+     * Indica si se escriben los logs del nivel indicado. Sirve para proteger a mano
+     * bloques que preparan datos sólo para el log.
+     * @param level Nivel de log
+     */
+    public static boolean isLoggable(LogLevel level) {
+        return level != LogLevel.NONE && logLevel.getLevel() >= level.getLevel();
+    }
+
+    /**
+     * Activa el log del contenido de los mensajes (desactivado por defecto: sólo se
+     * registra su longitud)
+     * @param enabled Si se registra el contenido
+     */
+    public static void setLogPayloads(boolean enabled) {
+        logPayloads = enabled;
+    }
+
+    /**
+     * Indica si se registra el contenido de los mensajes
+     */
+    public static boolean isPayloadLoggingEnabled() {
+        return logPayloads;
+    }
+
+    /**
+     * Texto de un mensaje para el log: el contenido si está activado con
+     * {@link #setLogPayloads}, o sólo su longitud
+     * @param payload Contenido del mensaje
+     */
+    public static String payload(String payload) {
+        if (payload == null) {
+            return "null";
+        }
+        return logPayloads ? payload : "<" + payload.length() + " chars>";
+    }
     
     /**
      * Log de error
@@ -70,6 +115,17 @@ public class BleLogger {
         }
     }
     
+    /**
+     * Log de advertencia con excepción
+     * @param message Mensaje
+     * @param throwable Excepción
+     */
+    public static void warn(String message, Throwable throwable) {
+        if (logLevel.getLevel() >= LogLevel.WARN.getLevel()) {
+            Log.w(TAG, message, throwable);
+        }
+    }
+    
     /**
      * Log de info
      * @param message Mensaje
@@ -100,6 +156,184 @@ public class BleLogger {
         }
     }
     
+    /**
+     * Log de error generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     */
+    public static void error(MessageSupplier supplier) {
+        if (isLoggable(LogLevel.ERROR)) {
+            Log.e(TAG, supplier.get());
+        }
+    }
+
+    /**
+     * Log de error con excepción, generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     * @param throwable Excepción
+     */
+    public static void error(MessageSupplier supplier, Throwable throwable) {
+        if (isLoggable(LogLevel.ERROR)) {
+            Log.e(TAG, supplier.get(), throwable);
+        }
+    }
+
+    /**
+     * Log de advertencia generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     */
+    public static void warn(MessageSupplier supplier) {
+        if (isLoggable(LogLevel.WARN)) {
+            Log.w(TAG, supplier.get());
+        }
+    }
+
+    /**
+     * Log de info generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     */
+    public static void info(MessageSupplier supplier) {
+        if (isLoggable(LogLevel.INFO)) {
+            Log.i(TAG, supplier.get());
+        }
+    }
+
+    /**
+     * Log de debug generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     */
+    public static void debug(MessageSupplier supplier) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            Log.d(TAG, supplier.get());
+        }
+    }
+
+    /**
+     * Log verbose generado sólo si el nivel está activo
+     * @param supplier Genera el mensaje
+     */
+    public static void verbose(MessageSupplier supplier) {
+        if (isLoggable(LogLevel.VERBOSE)) {
+            Log.v(TAG, supplier.get());
+        }
+    }
+
+    /**
+     * Log de error con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param args Argumentos
+     */
+    public static void error(String template, Object... args) {
+        if (isLoggable(LogLevel.ERROR)) {
+            Log.e(TAG, format(template, args));
+        }
+    }
+
+    /**
+     * Log de advertencia con parámetros: cada "{}" de la plantilla se sustituye por un
+     * argumento, sólo si el nivel está activo
+     * @param template Plantilla del mensaje
+     * @param args Argumentos
+     */
+    public static void warn(String template, Object... args) {
+        if (isLoggable(LogLevel.WARN)) {
+            Log.w(TAG, format(template, args));
+        }
+    }
+
+    /**
+     * Log de info con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param arg Argumento
+     */
+    public static void info(String template, Object arg) {
+        if (isLoggable(LogLevel.INFO)) {
+            Log.i(TAG, format(template, arg));
+        }
+    }
+
+    /**
+     * Log de info con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param args Argumentos
+     */
+    public static void info(String template, Object... args) {
+        if (isLoggable(LogLevel.INFO)) {
+            Log.i(TAG, format(template, args));
+        }
+    }
+
+    /**
+     * Log de debug con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param arg Argumento
+     */
+    public static void debug(String template, Object arg) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            Log.d(TAG, format(template, arg));
+        }
+    }
+
+    /**
+     * Log de debug con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param arg1 Primer argumento
+     * @param arg2 Segundo argumento
+     */
+    public static void debug(String template, Object arg1, Object arg2) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            Log.d(TAG, format(template, arg1, arg2));
+        }
+    }
+
+    /**
+     * Log de debug con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param args Argumentos
+     */
+    public static void debug(String template, Object... args) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            Log.d(TAG, format(template, args));
+        }
+    }
+
+    /**
+     * Log verbose con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param arg Argumento
+     */
+    public static void verbose(String template, Object arg) {
+        if (isLoggable(LogLevel.VERBOSE)) {
+            Log.v(TAG, format(template, arg));
+        }
+    }
+
+    /**
+     * Log verbose con parámetros ("{}" en la plantilla)
+     * @param template Plantilla del mensaje
+     * @param args Argumentos
+     */
+    public static void verbose(String template, Object... args) {
+        if (isLoggable(LogLevel.VERBOSE)) {
+            Log.v(TAG, format(template, args));
+        }
+    }
+
+    // Sustituye cada "{}" por el siguiente argumento; los que sobran se ignoran
+    static String format(String template, Object... args) {
+        StringBuilder sb = new StringBuilder(template.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = template.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(template, start, index).append(arg);
+            start = index + 2;
+        }
+        sb.append(template, start, template.length());
+        return sb.toString();
+    }
+
     /**
      * Log específico para operaciones BLE
      * @param operation Operación
@@ -116,12 +350,33 @@ public class BleLogger {
      * @param data Datos
      */
     public static void logHexData(String label, byte[] data) {
-        if (logLevel.getLevel() >= LogLevel.DEBUG.getLevel() && data != null) {
-            StringBuilder hex = new StringBuilder();
-            for (byte b : data) {
-                hex.append(String.format("%02X ", b));
+        if (isLoggable(LogLevel.DEBUG) && data != null) {
+            Log.d(TAG, label + ": " + toHex(data, 0, data.length));
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Codifica bytes en hexadecimal ("4E 4D 50"), con una tabla en lugar de formatear cada byte
+     * @param data Datos
+     * @param offset Posición inicial
+     * @param length Número de bytes
+     */
+    public static String toHex(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return "";
+        }
+        char[] out = new char[length * 3 - 1];
+        int pos = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (pos > 0) {
+                out[pos++] = ' ';
             }
-            debug(label + ": " + hex.toString());
+            int b = data[i] & 0xFF;
+            out[pos++] = HEX_DIGITS[b >>> 4];
+            out[pos++] = HEX_DIGITS[b & 0x0F];
         }
+        return new String(out);
     }
 } 
\ No newline at end of file
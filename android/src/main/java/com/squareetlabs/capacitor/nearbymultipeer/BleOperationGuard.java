@@ -0,0 +1,295 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+
+/**
+ * Capa de control para arrancar y parar el escaneo y el advertising BLE.
+ *
+ * Las peticiones no se ejecutan en el momento: se anota el estado deseado y se aplica
+ * tras una ventana corta, de modo que una ráfaga de start/stop se reduce a la última
+ * intención y las peticiones que no cambian nada se descartan. Además, los arranques
+ * se limitan a maxStarts por ventana (Android bloquea en silencio el escaneo de una app
+ * que lo arranca más de 5 veces en 30 segundos); los que exceden el límite se aplazan
+ * hasta que vuelve a haber margen. Cuenta cada intento, haya arrancado o no, porque
+ * Android también los cuenta. Los rearranques internos (cambios de configuración) sólo
+ * pueden gastar el límite menos {@link #RESERVED_STARTS}, de modo que siempre queda
+ * margen para los arranques que pide la app.
+ *
+ * Las acciones se ejecutan siempre en el hilo del handler recibido.
+ */
+public final class BleOperationGuard {
+
+    /**
+     * Operaciones controladas
+     */
+    public enum Operation {
+        SCAN,
+        ADVERTISE
+    }
+
+    /**
+     * Acciones reales sobre la radio para una operación
+     */
+    public interface Actions {
+        /**
+         * @return true si la operación se ha arrancado (false si no había adaptador, permisos...)
+         */
+        boolean start();
+
+        void stop();
+    }
+
+    // Límite de arranques de escaneo impuesto por Android
+    public static final int SCAN_MAX_STARTS = 5;
+    public static final long SCAN_WINDOW_MS = 30_000;
+    public static final long DEFAULT_COALESCE_MS = 100;
+    // Arranques de cada ventana que los rearranques no pueden gastar
+    public static final int RESERVED_STARTS = 2;
+
+    private final Handler handler;
+    private final long coalesceMs;
+    private final Channel[] channels = new Channel[Operation.values().length];
+
+    /**
+     * @param handler Handler en cuyo hilo se ejecutan las acciones
+     * @param coalesceMs Ventana en la que se agrupan las peticiones
+     */
+    public BleOperationGuard(Handler handler, long coalesceMs) {
+        this.handler = handler;
+        this.coalesceMs = Math.max(0, coalesceMs);
+    }
+
+    /**
+     * Registra las acciones de una operación
+     * @param maxStarts Arranques permitidos por ventana (0 = sin límite)
+     * @param windowMs Duración de la ventana
+     */
+    public void register(Operation operation, Actions actions, int maxStarts, long windowMs) {
+        synchronized (this) {
+            channels[operation.ordinal()] = new Channel(operation, actions, maxStarts, windowMs);
+        }
+    }
+
+    /**
+     * Pide que la operación esté activa. Si ya lo está, la petición se descarta.
+     */
+    public void requestStart(Operation operation) {
+        request(operation, true, false);
+    }
+
+    /**
+     * Pide que la operación se rearranque aunque ya esté activa (por ejemplo, al cambiar
+     * la configuración). Cuenta como un arranque para el límite, pero se aplaza antes que
+     * un arranque normal para dejar {@link #RESERVED_STARTS} libres.
+     */
+    public void requestRestart(Operation operation) {
+        request(operation, true, true);
+    }
+
+    /**
+     * Pide que la operación se detenga. Si no está activa, la petición se descarta.
+     */
+    public void requestStop(Operation operation) {
+        request(operation, false, false);
+    }
+
+    /**
+     * Marca la operación como detenida sin ejecutar nada (la radio se ha apagado y el
+     * sistema ya ha parado el escaneo/advertising). Cancela cualquier petición pendiente.
+     */
+    public void markStopped(Operation operation) {
+        synchronized (this) {
+            Channel channel = channels[operation.ordinal()];
+            if (channel == null) {
+                return;
+            }
+            channel.active = false;
+            channel.desired = false;
+            channel.restart = false;
+            if (channel.scheduled) {
+                handler.removeCallbacks(channel.applyRunnable);
+                channel.scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Indica si la operación está activa según el último estado aplicado
+     */
+    public synchronized boolean isActive(Operation operation) {
+        Channel channel = channels[operation.ordinal()];
+        return channel != null && channel.active;
+    }
+
+    /**
+     * Copia de los contadores de una operación
+     */
+    public synchronized Stats getStats(Operation operation) {
+        Channel channel = channels[operation.ordinal()];
+        Stats stats = new Stats();
+        if (channel != null) {
+            stats.active = channel.active;
+            stats.requestedStarts = channel.requestedStarts;
+            stats.requestedStops = channel.requestedStops;
+            stats.executedStarts = channel.executedStarts;
+            stats.executedStops = channel.executedStops;
+            stats.suppressed = channel.suppressed;
+            stats.deferred = channel.deferred;
+            stats.pending = channel.scheduled;
+        }
+        return stats;
+    }
+
+    private void request(Operation operation, boolean start, boolean restart) {
+        synchronized (this) {
+            Channel channel = channels[operation.ordinal()];
+            if (channel == null) {
+                return;
+            }
+            if (start) {
+                channel.requestedStarts++;
+            } else {
+                channel.requestedStops++;
+            }
+
+            if (channel.scheduled) {
+                // Ya hay una petición pendiente: ésta la sustituye o coincide con ella
+                channel.suppressed++;
+                channel.desired = start;
+                channel.restart = start && (channel.restart || restart);
+                return;
+            }
+
+            if (channel.active == start && !restart) {
+                BleLogger.debug("Petición " + operation + (start ? " start" : " stop") + " redundante, descartada");
+                channel.suppressed++;
+                return;
+            }
+
+            channel.desired = start;
+            channel.restart = restart;
+            channel.scheduled = true;
+            handler.postDelayed(channel.applyRunnable, coalesceMs);
+        }
+    }
+
+    private void apply(Channel channel) {
+        boolean start;
+        synchronized (this) {
+            channel.scheduled = false;
+            if (channel.desired) {
+                if (channel.active && !channel.restart) {
+                    return;
+                }
+                // A restart of a stopped operation is just a start
+                boolean restart = channel.active;
+                long delay = channel.budgetDelay(SystemClock.elapsedRealtime(), restart);
+                if (delay > 0) {
+                    channel.deferred++;
+                    channel.scheduled = true;
+                    handler.postDelayed(channel.applyRunnable, delay);
+                    BleLogger.warn("{} de {} aplazado {} ms para no superar {} arranques en {} ms",
+                            restart ? "Rearranque" : "Arranque", channel.operation, delay,
+                            channel.maxStarts, channel.windowMs);
+                    return;
+                }
+            } else if (!channel.active) {
+                return;
+            }
+            start = channel.desired;
+            channel.restart = false;
+        }
+
+        // Las acciones se ejecutan fuera del lock: pueden tardar y llamar a la pila BLE
+        if (start) {
+            boolean started = channel.actions.start();
+            synchronized (this) {
+                channel.executedStarts++;
+                channel.active = started;
+                // Android counts failed attempts against the limit too
+                channel.recordStart(SystemClock.elapsedRealtime());
+            }
+        } else {
+            channel.actions.stop();
+            synchronized (this) {
+                channel.executedStops++;
+                channel.active = false;
+            }
+        }
+    }
+
+    /**
+     * Contadores de una operación
+     */
+    public static final class Stats {
+        public boolean active;
+        public boolean pending;
+        public long requestedStarts;
+        public long requestedStops;
+        public long executedStarts;
+        public long executedStops;
+        // Peticiones descartadas por redundantes o sustituidas por otra posterior
+        public long suppressed;
+        // Arranques retrasados por el límite de arranques por ventana
+        public long deferred;
+    }
+
+    // Estado de una operación; todos los campos se protegen con el lock del guard
+    private final class Channel {
+        final Operation operation;
+        final Actions actions;
+        final int maxStarts;
+        final long windowMs;
+        final ArrayDeque<Long> startTimes = new ArrayDeque<>();
+        final Runnable applyRunnable = () -> apply(this);
+
+        boolean desired = false;
+        boolean active = false;
+        boolean restart = false;
+        boolean scheduled = false;
+
+        long requestedStarts;
+        long requestedStops;
+        long executedStarts;
+        long executedStops;
+        long suppressed;
+        long deferred;
+
+        Channel(Operation operation, Actions actions, int maxStarts, long windowMs) {
+            this.operation = operation;
+            this.actions = actions;
+            this.maxStarts = Math.max(0, maxStarts);
+            this.windowMs = Math.max(0, windowMs);
+        }
+
+        // Milisegundos que hay que esperar para poder arrancar sin superar el límite
+        long budgetDelay(long now, boolean restart) {
+            if (maxStarts == 0) {
+                return 0;
+            }
+            while (!startTimes.isEmpty() && now - startTimes.peekFirst() >= windowMs) {
+                startTimes.pollFirst();
+            }
+            int limit = restart ? Math.max(1, maxStarts - RESERVED_STARTS) : maxStarts;
+            if (startTimes.size() < limit) {
+                return 0;
+            }
+            // Espera a que caduquen los arranques que sobran para bajar del límite
+            Long[] times = startTimes.toArray(new Long[0]);
+            return times[startTimes.size() - limit] + windowMs - now;
+        }
+
+        void recordStart(long now) {
+            if (maxStarts == 0) {
+                return;
+            }
+            startTimes.addLast(now);
+            while (startTimes.size() > maxStarts) {
+                startTimes.pollFirst();
+            }
+        }
+    }
+}
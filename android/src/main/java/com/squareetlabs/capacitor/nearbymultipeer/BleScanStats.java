@@ -0,0 +1,68 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de los callbacks de escaneo BLE, para comparar el número de despertares
+ * de la app con y sin batching en el controlador.
+ */
+public final class BleScanStats {
+    private final AtomicLong resultCallbacks = new AtomicLong();
+    private final AtomicLong batchCallbacks = new AtomicLong();
+    private final AtomicLong batchResults = new AtomicLong();
+    private final AtomicLong batchDuplicates = new AtomicLong();
+    private volatile long since = SystemClock.elapsedRealtime();
+
+    /**
+     * Un callback onScanResult
+     */
+    public void onResult() {
+        resultCallbacks.incrementAndGet();
+    }
+
+    /**
+     * Un callback onBatchScanResults
+     * @param results Resultados recibidos en el lote
+     * @param unique Dispositivos distintos en el lote
+     */
+    public void onBatch(int results, int unique) {
+        batchCallbacks.incrementAndGet();
+        batchResults.addAndGet(results);
+        batchDuplicates.addAndGet(results - unique);
+    }
+
+    public void reset() {
+        resultCallbacks.set(0);
+        batchCallbacks.set(0);
+        batchResults.set(0);
+        batchDuplicates.set(0);
+        since = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Copia de los contadores desde el último reset
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.resultCallbacks = resultCallbacks.get();
+        snapshot.batchCallbacks = batchCallbacks.get();
+        snapshot.batchResults = batchResults.get();
+        snapshot.batchDuplicates = batchDuplicates.get();
+        snapshot.elapsedMs = SystemClock.elapsedRealtime() - since;
+        long callbacks = snapshot.resultCallbacks + snapshot.batchCallbacks;
+        snapshot.callbacksPerMinute = snapshot.elapsedMs > 0 ? callbacks * 60_000.0 / snapshot.elapsedMs : 0;
+        return snapshot;
+    }
+
+    public static final class Snapshot {
+        public long resultCallbacks;
+        public long batchCallbacks;
+        public long batchResults;
+        // Resultados del mismo dispositivo repetidos dentro de un lote
+        public long batchDuplicates;
+        public long elapsedMs;
+        public double callbacksPerMinute;
+    }
+}
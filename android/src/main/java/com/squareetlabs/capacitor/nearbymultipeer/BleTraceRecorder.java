@@ -0,0 +1,147 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registro binario en memoria de tramas y anuncios BLE, para depurar en campo sin
+ * activar el log DEBUG.
+ *
+ * Los registros se guardan en un anillo de huecos preasignados: grabar es copiar como
+ * mucho maxRecordBytes bytes y unos pocos campos, sin crear objetos ni formatear texto.
+ * Cuando el anillo se llena se sobrescriben los registros más antiguos. Desactivado, el
+ * coste de {@link #record} es la lectura de un campo volatile.
+ */
+public final class BleTraceRecorder {
+
+    // Tipos de registro
+    public static final int KIND_FRAME_IN = 1;
+    public static final int KIND_FRAME_OUT = 2;
+    public static final int KIND_ADVERTISEMENT = 3;
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_RECORD_BYTES = 256;
+
+    private volatile boolean enabled = false;
+
+    // Guarded by this
+    private long[] timestamps;
+    private int[] kinds;
+    private int[] types;
+    private String[] addresses;
+    private int[] lengths;
+    private byte[][] data;
+    private int maxRecordBytes;
+    private long written = 0;
+
+    public BleTraceRecorder() {
+        allocate(DEFAULT_CAPACITY, DEFAULT_MAX_RECORD_BYTES);
+    }
+
+    /**
+     * Activa o desactiva la grabación. Cambiar el tamaño descarta lo grabado.
+     * @param enabled Si se graban registros
+     * @param capacity Número de registros que se conservan
+     * @param maxRecordBytes Bytes que se guardan de cada registro (el resto se trunca)
+     */
+    public synchronized void configure(boolean enabled, int capacity, int maxRecordBytes) {
+        capacity = Math.max(1, capacity);
+        maxRecordBytes = Math.max(0, maxRecordBytes);
+        if (capacity != timestamps.length || maxRecordBytes != this.maxRecordBytes) {
+            allocate(capacity, maxRecordBytes);
+        }
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Graba un registro si la grabación está activa
+     * @param kind Tipo de registro ({@link #KIND_FRAME_IN}, ...)
+     * @param address Dirección del dispositivo o endpoint
+     * @param type Tipo de trama, o 0 si no aplica
+     * @param buffer Datos
+     * @param offset Posición inicial de los datos
+     * @param length Longitud de los datos
+     */
+    public void record(int kind, String address, int type, byte[] buffer, int offset, int length) {
+        if (!enabled || buffer == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            int slot = (int) (written % timestamps.length);
+            timestamps[slot] = now;
+            kinds[slot] = kind;
+            types[slot] = type;
+            addresses[slot] = address;
+            lengths[slot] = length;
+            System.arraycopy(buffer, offset, data[slot], 0, Math.min(length, maxRecordBytes));
+            written++;
+        }
+    }
+
+    /**
+     * Copia de los registros conservados, del más antiguo al más reciente
+     * @param clear Si se vacía el anillo después de copiarlo
+     */
+    public synchronized List<Record> dump(boolean clear) {
+        int capacity = timestamps.length;
+        long first = Math.max(0, written - capacity);
+        List<Record> records = new ArrayList<>((int) (written - first));
+        for (long i = first; i < written; i++) {
+            int slot = (int) (i % capacity);
+            int stored = Math.min(lengths[slot], maxRecordBytes);
+            records.add(new Record(timestamps[slot], kinds[slot], types[slot], addresses[slot],
+                    lengths[slot], BleLogger.toHex(data[slot], 0, stored)));
+        }
+        if (clear) {
+            written = 0;
+            Arrays.fill(addresses, null);
+        }
+        return records;
+    }
+
+    /**
+     * Registros sobrescritos desde el último vaciado
+     */
+    public synchronized long getOverwritten() {
+        return Math.max(0, written - timestamps.length);
+    }
+
+    private void allocate(int capacity, int maxRecordBytes) {
+        timestamps = new long[capacity];
+        kinds = new int[capacity];
+        types = new int[capacity];
+        addresses = new String[capacity];
+        lengths = new int[capacity];
+        data = new byte[capacity][maxRecordBytes];
+        this.maxRecordBytes = maxRecordBytes;
+        written = 0;
+    }
+
+    /**
+     * Registro copiado del anillo
+     */
+    public static final class Record {
+        public final long timestamp;
+        public final int kind;
+        public final int type;
+        public final String address;
+        // Longitud original; hex puede estar truncado a maxRecordBytes
+        public final int length;
+        public final String hex;
+
+        Record(long timestamp, int kind, int type, String address, int length, String hex) {
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.type = type;
+            this.address = address;
+            this.length = length;
+            this.hex = hex;
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo escritor dedicado a una conexión Bluetooth.
+ *
+ * Las tramas se encolan en una cola acotada y se escriben en el socket desde este
+ * hilo, de forma que un peer lento no bloquea al hilo del plugin ni al resto de
+ * conexiones. El listener de cada trama se notifica cuando la trama se ha escrito
+ * (o ha fallado), siempre desde este hilo.
+ *
+ * Opcionalmente puede agrupar (coalescing) varias tramas pequeñas en una sola
+ * escritura al socket, hasta un máximo de bytes o de tiempo de espera, para reducir
+ * el número de paquetes RFCOMM cuando se envían muchos mensajes cortos.
+ *
+ * Las transferencias grandes ({@link OutboundTransfer}) se envían fragmento a fragmento
+ * y se intercalan entre sí y con los mensajes pequeños, de forma que un payload grande
+ * no monopoliza el enlace.
+ *
+ * Si se indica un {@link BleTraceRecorder}, cada trama escrita en el socket (mensajes,
+ * cabeceras de transferencia y fragmentos) se graba como {@link BleTraceRecorder#KIND_FRAME_OUT}
+ * con su tipo real.
+ */
+public class BluetoothWriter extends Thread {
+
+    /**
+     * Comportamiento de {@link #enqueue} cuando la cola está llena
+     */
+    public enum FullPolicy {
+        REJECT, // Falla inmediatamente
+        BLOCK   // Espera hasta que haya hueco o venza el timeout
+    }
+
+    /**
+     * Configuración de agrupación de escrituras
+     */
+    public static final class CoalescingOptions {
+        public static final CoalescingOptions DISABLED = new CoalescingOptions(false, 0, 0);
+
+        public final boolean enabled;
+        public final int maxBytes;
+        public final long maxDelayMs;
+
+        /**
+         * @param enabled Si se agrupan tramas
+         * @param maxBytes Tamaño máximo de una escritura agrupada
+         * @param maxDelayMs Tiempo máximo que se retiene la primera trama esperando a otras
+         */
+        public CoalescingOptions(boolean enabled, int maxBytes, long maxDelayMs) {
+            this.enabled = enabled;
+            this.maxBytes = Math.max(0, maxBytes);
+            this.maxDelayMs = Math.max(0, maxDelayMs);
+        }
+    }
+
+    /**
+     * Receptor del progreso de una transferencia fragmentada (se llama desde el hilo escritor)
+     */
+    public interface ProgressListener {
+        void onProgress(long payloadId, long bytesTransferred, long totalBytes);
+    }
+
+    /**
+     * Origen de los datos de una transferencia fragmentada. Se lee secuencialmente
+     * desde el hilo escritor.
+     */
+    public interface TransferSource {
+        long length();
+
+        int read(byte[] dst, int offset, int length) throws IOException;
+
+        void close();
+    }
+
+    /**
+     * Origen de datos en memoria
+     */
+    public static TransferSource bytesSource(byte[] data) {
+        return new TransferSource() {
+            private int position = 0;
+
+            @Override
+            public long length() {
+                return data.length;
+            }
+
+            @Override
+            public int read(byte[] dst, int offset, int length) {
+                int n = Math.min(length, data.length - position);
+                System.arraycopy(data, position, dst, offset, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+    }
+
+    /**
+     * Origen de datos leído de un fichero, sin cargarlo entero en memoria
+     */
+    public static TransferSource fileSource(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        long length = file.length();
+        return new TransferSource() {
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public int read(byte[] dst, int offset, int length) throws IOException {
+                return in.read(dst, offset, length);
+            }
+
+            @Override
+            public void close() {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    BleLogger.warn("Error al cerrar el fichero de origen", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Error al leer el origen de una transferencia; sólo afecta a esa transferencia
+     */
+    static final class SourceReadException extends Exception {
+        SourceReadException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Transferencia grande que se envía en tramas {@link FrameCodec#TYPE_CHUNK}
+     */
+    public static final class OutboundTransfer {
+        private final long payloadId;
+        private final TransferSource source;
+        private final long totalLength;
+        private final int chunkSize;
+        private final byte[] infoFrame;
+        private final ProgressListener progressListener;
+        private long position = 0;
+        private boolean infoSent = false;
+        private byte[] frameBuffer;
+
+        /**
+         * @param payloadId Id único de la transferencia
+         * @param data Datos completos; no deben modificarse hasta que termine el envío
+         * @param chunkSize Tamaño máximo de cada fragmento
+         * @param progressListener Receptor del progreso (puede ser null)
+         */
+        public OutboundTransfer(long payloadId, byte[] data, int chunkSize, ProgressListener progressListener) {
+            this(payloadId, bytesSource(data), chunkSize, null, progressListener);
+        }
+
+        /**
+         * @param payloadId Id único de la transferencia
+         * @param source Origen de los datos
+         * @param chunkSize Tamaño máximo de cada fragmento
+         * @param infoFrame Trama TYPE_TRANSFER_INFO a enviar antes del primer fragmento (puede ser null)
+         * @param progressListener Receptor del progreso (puede ser null)
+         */
+        public OutboundTransfer(long payloadId, TransferSource source, int chunkSize, byte[] infoFrame,
+                                ProgressListener progressListener) {
+            this.payloadId = payloadId;
+            this.source = source;
+            this.totalLength = source.length();
+            this.chunkSize = Math.max(1, chunkSize);
+            this.infoFrame = infoFrame;
+            this.progressListener = progressListener;
+        }
+
+        public long getPayloadId() {
+            return payloadId;
+        }
+
+        boolean isComplete() {
+            return position >= totalLength;
+        }
+
+        // Reads the next chunk straight into the reusable frame buffer and returns the frame length
+        int encodeNextChunk() throws SourceReadException {
+            int length = (int) Math.min(chunkSize, totalLength - position);
+            if (frameBuffer == null) {
+                frameBuffer = new byte[FrameCodec.HEADER_SIZE + FrameCodec.CHUNK_HEADER_SIZE
+                        + (int) Math.min(chunkSize, totalLength)];
+            }
+
+            int dataOffset = FrameCodec.writeChunkHeader(frameBuffer, payloadId, totalLength, position, length);
+            int filled = 0;
+            try {
+                while (filled < length) {
+                    int n = source.read(frameBuffer, dataOffset + filled, length - filled);
+                    if (n < 0) {
+                        throw new IOException("Fin de datos inesperado en la posición " + (position + filled));
+                    }
+                    filled += n;
+                }
+            } catch (IOException e) {
+                throw new SourceReadException("Error al leer el origen de la transferencia", e);
+            }
+
+            position += length;
+            return dataOffset + length;
+        }
+
+        void notifyProgress() {
+            if (progressListener != null) {
+                progressListener.onProgress(payloadId, position, totalLength);
+            }
+        }
+
+        void release() {
+            frameBuffer = null;
+            source.close();
+        }
+    }
+
+    /**
+     * Receptor de errores de escritura irrecuperables (el socket debe cerrarse)
+     */
+    public interface ErrorListener {
+        void onWriteError(IOException e);
+    }
+
+    private final OutputStream outStream;
+    private final ArrayBlockingQueue<OutboundFrame> queue;
+    private final FullPolicy fullPolicy;
+    private final long blockTimeoutMs;
+    private final ErrorListener errorListener;
+    private final BleTraceRecorder traceRecorder; // may be null
+    private final String traceAddress;
+    private volatile boolean running = true;
+    private volatile CoalescingOptions coalescing = CoalescingOptions.DISABLED;
+
+    // Solo accedidos desde el hilo escritor
+    private OutboundFrame carry;
+    private byte[] coalesceBuffer;
+    private final List<OutboundFrame> batch = new ArrayList<>();
+    private final ArrayDeque<OutboundFrame> activeTransfers = new ArrayDeque<>();
+
+    // Estadísticas
+    private volatile long framesWritten = 0;
+    private volatile long socketWrites = 0;
+
+    /**
+     * @param name Nombre del hilo
+     * @param outStream Stream de salida del socket
+     * @param capacity Número máximo de tramas pendientes
+     * @param fullPolicy Política cuando la cola está llena
+     * @param blockTimeoutMs Tiempo máximo de espera con la política BLOCK
+     * @param errorListener Receptor de errores de escritura
+     */
+    BluetoothWriter(String name, OutputStream outStream, int capacity, FullPolicy fullPolicy,
+                    long blockTimeoutMs, ErrorListener errorListener) {
+        this(name, outStream, capacity, fullPolicy, blockTimeoutMs, errorListener, null, null);
+    }
+
+    /**
+     * @param traceRecorder Registro de las tramas escritas (puede ser null)
+     * @param traceAddress Dirección con la que se graban las tramas
+     */
+    BluetoothWriter(String name, OutputStream outStream, int capacity, FullPolicy fullPolicy,
+                    long blockTimeoutMs, ErrorListener errorListener,
+                    BleTraceRecorder traceRecorder, String traceAddress) {
+        super(name);
+        this.outStream = outStream;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.fullPolicy = fullPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.errorListener = errorListener;
+        this.traceRecorder = traceRecorder;
+        this.traceAddress = traceAddress;
+    }
+
+    /**
+     * Encola una trama ya codificada para su envío
+     * @param frame Trama completa (cabecera + payload); no debe modificarse después
+     * @param listener Se notifica cuando la trama se ha escrito o ha fallado
+     * @return false si la trama no se ha podido encolar (el listener ya ha sido notificado)
+     */
+    public boolean enqueue(byte[] frame, NearbyMultipeer.OnResultListener listener) {
+        return offer(new OutboundFrame(frame, null, listener));
+    }
+
+    /**
+     * Encola una transferencia grande; sus fragmentos se intercalan con el resto del tráfico
+     * @param transfer Transferencia a enviar
+     * @param listener Se notifica cuando se ha escrito el último fragmento o ha fallado
+     * @return false si la transferencia no se ha podido encolar (el listener ya ha sido notificado)
+     */
+    public boolean enqueueTransfer(OutboundTransfer transfer, NearbyMultipeer.OnResultListener listener) {
+        return offer(new OutboundFrame(null, transfer, listener));
+    }
+
+    private boolean offer(OutboundFrame item) {
+        if (!running) {
+            item.fail("Conexión cerrada");
+            return false;
+        }
+
+        boolean queued;
+        if (fullPolicy == FullPolicy.BLOCK) {
+            try {
+                queued = queue.offer(item, blockTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(item);
+        }
+
+        if (!queued) {
+            item.fail("Cola de salida llena");
+            return false;
+        }
+
+        // The writer may have stopped while we were waiting for room
+        if (!running && queue.remove(item)) {
+            item.fail("Conexión cerrada");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cambia la configuración de agrupación; se aplica a partir de la siguiente escritura
+     * @param options Nueva configuración
+     */
+    public void setCoalescing(CoalescingOptions options) {
+        this.coalescing = options != null ? options : CoalescingOptions.DISABLED;
+    }
+
+    /**
+     * Número de tramas escritas en el socket
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Número de llamadas de escritura al socket (menor que el de tramas si hay agrupación)
+     */
+    public long getSocketWrites() {
+        return socketWrites;
+    }
+
+    /**
+     * Número de tramas pendientes de escribir
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Detiene el hilo y falla todas las tramas pendientes
+     */
+    public void shutdown() {
+        running = false;
+        interrupt();
+        failPending("Conexión cerrada");
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            OutboundFrame item = carry;
+            carry = null;
+            if (item == null) {
+                item = queue.poll();
+            }
+            if (item == null && activeTransfers.isEmpty()) {
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            try {
+                // Alternate between queued messages and one chunk of the next active transfer
+                if (item != null) {
+                    if (item.transfer != null) {
+                        activeTransfers.addLast(item);
+                    } else {
+                        writeFrames(item);
+                    }
+                }
+                if (!activeTransfers.isEmpty()) {
+                    writeNextChunk();
+                }
+            } catch (IOException | SecurityException e) {
+                BleLogger.error("Error al escribir en el socket Bluetooth", e);
+                running = false;
+                String error = "Error al enviar datos: " + e.getMessage();
+                failBatch(error);
+                failTransfers(error);
+                failCarry(error);
+                failPending(error);
+                errorListener.onWriteError(e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+        }
+
+        failTransfers("Conexión cerrada");
+        failCarry("Conexión cerrada");
+        failPending("Conexión cerrada");
+    }
+
+    private void writeFrames(OutboundFrame first) throws IOException {
+        batch.clear();
+        batch.add(first);
+        CoalescingOptions options = coalescing;
+
+        if (options.enabled && first.data.length < options.maxBytes) {
+            int total = gather(first, options, batch);
+            writeBatch(batch, total, options.maxBytes);
+        } else {
+            outStream.write(first.data);
+        }
+        outStream.flush();
+
+        socketWrites++;
+        framesWritten += batch.size();
+        for (OutboundFrame item : batch) {
+            trace(item.data, item.data.length);
+            item.listener.onSuccess();
+        }
+        batch.clear();
+    }
+
+    private void writeNextChunk() throws IOException {
+        // Keep the transfer in the deque while writing so a failure reaches its listener
+        OutboundFrame item = activeTransfers.peekFirst();
+        OutboundTransfer transfer = item.transfer;
+
+        if (transfer.infoFrame != null && !transfer.infoSent) {
+            outStream.write(transfer.infoFrame);
+            transfer.infoSent = true;
+            socketWrites++;
+            framesWritten++;
+            trace(transfer.infoFrame, transfer.infoFrame.length);
+        }
+
+        int frameLength;
+        try {
+            frameLength = transfer.encodeNextChunk();
+        } catch (SourceReadException e) {
+            // Only this transfer fails; the link itself is still usable
+            BleLogger.error(() -> "Error al leer los datos de la transferencia " + transfer.payloadId, e.getCause());
+            activeTransfers.pollFirst();
+            transfer.release();
+            item.listener.onFailure(e.getMessage() + ": " + e.getCause().getMessage());
+            return;
+        }
+        outStream.write(transfer.frameBuffer, 0, frameLength);
+        outStream.flush();
+
+        socketWrites++;
+        framesWritten++;
+        trace(transfer.frameBuffer, frameLength);
+        activeTransfers.pollFirst();
+        transfer.notifyProgress();
+
+        if (transfer.isComplete()) {
+            transfer.release();
+            item.listener.onSuccess();
+        } else {
+            activeTransfers.addLast(item);
+        }
+    }
+
+    /**
+     * Reúne tramas de la cola detrás de la primera hasta llenar maxBytes o agotar el
+     * tiempo de espera. Una trama que no cabe se guarda para la siguiente escritura.
+     * @return Número total de bytes del lote
+     */
+    private int gather(OutboundFrame first, CoalescingOptions options, List<OutboundFrame> batch) {
+        int total = first.data.length;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.maxDelayMs);
+
+        while (total < options.maxBytes) {
+            OutboundFrame next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                try {
+                    next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    // Shutting down: write what we already have and let the loop exit
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (next == null) break;
+            }
+
+            if (next.transfer != null || total + next.data.length > options.maxBytes) {
+                carry = next;
+                break;
+            }
+            batch.add(next);
+            total += next.data.length;
+        }
+        return total;
+    }
+
+    private void writeBatch(List<OutboundFrame> batch, int total, int maxBytes) throws IOException {
+        if (batch.size() == 1) {
+            outStream.write(batch.get(0).data);
+            return;
+        }
+
+        if (coalesceBuffer == null || coalesceBuffer.length < maxBytes) {
+            coalesceBuffer = new byte[maxBytes];
+        }
+        int pos = 0;
+        for (OutboundFrame item : batch) {
+            System.arraycopy(item.data, 0, coalesceBuffer, pos, item.data.length);
+            pos += item.data.length;
+        }
+        outStream.write(coalesceBuffer, 0, total);
+    }
+
+    // Records the payload of a frame that has been written, tagged with its own type
+    private void trace(byte[] frame, int frameLength) {
+        if (traceRecorder != null && frameLength >= FrameCodec.HEADER_SIZE) {
+            traceRecorder.record(BleTraceRecorder.KIND_FRAME_OUT, traceAddress, frame[3] & 0xFF,
+                    frame, FrameCodec.HEADER_SIZE, frameLength - FrameCodec.HEADER_SIZE);
+        }
+    }
+
+    private void failBatch(String error) {
+        for (OutboundFrame item : batch) {
+            item.listener.onFailure(error);
+        }
+        batch.clear();
+    }
+
+    private void failTransfers(String error) {
+        OutboundFrame item;
+        while ((item = activeTransfers.pollFirst()) != null) {
+            item.fail(error);
+        }
+    }
+
+    private void failCarry(String error) {
+        if (carry != null) {
+            carry.fail(error);
+            carry = null;
+        }
+    }
+
+    private void failPending(String error) {
+        List<OutboundFrame> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (OutboundFrame item : pending) {
+            item.fail(error);
+        }
+    }
+
+    // A queued item: either an encoded frame or a chunked transfer
+    private static final class OutboundFrame {
+        final byte[] data;
+        final OutboundTransfer transfer;
+        final NearbyMultipeer.OnResultListener listener;
+
+        OutboundFrame(byte[] data, OutboundTransfer transfer, NearbyMultipeer.OnResultListener listener) {
+            this.data = data;
+            this.transfer = transfer;
+            this.listener = listener;
+        }
+
+        // Transfers hold an open source until they complete or fail
+        void fail(String error) {
+            if (transfer != null) {
+                transfer.release();
+            }
+            listener.onFailure(error);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool de buffers de bytes reutilizables para la ruta de recepción.
+ *
+ * Los buffers se agrupan en clases de tamaño potencia de dos (desde 256 bytes hasta
+ * maxBufferSize). Un buffer obtenido con {@link #acquire(int)} puede ser más grande
+ * que lo pedido, por lo que el consumidor debe trabajar siempre con la longitud
+ * real de los datos. Los buffers mayores que la clase más grande no se reutilizan.
+ *
+ * Es seguro usarlo desde varios hilos: el lector del socket obtiene buffers y el
+ * hilo que entrega los mensajes los devuelve.
+ */
+public final class ByteBufferPool {
+    private static final int MIN_CLASS_SHIFT = 8; // 256 bytes
+
+    private final int maxClassShift;
+    private final ArrayBlockingQueue<byte[]>[] classes;
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    /**
+     * @param maxBufferSize Tamaño máximo de buffer reutilizable (se redondea a potencia de dos)
+     * @param buffersPerClass Número máximo de buffers libres retenidos por clase de tamaño
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ByteBufferPool(int maxBufferSize, int buffersPerClass) {
+        this.maxClassShift = Math.max(MIN_CLASS_SHIFT, shiftFor(maxBufferSize));
+        int classCount = maxClassShift - MIN_CLASS_SHIFT + 1;
+        this.classes = new ArrayBlockingQueue[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classes[i] = new ArrayBlockingQueue<>(buffersPerClass);
+        }
+    }
+
+    /**
+     * Obtiene un buffer con al menos minSize bytes
+     * @param minSize Tamaño mínimo necesario
+     * @return Buffer reutilizado o recién reservado
+     */
+    public byte[] acquire(int minSize) {
+        acquisitions.incrementAndGet();
+        int shift = Math.max(MIN_CLASS_SHIFT, shiftFor(minSize));
+        if (shift > maxClassShift) {
+            allocations.incrementAndGet();
+            return new byte[minSize];
+        }
+
+        byte[] buffer = classes[shift - MIN_CLASS_SHIFT].poll();
+        if (buffer == null) {
+            allocations.incrementAndGet();
+            buffer = new byte[1 << shift];
+        }
+        return buffer;
+    }
+
+    /**
+     * Devuelve un buffer al pool. Los buffers que no pertenecen a ninguna clase
+     * o que no caben en la cola de su clase se descartan.
+     * @param buffer Buffer obtenido previamente con acquire
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) return;
+
+        int length = buffer.length;
+        if (Integer.bitCount(length) != 1) return;
+
+        int shift = Integer.numberOfTrailingZeros(length);
+        if (shift < MIN_CLASS_SHIFT || shift > maxClassShift) return;
+
+        classes[shift - MIN_CLASS_SHIFT].offer(buffer);
+    }
+
+    /**
+     * Número de buffers reservados en memoria desde la creación del pool
+     */
+    public long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Número de llamadas a acquire desde la creación del pool
+     */
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    private static int shiftFor(int size) {
+        if (size <= 1) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
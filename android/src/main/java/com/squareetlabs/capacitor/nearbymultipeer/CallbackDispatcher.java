@@ -0,0 +1,195 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Hilo por el que pasan todos los callbacks de descubrimiento, conexión y datos, y los
+ * eventos hacia JS.
+ *
+ * Por defecto usa un HandlerThread propio para no saturar el hilo principal con el
+ * tráfico entrante; puede volver a usarse el hilo principal con {@link Mode#MAIN}.
+ * Los callbacks se ejecutan en orden de llegada dentro de un mismo modo. Cada modo tiene
+ * su propia cola: al cambiar de modo con callbacks pendientes, los nuevos pueden
+ * entregarse antes que los ya encolados en el hilo anterior (por ejemplo, un mensaje
+ * antes que el onConnectionResult de su endpoint). Conviene elegir el modo antes de
+ * empezar el discovery o el advertising.
+ *
+ * Mide cuánto espera cada callback en la cola antes de ejecutarse.
+ */
+public final class CallbackDispatcher {
+
+    /**
+     * Hilo en el que se entregan los callbacks
+     */
+    public enum Mode {
+        BACKGROUND,
+        MAIN
+    }
+
+    // Guarded by this; created on first use, never again after quit()
+    private HandlerThread handlerThread;
+    private Handler backgroundHandler;
+    private boolean quit = false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Mode mode = Mode.BACKGROUND;
+
+    // Guarded by this
+    private long dispatched = 0;
+    private int pending = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long lastLatencyNanos = 0;
+
+    /**
+     * Cambia el hilo de entrega. Los callbacks ya encolados se entregan en el hilo anterior,
+     * sin esperar ni ordenarse respecto a los que se encolen a partir de ahora.
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Encola un callback. Después de {@link #quit()} se descarta.
+     */
+    public void post(Runnable callback) {
+        Handler handler = handler();
+        if (handler == null) {
+            BleLogger.verbose("[CallbackDispatcher] callback descartado tras quit()");
+            return;
+        }
+        long enqueuedAt = System.nanoTime();
+        synchronized (this) {
+            pending++;
+        }
+        handler.post(() -> {
+            onDequeued(System.nanoTime() - enqueuedAt);
+            callback.run();
+        });
+    }
+
+    /**
+     * Ejecuta el callback en el momento si ya estamos en el hilo de entrega; si no, lo encola
+     */
+    public void dispatch(Runnable callback) {
+        Handler handler = handler();
+        if (handler != null && Looper.myLooper() == handler.getLooper()) {
+            callback.run();
+        } else {
+            post(callback);
+        }
+    }
+
+    /**
+     * Programa una tarea interna (por ejemplo, un temporizador) en el hilo de entrega; no
+     * cuenta en las estadísticas
+     */
+    public void postDelayed(Runnable task, long delayMs) {
+        Handler handler = handler();
+        if (handler != null) {
+            handler.postDelayed(task, delayMs);
+        }
+    }
+
+    /**
+     * Cancela una tarea programada con {@link #postDelayed}, en cualquiera de los dos hilos
+     */
+    public void removeCallbacks(Runnable task) {
+        mainHandler.removeCallbacks(task);
+        Handler background;
+        synchronized (this) {
+            background = backgroundHandler;
+        }
+        if (background != null) {
+            background.removeCallbacks(task);
+        }
+    }
+
+    /**
+     * Detiene el hilo propio después de entregar los callbacks ya encolados. A partir de
+     * aquí el dispatcher no vuelve a arrancar: lo que se encole después se descarta, en
+     * cualquiera de los dos modos.
+     */
+    public void quit() {
+        HandlerThread thread;
+        synchronized (this) {
+            quit = true;
+            thread = handlerThread;
+            handlerThread = null;
+            backgroundHandler = null;
+        }
+        if (thread != null) {
+            thread.quitSafely();
+        }
+    }
+
+    /**
+     * Copia de las estadísticas de la cola
+     */
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.mode = mode;
+        stats.dispatched = dispatched;
+        stats.pending = pending;
+        stats.averageLatencyNanos = dispatched > 0 ? totalLatencyNanos / dispatched : 0;
+        stats.maxLatencyNanos = maxLatencyNanos;
+        stats.lastLatencyNanos = lastLatencyNanos;
+        return stats;
+    }
+
+    /**
+     * Pone a cero las estadísticas de latencia (los callbacks pendientes se siguen contando)
+     */
+    public synchronized void resetStats() {
+        dispatched = 0;
+        totalLatencyNanos = 0;
+        maxLatencyNanos = 0;
+        lastLatencyNanos = 0;
+    }
+
+    /**
+     * Handler del modo actual, o null si ya se ha llamado a {@link #quit()}
+     */
+    private synchronized Handler handler() {
+        if (quit) {
+            return null;
+        }
+        return mode == Mode.MAIN ? mainHandler : backgroundHandler();
+    }
+
+    private synchronized Handler backgroundHandler() {
+        if (backgroundHandler == null) {
+            handlerThread = new HandlerThread("NearbyMultipeerCallbacks");
+            handlerThread.start();
+            backgroundHandler = new Handler(handlerThread.getLooper());
+        }
+        return backgroundHandler;
+    }
+
+    private synchronized void onDequeued(long latencyNanos) {
+        pending--;
+        dispatched++;
+        totalLatencyNanos += latencyNanos;
+        lastLatencyNanos = latencyNanos;
+        if (latencyNanos > maxLatencyNanos) {
+            maxLatencyNanos = latencyNanos;
+        }
+    }
+
+    /**
+     * Estadísticas de la cola de callbacks
+     */
+    public static final class Stats {
+        public Mode mode;
+        public long dispatched;
+        public int pending;
+        public long averageLatencyNanos;
+        public long maxLatencyNanos;
+        public long lastLatencyNanos;
+    }
+}
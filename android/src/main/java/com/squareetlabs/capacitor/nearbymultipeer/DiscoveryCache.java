@@ -0,0 +1,241 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Caché de los peers descubiertos por escaneo BLE.
+ *
+ * Guarda para cada dirección cuándo se vio por primera y última vez y un RSSI suavizado
+ * con media móvil exponencial. Los peers que no se ven durante el TTL se expiran y, si se
+ * supera el máximo de entradas, se retira el que lleva más tiempo sin verse (LRU); en ambos
+ * casos se avisa al {@link Listener} para emitir endpointLost.
+ *
+ * Las entradas se mantienen ordenadas por última vez vistas, así que expirar sólo recorre
+ * las entradas caducadas. Los tiempos son de SystemClock.elapsedRealtime().
+ */
+public final class DiscoveryCache {
+
+    public static final long DEFAULT_TTL_MS = 30000;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final double DEFAULT_RSSI_SMOOTHING = 0.25;
+
+    private static final long MIN_SWEEP_INTERVAL_MS = 1000;
+    private static final long MAX_SWEEP_INTERVAL_MS = 10000;
+
+    /**
+     * Recibe los peers retirados de la caché; se llama fuera del lock de la caché
+     */
+    public interface Listener {
+        void onEvicted(Entry entry, boolean expired);
+    }
+
+    /**
+     * Indica qué peers no deben expirar ni retirarse (por ejemplo, los conectados)
+     */
+    public interface Retention {
+        boolean isRetained(String address);
+    }
+
+    /**
+     * Copia del estado de un peer
+     */
+    public static final class Entry {
+        public final String address;
+        public final String name;
+        public final String serviceId;
+        public final long firstSeen;
+        public final long lastSeen;
+        // RSSI suavizado (dBm)
+        public final int rssi;
+        public final int lastRssi;
+        public final long sightings;
+
+        Entry(Peer peer) {
+            this.address = peer.address;
+            this.name = peer.name;
+            this.serviceId = peer.serviceId;
+            this.firstSeen = peer.firstSeen;
+            this.lastSeen = peer.lastSeen;
+            this.rssi = (int) Math.round(peer.smoothedRssi);
+            this.lastRssi = peer.lastRssi;
+            this.sightings = peer.sightings;
+        }
+    }
+
+    /**
+     * Contadores de la caché
+     */
+    public static final class Stats {
+        public int size;
+        public long expired;
+        public long evicted;
+    }
+
+    private static final class Peer {
+        final String address;
+        final long firstSeen;
+        String name;
+        String serviceId;
+        long lastSeen;
+        double smoothedRssi;
+        int lastRssi;
+        long sightings;
+
+        Peer(String address, long now, int rssi) {
+            this.address = address;
+            this.firstSeen = now;
+            this.smoothedRssi = rssi;
+        }
+    }
+
+    private final Listener listener;
+    private final Retention retention;
+
+    // Guarded by this; en orden de acceso, de modo que la primera entrada es la que lleva más tiempo sin verse
+    private final LinkedHashMap<String, Peer> peers = new LinkedHashMap<>(16, 0.75f, true);
+    private long ttlMs = DEFAULT_TTL_MS;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private double rssiSmoothing = DEFAULT_RSSI_SMOOTHING;
+    private long expired = 0;
+    private long evicted = 0;
+
+    public DiscoveryCache(Listener listener, Retention retention) {
+        this.listener = listener;
+        this.retention = retention;
+    }
+
+    /**
+     * @param ttlMs Tiempo sin ver un peer tras el que se da por perdido (0 para no expirar)
+     * @param maxEntries Número máximo de peers en la caché
+     * @param rssiSmoothing Peso de cada lectura nueva en el RSSI suavizado (0 &lt; x &lt;= 1)
+     */
+    public synchronized void configure(long ttlMs, int maxEntries, double rssiSmoothing) {
+        this.ttlMs = Math.max(0, ttlMs);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.rssiSmoothing = Math.min(1.0, Math.max(0.01, rssiSmoothing));
+    }
+
+    /**
+     * Registra que se ha visto un peer
+     * @return true si el peer no estaba en la caché (hay que notificar endpointFound)
+     */
+    public boolean observe(String address, String name, String serviceId, int rssi, long now) {
+        List<Entry> removed = null;
+        boolean added;
+        synchronized (this) {
+            Peer peer = peers.get(address);
+            added = peer == null;
+            if (added) {
+                peer = new Peer(address, now, rssi);
+                peers.put(address, peer);
+                if (peers.size() > maxEntries) {
+                    removed = evictOldest(address);
+                }
+            } else {
+                peer.smoothedRssi += rssiSmoothing * (rssi - peer.smoothedRssi);
+            }
+            peer.name = name;
+            peer.serviceId = serviceId;
+            peer.lastSeen = now;
+            peer.lastRssi = rssi;
+            peer.sightings++;
+        }
+        notifyEvicted(removed, false);
+        return added;
+    }
+
+    /**
+     * Retira los peers que no se han visto durante el TTL
+     * @return Número de peers expirados
+     */
+    public int expire(long now) {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            if (ttlMs == 0) {
+                return 0;
+            }
+            long cutoff = now - ttlMs;
+            Iterator<Peer> iterator = peers.values().iterator();
+            while (iterator.hasNext()) {
+                Peer peer = iterator.next();
+                if (peer.lastSeen > cutoff) {
+                    // El resto se ha visto más recientemente
+                    break;
+                }
+                if (retention.isRetained(peer.address)) {
+                    continue;
+                }
+                iterator.remove();
+                removed.add(new Entry(peer));
+            }
+            expired += removed.size();
+        }
+        notifyEvicted(removed, true);
+        return removed.size();
+    }
+
+    /**
+     * Cada cuánto conviene llamar a {@link #expire}, según el TTL, o 0 si no expira
+     */
+    public synchronized long getSweepIntervalMs() {
+        if (ttlMs == 0) {
+            return 0;
+        }
+        return Math.min(MAX_SWEEP_INTERVAL_MS, Math.max(MIN_SWEEP_INTERVAL_MS, ttlMs / 4));
+    }
+
+    /**
+     * Vacía la caché sin notificar (al empezar un discovery nuevo)
+     */
+    public synchronized void clear() {
+        peers.clear();
+    }
+
+    /**
+     * Copia de los peers, del que lleva más tiempo sin verse al más reciente
+     */
+    public synchronized List<Entry> snapshot() {
+        List<Entry> entries = new ArrayList<>(peers.size());
+        for (Peer peer : peers.values()) {
+            entries.add(new Entry(peer));
+        }
+        return entries;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.size = peers.size();
+        stats.expired = expired;
+        stats.evicted = evicted;
+        return stats;
+    }
+
+    // Retira el peer menos reciente que no esté retenido ni sea el que se acaba de añadir
+    private List<Entry> evictOldest(String keep) {
+        Iterator<Peer> iterator = peers.values().iterator();
+        while (iterator.hasNext()) {
+            Peer peer = iterator.next();
+            if (peer.address.equals(keep) || retention.isRetained(peer.address)) {
+                continue;
+            }
+            iterator.remove();
+            evicted++;
+            List<Entry> removed = new ArrayList<>(1);
+            removed.add(new Entry(peer));
+            return removed;
+        }
+        return null;
+    }
+
+    private void notifyEvicted(List<Entry> removed, boolean expired) {
+        if (removed == null) {
+            return;
+        }
+        for (Entry entry : removed) {
+            listener.onEvicted(entry, expired);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Elige la intensidad del escaneo y el advertising BLE según la actividad reciente.
+ *
+ * Tras arrancar el discovery o el advertising, o al aparecer un peer nuevo, se trabaja en
+ * {@link Level#AGGRESSIVE}; si no hay novedades durante aggressiveMs se baja a
+ * {@link Level#BALANCED} y, pasados balancedMs más, a {@link Level#LOW_POWER} (o al nivel
+ * mínimo configurado). Cada cambio de nivel se notifica al {@link Listener}, que debe
+ * rearrancar las operaciones activas con la configuración nueva.
+ *
+ * También mide cuánto tiempo ha estado activa cada operación en cada nivel.
+ */
+public final class DutyCycleScheduler {
+
+    /**
+     * Intensidad de escaneo y advertising, de mayor a menor consumo
+     */
+    public enum Level {
+        AGGRESSIVE,
+        BALANCED,
+        LOW_POWER
+    }
+
+    /**
+     * Recibe los cambios de nivel; se llama fuera del lock del scheduler
+     */
+    public interface Listener {
+        void onLevelChanged(Level level);
+    }
+
+    public static final long DEFAULT_AGGRESSIVE_MS = 10_000;
+    public static final long DEFAULT_BALANCED_MS = 50_000;
+
+    private final Handler handler;
+    private final Listener listener;
+    private final Runnable stepDownRunnable = this::stepDown;
+
+    // Guarded by this
+    private boolean adaptive = true;
+    private long aggressiveMs = DEFAULT_AGGRESSIVE_MS;
+    private long balancedMs = DEFAULT_BALANCED_MS;
+    private Level minLevel = Level.LOW_POWER;
+    private Level level = Level.AGGRESSIVE;
+    private long lastActivity = 0;
+    private long transitions = 0;
+    // Por operación: nivel con el que está activa (null si está parada), desde cuándo y tiempo acumulado por nivel
+    private final Level[] runningLevel = new Level[BleOperationGuard.Operation.values().length];
+    private final long[] runningSince = new long[BleOperationGuard.Operation.values().length];
+    private final long[][] timeMs = new long[BleOperationGuard.Operation.values().length][Level.values().length];
+
+    /**
+     * @param handler Handler en cuyo hilo se bajan los niveles
+     * @param listener Receptor de los cambios de nivel
+     */
+    public DutyCycleScheduler(Handler handler, Listener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    /**
+     * @param adaptive Si es false se trabaja siempre en {@link Level#AGGRESSIVE}
+     * @param aggressiveMs Tiempo sin actividad antes de bajar a {@link Level#BALANCED}
+     * @param balancedMs Tiempo en {@link Level#BALANCED} antes de bajar al siguiente nivel
+     * @param minLevel Nivel más bajo al que se puede llegar
+     */
+    public void configure(boolean adaptive, long aggressiveMs, long balancedMs, Level minLevel) {
+        synchronized (this) {
+            this.adaptive = adaptive;
+            this.aggressiveMs = Math.max(0, aggressiveMs);
+            this.balancedMs = Math.max(0, balancedMs);
+            this.minLevel = minLevel;
+        }
+        // Se vuelve a calcular el nivel con la política nueva
+        handler.removeCallbacks(stepDownRunnable);
+        stepDown();
+    }
+
+    /**
+     * Nivel con el que deben arrancarse el escaneo y el advertising
+     */
+    public synchronized Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Indica actividad (arranque o peer nuevo): vuelve a {@link Level#AGGRESSIVE}
+     */
+    public void onActivity() {
+        boolean changed;
+        long delay;
+        synchronized (this) {
+            lastActivity = SystemClock.elapsedRealtime();
+            changed = level != Level.AGGRESSIVE;
+            if (changed) {
+                level = Level.AGGRESSIVE;
+                transitions++;
+            }
+            delay = adaptive ? aggressiveMs : -1;
+        }
+        handler.removeCallbacks(stepDownRunnable);
+        if (delay >= 0) {
+            handler.postDelayed(stepDownRunnable, delay);
+        }
+        if (changed) {
+            listener.onLevelChanged(Level.AGGRESSIVE);
+        }
+    }
+
+    /**
+     * Anota que una operación se ha arrancado con el nivel actual
+     */
+    public synchronized void onStarted(BleOperationGuard.Operation operation) {
+        int index = operation.ordinal();
+        long now = SystemClock.elapsedRealtime();
+        accumulate(index, now);
+        runningLevel[index] = level;
+        runningSince[index] = now;
+    }
+
+    /**
+     * Anota que una operación se ha detenido
+     */
+    public synchronized void onStopped(BleOperationGuard.Operation operation) {
+        int index = operation.ordinal();
+        accumulate(index, SystemClock.elapsedRealtime());
+        runningLevel[index] = null;
+    }
+
+    /**
+     * Copia del nivel actual y los tiempos por nivel (incluye el tramo en curso)
+     */
+    public synchronized Stats getStats() {
+        long now = SystemClock.elapsedRealtime();
+        Stats stats = new Stats();
+        stats.level = level;
+        stats.adaptive = adaptive;
+        stats.transitions = transitions;
+        stats.scanMs = timesFor(BleOperationGuard.Operation.SCAN.ordinal(), now);
+        stats.advertiseMs = timesFor(BleOperationGuard.Operation.ADVERTISE.ordinal(), now);
+        return stats;
+    }
+
+    private void stepDown() {
+        Level target;
+        long delay = -1;
+        synchronized (this) {
+            if (!adaptive) {
+                target = Level.AGGRESSIVE;
+            } else {
+                long idle = SystemClock.elapsedRealtime() - lastActivity;
+                if (idle < aggressiveMs) {
+                    target = Level.AGGRESSIVE;
+                    delay = aggressiveMs - idle;
+                } else if (idle < aggressiveMs + balancedMs) {
+                    target = Level.BALANCED;
+                    delay = aggressiveMs + balancedMs - idle;
+                } else {
+                    target = Level.LOW_POWER;
+                }
+                if (target.ordinal() >= minLevel.ordinal()) {
+                    // Ya se ha llegado al nivel mínimo: no hay más bajadas
+                    target = minLevel;
+                    delay = -1;
+                }
+            }
+            if (target == level) {
+                target = null;
+            } else {
+                level = target;
+                transitions++;
+            }
+        }
+        if (delay >= 0) {
+            handler.postDelayed(stepDownRunnable, delay);
+        }
+        if (target != null) {
+            listener.onLevelChanged(target);
+        }
+    }
+
+    private void accumulate(int index, long now) {
+        Level running = runningLevel[index];
+        if (running != null) {
+            timeMs[index][running.ordinal()] += now - runningSince[index];
+            runningSince[index] = now;
+        }
+    }
+
+    private long[] timesFor(int index, long now) {
+        long[] times = timeMs[index].clone();
+        Level running = runningLevel[index];
+        if (running != null) {
+            times[running.ordinal()] += now - runningSince[index];
+        }
+        return times;
+    }
+
+    /**
+     * Estado del scheduler; los tiempos se indexan por {@link Level#ordinal()}
+     */
+    public static final class Stats {
+        public Level level;
+        public boolean adaptive;
+        public long transitions;
+        public long[] scanMs;
+        public long[] advertiseMs;
+    }
+}
@@ -0,0 +1,330 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro concurrente de los endpoints Bluetooth (dispositivos descubiertos, sockets e
+ * hilos de conexión), indexado por dirección.
+ *
+ * Cada endpoint tiene un único objeto de estado. Las lecturas no bloquean (mapa concurrente
+ * y campos volatile); las escrituras se serializan por endpoint, de modo que el callback de
+ * escaneo, AcceptThread, ConnectThread y el hilo del plugin pueden modificar endpoints
+ * distintos a la vez sin perder entradas. Un endpoint sin ningún dato se retira del mapa.
+ *
+ * @param <C> Tipo del hilo de conexión saliente
+ * @param <T> Tipo del hilo de una conexión establecida
+ */
+public final class EndpointRegistry<C, T> {
+
+    /**
+     * Estado de un endpoint. Los campos sólo se modifican a través del registro.
+     */
+    public static final class Endpoint<C, T> {
+        private final String address;
+        private volatile BluetoothDevice device;
+        // Encontrado por el discovery clásico (ACTION_FOUND) y/o por el escaneo BLE
+        private volatile boolean discovered;
+        private volatile boolean bleDiscovered;
+        private volatile BluetoothSocket socket;
+        private volatile C connectThread;
+        private volatile T connectedThread;
+        // Guarded by this: el endpoint ya no está en el mapa y no admite cambios
+        private boolean retired;
+
+        Endpoint(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        public boolean isDiscovered() {
+            return discovered || bleDiscovered;
+        }
+
+        public BluetoothSocket getSocket() {
+            return socket;
+        }
+
+        public C getConnectThread() {
+            return connectThread;
+        }
+
+        public T getConnectedThread() {
+            return connectedThread;
+        }
+
+        private boolean isEmpty() {
+            return !discovered && !bleDiscovered && socket == null && connectThread == null && connectedThread == null;
+        }
+    }
+
+    /**
+     * Conexión retirada del registro; el llamante debe cerrarla
+     */
+    public static final class Connection<T> {
+        public final String address;
+        public final BluetoothSocket socket;
+        public final T connectedThread;
+
+        Connection(String address, BluetoothSocket socket, T connectedThread) {
+            this.address = address;
+            this.socket = socket;
+            this.connectedThread = connectedThread;
+        }
+    }
+
+    private interface Mutation<C, T, R> {
+        R apply(Endpoint<C, T> endpoint);
+    }
+
+    private final ConcurrentHashMap<String, Endpoint<C, T>> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Estado de un endpoint, o null si no está registrado
+     */
+    public Endpoint<C, T> get(String address) {
+        return endpoints.get(address);
+    }
+
+    /**
+     * Número de endpoints registrados
+     */
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Registra un dispositivo descubierto (discovery clásico)
+     */
+    public void putDiscovered(String address, BluetoothDevice device) {
+        mutate(address, true, endpoint -> {
+            endpoint.device = device;
+            endpoint.discovered = true;
+            return null;
+        });
+    }
+
+    /**
+     * Registra un dispositivo descubierto por escaneo BLE
+     */
+    public void putBleDiscovered(String address, BluetoothDevice device) {
+        mutate(address, true, endpoint -> {
+            endpoint.device = device;
+            endpoint.bleDiscovered = true;
+            return null;
+        });
+    }
+
+    /**
+     * Dispositivo descubierto con esa dirección, o null
+     */
+    public BluetoothDevice getDiscoveredDevice(String address) {
+        Endpoint<C, T> endpoint = endpoints.get(address);
+        return endpoint != null && endpoint.isDiscovered() ? endpoint.device : null;
+    }
+
+    public boolean isDiscovered(String address) {
+        Endpoint<C, T> endpoint = endpoints.get(address);
+        return endpoint != null && endpoint.isDiscovered();
+    }
+
+    /**
+     * Olvida todos los dispositivos descubiertos (no afecta a las conexiones)
+     */
+    public void clearDiscovered() {
+        for (String address : endpoints.keySet()) {
+            mutate(address, false, endpoint -> {
+                endpoint.discovered = false;
+                endpoint.bleDiscovered = false;
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Olvida un dispositivo descubierto por BLE que ha salido de la caché de discovery.
+     * Si también lo encontró el discovery clásico sigue registrado como descubierto; su
+     * conexión no se ve afectada.
+     */
+    public void forgetDiscovered(String address) {
+        mutate(address, false, endpoint -> {
+            endpoint.bleDiscovered = false;
+            return null;
+        });
+    }
+
+    public void putSocket(String address, BluetoothSocket socket) {
+        mutate(address, true, endpoint -> {
+            endpoint.socket = socket;
+            return null;
+        });
+    }
+
+    public BluetoothSocket getSocket(String address) {
+        Endpoint<C, T> endpoint = endpoints.get(address);
+        return endpoint != null ? endpoint.socket : null;
+    }
+
+    /**
+     * Retira el socket de un endpoint
+     * @return El socket retirado (el llamante debe cerrarlo) o null
+     */
+    public BluetoothSocket removeSocket(String address) {
+        return mutate(address, false, endpoint -> {
+            BluetoothSocket socket = endpoint.socket;
+            endpoint.socket = null;
+            return socket;
+        });
+    }
+
+    public void putConnectThread(String address, C connectThread) {
+        mutate(address, true, endpoint -> {
+            endpoint.connectThread = connectThread;
+            return null;
+        });
+    }
+
+    /**
+     * Retira el hilo de conexión saliente de un endpoint
+     * @return El hilo retirado o null
+     */
+    public C removeConnectThread(String address) {
+        return mutate(address, false, endpoint -> {
+            C connectThread = endpoint.connectThread;
+            endpoint.connectThread = null;
+            return connectThread;
+        });
+    }
+
+    /**
+     * Registra una conexión establecida en un único paso: socket, hilo de la conexión y
+     * retirada del hilo de conexión saliente
+     */
+    public void putConnected(String address, BluetoothSocket socket, T connectedThread) {
+        mutate(address, true, endpoint -> {
+            endpoint.socket = socket;
+            endpoint.connectedThread = connectedThread;
+            endpoint.connectThread = null;
+            return null;
+        });
+    }
+
+    public T getConnectedThread(String address) {
+        Endpoint<C, T> endpoint = endpoints.get(address);
+        return endpoint != null ? endpoint.connectedThread : null;
+    }
+
+    /**
+     * Copia de los hilos de conexión establecidos, por dirección
+     */
+    public Map<String, T> getConnectedThreads() {
+        Map<String, T> result = new LinkedHashMap<>();
+        for (Endpoint<C, T> endpoint : endpoints.values()) {
+            T connectedThread = endpoint.connectedThread;
+            if (connectedThread != null) {
+                result.put(endpoint.address, connectedThread);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retira la conexión establecida de un endpoint (hilo y socket)
+     * @return La conexión retirada, o null si no había hilo de conexión
+     */
+    public Connection<T> removeConnection(String address) {
+        return mutate(address, false, endpoint -> {
+            T connectedThread = endpoint.connectedThread;
+            if (connectedThread == null) {
+                return null;
+            }
+            BluetoothSocket socket = endpoint.socket;
+            endpoint.connectedThread = null;
+            endpoint.socket = null;
+            return new Connection<>(address, socket, connectedThread);
+        });
+    }
+
+    /**
+     * Retira la conexión de un endpoint sólo si su hilo sigue siendo el indicado, para que
+     * un hilo que termina tarde no retire la conexión que lo ha sustituido
+     * @return La conexión retirada, o null si el hilo ya no estaba registrado
+     */
+    public Connection<T> removeConnection(String address, T expected) {
+        return mutate(address, false, endpoint -> {
+            if (endpoint.connectedThread != expected) {
+                return null;
+            }
+            BluetoothSocket socket = endpoint.socket;
+            endpoint.connectedThread = null;
+            endpoint.socket = null;
+            return new Connection<>(address, socket, expected);
+        });
+    }
+
+    /**
+     * Retira todas las conexiones (hilos y sockets) de todos los endpoints
+     * @return Las conexiones retiradas; el llamante debe cerrarlas
+     */
+    public List<Connection<T>> removeAllConnections() {
+        List<Connection<T>> removed = new ArrayList<>();
+        for (String address : endpoints.keySet()) {
+            Connection<T> connection = mutate(address, false, endpoint -> {
+                if (endpoint.connectedThread == null && endpoint.socket == null) {
+                    return null;
+                }
+                Connection<T> result = new Connection<>(address, endpoint.socket, endpoint.connectedThread);
+                endpoint.connectedThread = null;
+                endpoint.socket = null;
+                return result;
+            });
+            if (connection != null) {
+                removed.add(connection);
+            }
+        }
+        return removed;
+    }
+
+    // Aplica un cambio con el endpoint bloqueado; si el endpoint queda vacío se retira del mapa
+    private <R> R mutate(String address, boolean create, Mutation<C, T, R> mutation) {
+        while (true) {
+            Endpoint<C, T> endpoint = endpoints.get(address);
+            if (endpoint == null) {
+                if (!create) {
+                    return null;
+                }
+                Endpoint<C, T> created = new Endpoint<>(address);
+                endpoint = endpoints.putIfAbsent(address, created);
+                if (endpoint == null) {
+                    endpoint = created;
+                }
+            }
+
+            synchronized (endpoint) {
+                if (endpoint.retired) {
+                    // Retirado entre get() y el lock: reintentar con la instancia actual
+                    continue;
+                }
+                R result = mutation.apply(endpoint);
+                if (endpoint.isEmpty()) {
+                    endpoint.retired = true;
+                    endpoints.remove(address, endpoint);
+                }
+                return result;
+            }
+        }
+    }
+}
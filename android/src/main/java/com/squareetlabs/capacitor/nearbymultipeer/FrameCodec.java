@@ -0,0 +1,313 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo de tramas para el canal Bluetooth RFCOMM.
+ *
+ * Cada trama lleva una cabecera fija de {@link #HEADER_SIZE} bytes (big-endian):
+ * <pre>
+ *  0-1  magic "NM" (0x4E 0x4D)
+ *  2    versión del protocolo
+ *  3    tipo de trama
+ *  4-5  flags
+ *  6-9  longitud del payload
+ * </pre>
+ * seguida de exactamente "longitud" bytes de payload.
+ *
+ * Las tramas {@link #TYPE_CHUNK} transportan un fragmento de una transferencia grande
+ * y empiezan con una subcabecera de {@link #CHUNK_HEADER_SIZE} bytes:
+ * <pre>
+ *  0-7    id de la transferencia
+ *  8-15   tamaño total de la transferencia
+ *  16-23  posición del fragmento dentro de la transferencia
+ * </pre>
+ *
+ * Una trama {@link #TYPE_TRANSFER_INFO} puede preceder a los fragmentos de una
+ * transferencia para describirla (por ejemplo, un fichero y su nombre):
+ * <pre>
+ *  0-7    id de la transferencia
+ *  8-15   tamaño total de la transferencia
+ *  16     tipo de contenido ({@link #CONTENT_FILE})
+ *  17-    nombre en UTF-8
+ * </pre>
+ */
+public final class FrameCodec {
+    public static final byte MAGIC_0 = (byte) 0x4E; // 'N'
+    public static final byte MAGIC_1 = (byte) 0x4D; // 'M'
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 10;
+
+    // Límite de seguridad para no reservar memoria con una cabecera corrupta
+    public static final int MAX_PAYLOAD_SIZE = 4 * 1024 * 1024;
+
+    public static final int CHUNK_HEADER_SIZE = 24;
+
+    // Tipos de trama
+    public static final int TYPE_DATA = 0x01;
+    public static final int TYPE_CHUNK = 0x02;
+    public static final int TYPE_TRANSFER_INFO = 0x03;
+    // Preámbulo de un payload STREAM de Nearby que transporta un mensaje (sin payload propio)
+    public static final int TYPE_STREAM_MESSAGE = 0x04;
+
+    // Tipos de contenido de TYPE_TRANSFER_INFO
+    public static final int CONTENT_FILE = 0x01;
+    public static final int TRANSFER_INFO_HEADER_SIZE = 17;
+
+    private FrameCodec() {
+        // Clase de utilidades
+    }
+
+    /**
+     * Codifica una trama completa (cabecera + payload)
+     * @param type Tipo de trama
+     * @param flags Flags de la trama
+     * @param payload Datos a enviar
+     * @return Trama lista para escribir en el socket
+     */
+    public static byte[] encode(int type, int flags, byte[] payload) {
+        return encode(type, flags, payload, 0, payload.length);
+    }
+
+    /**
+     * Codifica una trama completa a partir de un fragmento de un array
+     * @param type Tipo de trama
+     * @param flags Flags de la trama
+     * @param payload Array con los datos
+     * @param offset Posición inicial de los datos
+     * @param length Número de bytes de datos
+     * @return Trama lista para escribir en el socket
+     */
+    public static byte[] encode(int type, int flags, byte[] payload, int offset, int length) {
+        if (length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload demasiado grande para una trama: " + length + " bytes");
+        }
+        byte[] frame = new byte[HEADER_SIZE + length];
+        writeHeader(frame, 0, type, flags, length);
+        System.arraycopy(payload, offset, frame, HEADER_SIZE, length);
+        return frame;
+    }
+
+    /**
+     * Escribe la cabecera de una trama en un buffer existente
+     * @param dst Buffer de destino (al menos HEADER_SIZE bytes libres desde offset)
+     * @param offset Posición donde empieza la cabecera
+     * @param type Tipo de trama
+     * @param flags Flags de la trama
+     * @param length Longitud del payload que seguirá a la cabecera
+     */
+    public static void writeHeader(byte[] dst, int offset, int type, int flags, int length) {
+        dst[offset] = MAGIC_0;
+        dst[offset + 1] = MAGIC_1;
+        dst[offset + 2] = (byte) VERSION;
+        dst[offset + 3] = (byte) type;
+        dst[offset + 4] = (byte) (flags >>> 8);
+        dst[offset + 5] = (byte) flags;
+        dst[offset + 6] = (byte) (length >>> 24);
+        dst[offset + 7] = (byte) (length >>> 16);
+        dst[offset + 8] = (byte) (length >>> 8);
+        dst[offset + 9] = (byte) length;
+    }
+
+    /**
+     * Escribe una trama {@link #TYPE_CHUNK} completa en un buffer existente
+     * @param dst Buffer de destino (HEADER_SIZE + CHUNK_HEADER_SIZE + length bytes libres)
+     * @param payloadId Id de la transferencia
+     * @param totalLength Tamaño total de la transferencia
+     * @param position Posición del fragmento dentro de la transferencia
+     * @param data Array con los datos del fragmento
+     * @param offset Posición inicial de los datos en el array
+     * @param length Número de bytes del fragmento
+     * @return Longitud total de la trama escrita
+     */
+    public static int writeChunkFrame(byte[] dst, long payloadId, long totalLength, long position,
+                                      byte[] data, int offset, int length) {
+        int headerLength = writeChunkHeader(dst, payloadId, totalLength, position, length);
+        System.arraycopy(data, offset, dst, headerLength, length);
+        return headerLength + length;
+    }
+
+    /**
+     * Escribe sólo las cabeceras de una trama {@link #TYPE_CHUNK}; los datos del fragmento
+     * deben escribirse a continuación por el llamante
+     * @return Número de bytes de cabecera escritos (posición donde empiezan los datos)
+     */
+    public static int writeChunkHeader(byte[] dst, long payloadId, long totalLength, long position, int length) {
+        writeHeader(dst, 0, TYPE_CHUNK, 0, CHUNK_HEADER_SIZE + length);
+        writeLong(dst, HEADER_SIZE, payloadId);
+        writeLong(dst, HEADER_SIZE + 8, totalLength);
+        writeLong(dst, HEADER_SIZE + 16, position);
+        return HEADER_SIZE + CHUNK_HEADER_SIZE;
+    }
+
+    /**
+     * Codifica una trama {@link #TYPE_TRANSFER_INFO}
+     * @param payloadId Id de la transferencia que describe
+     * @param totalLength Tamaño total de la transferencia
+     * @param contentType Tipo de contenido
+     * @param name Nombre del contenido (por ejemplo, nombre de fichero)
+     * @return Trama lista para escribir en el socket
+     */
+    public static byte[] encodeTransferInfo(long payloadId, long totalLength, int contentType, String name) {
+        byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] info = new byte[TRANSFER_INFO_HEADER_SIZE + nameBytes.length];
+        writeLong(info, 0, payloadId);
+        writeLong(info, 8, totalLength);
+        info[16] = (byte) contentType;
+        System.arraycopy(nameBytes, 0, info, TRANSFER_INFO_HEADER_SIZE, nameBytes.length);
+        return encode(TYPE_TRANSFER_INFO, 0, info);
+    }
+
+    /**
+     * Indica si un bloque de datos empieza con una cabecera de trama válida del tipo indicado
+     * cuya longitud coincide exactamente con el resto del bloque
+     * @param data Datos a comprobar (por ejemplo, un payload BYTES de Nearby)
+     * @param type Tipo de trama esperado
+     */
+    public static boolean isFrame(byte[] data, int type) {
+        if (data.length < HEADER_SIZE || !isHeader(data, 0, type)) {
+            return false;
+        }
+        int length = ((data[6] & 0xFF) << 24) | ((data[7] & 0xFF) << 16) | ((data[8] & 0xFF) << 8) | (data[9] & 0xFF);
+        return length == data.length - HEADER_SIZE;
+    }
+
+    /**
+     * Indica si hay una cabecera con magic, versión y tipo correctos en la posición indicada
+     */
+    public static boolean isHeader(byte[] data, int offset, int type) {
+        return data[offset] == MAGIC_0
+                && data[offset + 1] == MAGIC_1
+                && (data[offset + 2] & 0xFF) == VERSION
+                && (data[offset + 3] & 0xFF) == type;
+    }
+
+    public static void writeLong(byte[] dst, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    public static long readLong(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (src[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Receptor de tramas completas producidas por el {@link Decoder}.
+     *
+     * El buffer pasa a ser propiedad del receptor, que debe devolverlo al pool del
+     * decodificador cuando termine de usarlo. Puede ser más largo que el payload:
+     * sólo los primeros "length" bytes son válidos.
+     */
+    public interface FrameListener {
+        void onFrame(int type, int flags, byte[] buffer, int length);
+    }
+
+    /**
+     * Decodificador incremental: acepta bytes tal como llegan del stream (en trozos de
+     * cualquier tamaño) y reconstruye las tramas, aunque estén partidas entre varias
+     * lecturas o varias tramas lleguen en una sola lectura.
+     *
+     * No es thread-safe: cada conexión debe usar su propia instancia desde el hilo lector.
+     */
+    public static final class Decoder {
+        private final ByteBufferPool pool;
+        private final byte[] header = new byte[HEADER_SIZE];
+        private int headerFill = 0;
+        private byte[] payload;
+        private int payloadLength = 0;
+        private int payloadFill = 0;
+        private int type;
+        private int flags;
+
+        /**
+         * @param pool Pool del que se obtienen los buffers de payload (null para reservar cada vez)
+         */
+        public Decoder(ByteBufferPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Procesa un bloque de bytes recibidos
+         * @param data Buffer de lectura
+         * @param offset Posición inicial de los datos válidos
+         * @param length Número de bytes válidos
+         * @param listener Receptor de las tramas completas
+         * @throws IOException Si la cabecera es inválida (el stream queda desincronizado)
+         */
+        public void feed(byte[] data, int offset, int length, FrameListener listener) throws IOException {
+            int pos = offset;
+            int end = offset + length;
+
+            while (pos < end) {
+                if (payload == null) {
+                    // Completar la cabecera
+                    int n = Math.min(HEADER_SIZE - headerFill, end - pos);
+                    System.arraycopy(data, pos, header, headerFill, n);
+                    headerFill += n;
+                    pos += n;
+
+                    if (headerFill < HEADER_SIZE) {
+                        return;
+                    }
+
+                    payloadLength = parseHeader();
+                    payload = pool != null ? pool.acquire(payloadLength) : new byte[payloadLength];
+                    payloadFill = 0;
+                }
+
+                // Completar el payload
+                int n = Math.min(payloadLength - payloadFill, end - pos);
+                System.arraycopy(data, pos, payload, payloadFill, n);
+                payloadFill += n;
+                pos += n;
+
+                if (payloadFill == payloadLength) {
+                    byte[] complete = payload;
+                    payload = null;
+                    headerFill = 0;
+                    listener.onFrame(type, flags, complete, payloadLength);
+                }
+            }
+        }
+
+        /**
+         * Descarta cualquier trama parcialmente recibida
+         */
+        public void reset() {
+            if (payload != null && pool != null) {
+                pool.release(payload);
+            }
+            headerFill = 0;
+            payload = null;
+            payloadLength = 0;
+            payloadFill = 0;
+        }
+
+        private int parseHeader() throws IOException {
+            if (header[0] != MAGIC_0 || header[1] != MAGIC_1) {
+                throw new IOException("Cabecera de trama inválida");
+            }
+            int version = header[2] & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Versión de protocolo no soportada: " + version);
+            }
+            type = header[3] & 0xFF;
+            flags = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+            int length = ((header[6] & 0xFF) << 24)
+                    | ((header[7] & 0xFF) << 16)
+                    | ((header[8] & 0xFF) << 8)
+                    | (header[9] & 0xFF);
+            if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+                throw new IOException("Longitud de trama inválida: " + length);
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Agrupa los mensajes recibidos para entregarlos a JS en lotes.
+ *
+ * Un lote se emite cuando alcanza maxBatchSize mensajes o cuando han pasado
+ * flushIntervalMs desde que entró el primer mensaje pendiente, lo que ocurra antes.
+ * Todos los mensajes pasan por una única cola, así que el orden de llegada (y por
+ * tanto el orden por endpoint) se conserva dentro de cada lote y entre lotes.
+ * Para conservarlo entre lotes, {@link #flush()} debe llamarse desde el hilo del
+ * dispatcher, como el resto de vaciados.
+ *
+ * @param <T> Tipo de los mensajes
+ */
+public final class InboundMessageBatcher<T> {
+
+    /**
+     * Receptor de los lotes. Se llama desde el hilo del {@link CallbackDispatcher}.
+     */
+    public interface BatchListener<T> {
+        void onBatch(List<T> batch);
+    }
+
+    private final CallbackDispatcher dispatcher;
+    private final BatchListener<T> listener;
+    private final Object lock = new Object();
+    private List<T> pending = new ArrayList<>();
+    private long flushIntervalMs;
+    private int maxBatchSize;
+    private boolean flushScheduled = false;
+
+    private final Runnable flushRunnable = this::flush;
+
+    /**
+     * @param dispatcher Hilo en el que se programa el vaciado de los lotes
+     * @param flushIntervalMs Tiempo máximo que un mensaje espera en el lote
+     * @param maxBatchSize Número máximo de mensajes por lote
+     * @param listener Receptor de los lotes
+     */
+    public InboundMessageBatcher(CallbackDispatcher dispatcher, long flushIntervalMs, int maxBatchSize,
+                                 BatchListener<T> listener) {
+        this.dispatcher = dispatcher;
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.listener = listener;
+    }
+
+    /**
+     * Cambia la configuración; se aplica a partir del siguiente lote
+     */
+    public void configure(long flushIntervalMs, int maxBatchSize) {
+        synchronized (lock) {
+            this.flushIntervalMs = Math.max(0, flushIntervalMs);
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+        }
+    }
+
+    /**
+     * Añade un mensaje al lote en curso
+     */
+    public void add(T message) {
+        boolean flushNow;
+        synchronized (lock) {
+            pending.add(message);
+            flushNow = pending.size() >= maxBatchSize;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                dispatcher.postDelayed(flushRunnable, flushIntervalMs);
+            }
+        }
+
+        if (flushNow) {
+            dispatcher.dispatch(flushRunnable);
+        }
+    }
+
+    /**
+     * Emite inmediatamente los mensajes pendientes. Llamar desde el hilo del dispatcher.
+     */
+    public void flush() {
+        List<T> batch;
+        synchronized (lock) {
+            dispatcher.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        listener.onBatch(batch);
+    }
+}
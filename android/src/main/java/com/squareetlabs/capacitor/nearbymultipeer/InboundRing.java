@@ -0,0 +1,221 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cola circular acotada de un productor y un consumidor entre el hilo lector de una
+ * conexión Bluetooth y el {@link CallbackDispatcher}.
+ *
+ * El lector publica cada mensaje en un hueco preasignado sin bloquear ni reservar memoria;
+ * el consumidor sólo tiene una tarea de vaciado encolada a la vez en el dispatcher, que
+ * entrega los mensajes en orden. Cuando la cola está llena se aplica la
+ * {@link OverflowPolicy} configurada.
+ *
+ * offer() y close() sólo pueden llamarse desde el hilo productor.
+ */
+public final class InboundRing {
+
+    /**
+     * Qué hacer cuando llega un mensaje y la cola está llena
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST, // Descarta el mensaje más antiguo pendiente de entregar
+        BLOCK,       // El lector espera a que haya hueco (el socket deja de leerse)
+        DISCONNECT   // offer() devuelve false y el lector cierra la conexión
+    }
+
+    /**
+     * Receptor de los mensajes; se llama en el hilo del dispatcher
+     */
+    public interface Consumer {
+        void onMessage(byte[] buffer, int length);
+    }
+
+    // Mensajes entregados por cada tarea de vaciado antes de ceder el hilo a otros callbacks
+    private static final int DRAIN_BATCH = 64;
+    private static final long BLOCK_PARK_NANOS = 1_000_000;
+
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final boolean[] pooled;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final ByteBufferPool pool;
+    private final CallbackDispatcher dispatcher;
+    private final Consumer consumer;
+
+    // head sólo lo avanza el consumidor, salvo con DROP_OLDEST (CAS desde el productor)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Runnable drainRunnable = this::drain;
+    private volatile boolean closed = false;
+    private volatile Runnable onDrained;
+    private volatile Thread blockedProducer;
+
+    private volatile int highWater = 0;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * @param capacity Número máximo de mensajes pendientes (se redondea a potencia de dos)
+     * @param policy Comportamiento con la cola llena
+     * @param pool Pool al que se devuelven los buffers entregados o descartados
+     * @param dispatcher Hilo en el que se entregan los mensajes
+     * @param consumer Receptor de los mensajes
+     */
+    public InboundRing(int capacity, OverflowPolicy policy, ByteBufferPool pool,
+                       CallbackDispatcher dispatcher, Consumer consumer) {
+        int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 16)) * 2 - 1);
+        this.buffers = new byte[size][];
+        this.lengths = new int[size];
+        this.pooled = new boolean[size];
+        this.mask = size - 1;
+        this.policy = policy;
+        this.pool = pool;
+        this.dispatcher = dispatcher;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Publica un mensaje. El buffer pasa a ser propiedad de la cola.
+     * @param buffer Datos del mensaje (sólo los primeros "length" bytes son válidos)
+     * @param length Longitud del mensaje
+     * @param fromPool Si el buffer debe devolverse al pool al terminar con él
+     * @return false si el mensaje no cabe y la política es {@link OverflowPolicy#DISCONNECT}
+     *         o si la cola está cerrada; en ese caso el buffer se libera aquí
+     */
+    public boolean offer(byte[] buffer, int length, boolean fromPool) {
+        long t = tail.get();
+        while (!closed && t - head.get() > mask) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                break;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                long h = head.get();
+                int slot = (int) (h & mask);
+                byte[] oldest = buffers[slot];
+                boolean oldestPooled = pooled[slot];
+                if (head.compareAndSet(h, h + 1)) {
+                    // The slot is ours now: the consumer's CAS on the same position will fail
+                    dropped.incrementAndGet();
+                    if (oldestPooled) {
+                        pool.release(oldest);
+                    }
+                }
+                continue;
+            }
+            blockedProducer = Thread.currentThread();
+            if (t - head.get() > mask && !closed) {
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+            blockedProducer = null;
+        }
+
+        if (closed || t - head.get() > mask) {
+            dropped.incrementAndGet();
+            if (fromPool) {
+                pool.release(buffer);
+            }
+            return false;
+        }
+
+        int slot = (int) (t & mask);
+        buffers[slot] = buffer;
+        lengths[slot] = length;
+        pooled[slot] = fromPool;
+        tail.lazySet(t + 1);
+
+        int size = (int) (t + 1 - head.get());
+        if (size > highWater) {
+            highWater = size;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Cierra la cola: los mensajes pendientes se siguen entregando y después se ejecuta
+     * onDrained (si no es null) en el hilo del dispatcher
+     */
+    public void close(Runnable onDrained) {
+        this.onDrained = onDrained;
+        closed = true;
+        Thread producer = blockedProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        scheduleDrain();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int getHighWater() {
+        return highWater;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            dispatcher.post(drainRunnable);
+        }
+    }
+
+    private void drain() {
+        int count = 0;
+        while (count < DRAIN_BATCH) {
+            long h = head.get();
+            if (h == tail.get()) {
+                break;
+            }
+            int slot = (int) (h & mask);
+            byte[] buffer = buffers[slot];
+            int length = lengths[slot];
+            boolean fromPool = pooled[slot];
+            if (!head.compareAndSet(h, h + 1)) {
+                // DROP_OLDEST discarded this message while we were reading it
+                continue;
+            }
+            Thread producer = blockedProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+
+            try {
+                consumer.onMessage(buffer, length);
+            } finally {
+                if (fromPool) {
+                    pool.release(buffer);
+                }
+            }
+            delivered.incrementAndGet();
+            count++;
+        }
+
+        drainScheduled.set(false);
+        if (head.get() != tail.get()) {
+            scheduleDrain();
+        } else if (closed) {
+            Runnable callback = onDrained;
+            if (callback != null) {
+                onDrained = null;
+                callback.run();
+            }
+        }
+    }
+}
@@ -12,12 +12,13 @@ import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.Log;
+import android.os.SystemClock;
 
 import com.google.android.gms.nearby.Nearby;
 import com.google.android.gms.nearby.connection.AdvertisingOptions;
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
+import com.google.android.gms.nearby.connection.ConnectionResolution;
 import com.google.android.gms.nearby.connection.ConnectionsClient;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
 import com.google.android.gms.nearby.connection.DiscoveryOptions;
@@ -27,14 +28,33 @@ import com.google.android.gms.nearby.connection.PayloadCallback;
 import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.android.gms.nearby.connection.Strategy;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
@@ -46,12 +66,12 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.bluetooth.le.ScanRecord;
+import android.net.Uri;
 import android.os.ParcelUuid;
 
 import androidx.annotation.RequiresPermission;
 
 public class NearbyMultipeer {
-    private static final String TAG = "NearbyMultipeer";
 
     private ConnectionsClient connectionsClient;
     private String serviceId;
@@ -60,7 +80,83 @@ public class NearbyMultipeer {
     // Callbacks para las interacciones de Nearby
     private ConnectionLifecycleCallback connectionLifecycleCallback;
     private EndpointDiscoveryCallback endpointDiscoveryCallback;
+    // Endpoints Nearby con conexión establecida, para repartir los broadcasts
+    private final Set<String> nearbyConnected = ConcurrentHashMap.newKeySet();
     private PayloadCallback payloadCallback;
+    private MessageListener messageListener;
+    private FileListener fileListener;
+
+    // Buffers reutilizables para las tramas recibidas por RFCOMM
+    private final ByteBufferPool receiveBufferPool = new ByteBufferPool(64 * 1024, 16);
+
+    // Transferencias fragmentadas por RFCOMM
+    private static final int TRANSFER_CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_INBOUND_TRANSFER_SIZE = 64 * 1024 * 1024;
+    // Límites por conexión de las transferencias en memoria abiertas a la vez, para que un peer
+    // no pueda agotar el heap abriendo muchas transferencias con ids distintos
+    private static final int MAX_OPEN_INBOUND_TRANSFERS = 4;
+    private static final long MAX_RESERVED_INBOUND_BYTES = MAX_INBOUND_TRANSFER_SIZE;
+    // Mensajes Nearby fragmentados sin fragmentos nuevos durante este tiempo se descartan
+    private static final long NEARBY_FRAGMENT_TIMEOUT_MS = 30_000;
+    // Tiempo máximo que cleanup() espera a que terminen los hilos lectores Bluetooth
+    private static final long READER_JOIN_TIMEOUT_MS = 1_000;
+    private final AtomicLong payloadIdGenerator = new AtomicLong(new Random().nextLong() & 0x7FFFFFFFFFFFL);
+
+    // Envío por Nearby de mensajes mayores que un payload BYTES: fragmentos hasta streamThreshold, STREAM a partir de ahí
+    private int maxBytesPayloadSize = ConnectionsClient.MAX_BYTES_DATA_SIZE;
+    private long streamThreshold = 4 * 1024 * 1024;
+    private final Map<String, Map<Long, InboundTransfer>> nearbyFragments = new HashMap<>(); // main thread only
+
+    // Ficheros recibidos: se escriben en disco y sólo se notifica la ruta
+    private static final String RECEIVED_FILES_DIR = "nearby-multipeer/received";
+    private final Map<Long, Payload> incomingFilePayloads = new HashMap<>(); // main thread only
+    private final ExecutorService fileExecutor = Executors.newSingleThreadExecutor();
+
+    // Payloads STREAM de Nearby: se leen en segundo plano y se vuelcan a disco si son grandes
+    private static final int STREAM_MEMORY_LIMIT = 1024 * 1024;
+    private final StreamPayloadReceiver streamReceiver = new StreamPayloadReceiver(
+        STREAM_MEMORY_LIMIT,
+        MAX_INBOUND_TRANSFER_SIZE,
+        payloadId -> createReceivedFile(payloadId, "stream"),
+        new StreamPayloadReceiver.Listener() {
+            @Override
+            public void onStreamReceived(String endpointId, long payloadId, byte[] data, int length) {
+                BleLogger.debug("Stream Nearby recibido: {} ({} bytes)", payloadId, length);
+                callbackDispatcher.post(() -> deliverNearbyMessage(endpointId, data, length));
+            }
+
+            @Override
+            public void onStreamSpilled(String endpointId, long payloadId, File file, long size) {
+                BleLogger.debug("Stream Nearby recibido en disco: {} ({} bytes)", file, size);
+                callbackDispatcher.post(() -> {
+                    if (fileListener != null) {
+                        fileListener.onFileReceived(endpointId, payloadId, file, null, size);
+                    }
+                });
+            }
+        }
+    );
+
+    // Configuración de la cola de salida de cada conexión Bluetooth. Por defecto se rechaza con la
+    // cola llena: BLOCK espera en el hilo que envía, que desde JS es el hilo del plugin
+    private int outboundQueueCapacity = 64;
+    private BluetoothWriter.FullPolicy outboundQueuePolicy = BluetoothWriter.FullPolicy.REJECT;
+    private long outboundBlockTimeoutMs = 5000;
+
+    // Configuración de la cola de entrada (lector del socket -> dispatcher) de cada conexión Bluetooth
+    private int inboundQueueCapacity = 256;
+    private InboundRing.OverflowPolicy inboundOverflowPolicy = InboundRing.OverflowPolicy.BLOCK;
+
+    // Límites de los ficheros que un peer puede enviar por Bluetooth: tamaño máximo de cada
+    // fichero y transferencias a fichero abiertas a la vez por conexión
+    public static final long DEFAULT_MAX_INBOUND_FILE_SIZE = 1024L * 1024 * 1024;
+    public static final int DEFAULT_MAX_OPEN_INBOUND_FILES = 4;
+    private volatile long maxInboundFileSize = DEFAULT_MAX_INBOUND_FILE_SIZE;
+    private volatile int maxOpenInboundFiles = DEFAULT_MAX_OPEN_INBOUND_FILES;
+
+    // Agrupación de escrituras: valor por defecto y valores específicos por endpoint
+    private BluetoothWriter.CoalescingOptions defaultCoalescing = BluetoothWriter.CoalescingOptions.DISABLED;
+    private final Map<String, BluetoothWriter.CoalescingOptions> endpointCoalescing = new HashMap<>();
 
     // Bluetooth related fields
     private UUID serviceUUID = UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
@@ -68,55 +164,224 @@ public class NearbyMultipeer {
     private BluetoothAdapter bluetoothAdapter;
     private Context context;
 
+    // Registro binario opcional de tramas y anuncios para depuración
+    private final BleTraceRecorder traceRecorder = new BleTraceRecorder();
+
+    // Permisos Bluetooth en caché: se consultan en cada lectura, escritura y resultado de escaneo
+    private final PermissionCache permissions = new PermissionCache();
+
     // Permission check helper
     private boolean hasBluetoothPermissions() {
-        if (context == null) return false;
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            // For Android 12+ (API 31+), check BLUETOOTH_CONNECT permission
-            return context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                    == android.content.pm.PackageManager.PERMISSION_GRANTED;
-        } else {
-            // For older versions, check BLUETOOTH permission
-            return context.checkSelfPermission(android.Manifest.permission.BLUETOOTH)
-                    == android.content.pm.PackageManager.PERMISSION_GRANTED;
-        }
+        return permissions.hasConnect();
     }
 
     // Permission check helper for scanning
     private boolean hasBluetoothScanPermissions() {
-        if (context == null) return false;
+        return permissions.hasScan();
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            // For Android 12+ (API 31+), check BLUETOOTH_SCAN permission
-            return context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_SCAN)
-                    == android.content.pm.PackageManager.PERMISSION_GRANTED;
-        } else {
-            // For older versions, check BLUETOOTH permission
-            return context.checkSelfPermission(android.Manifest.permission.BLUETOOTH)
-                    == android.content.pm.PackageManager.PERMISSION_GRANTED;
-        }
+    /**
+     * Vuelve a leer los permisos Bluetooth del sistema. Debe llamarse cuando pueden haber
+     * cambiado (tras pedirlos o al volver la app a primer plano).
+     */
+    public void refreshPermissions() {
+        permissions.refresh();
     }
+
     private boolean isAdvertising = false;
     private boolean isDiscovering = false;
     private boolean isConnected = false;
-    private final Map<String, BluetoothDevice> discoveredDevices = new HashMap<>();
-    private final Map<String, BluetoothSocket> connectedSockets = new HashMap<>();
+    // Dispositivos descubiertos, sockets e hilos de conexión Bluetooth; se accede desde varios hilos
+    private final EndpointRegistry<ConnectThread, ConnectedThread> endpoints = new EndpointRegistry<>();
     private BluetoothServerSocket serverSocket;
     private AcceptThread acceptThread;
-    private final Map<String, ConnectThread> connectThreads = new HashMap<>();
-    private final Map<String, ConnectedThread> connectedThreads = new HashMap<>();
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Entrega de callbacks fuera del hilo principal (configurable)
+    private final CallbackDispatcher callbackDispatcher = new CallbackDispatcher();
 
     // BLE variables
     private BluetoothLeScanner bleScanner;
     private ScanCallback bleScanCallback;
-    private final Map<String, BluetoothDevice> bleDevices = new HashMap<>();
     private BluetoothLeAdvertiser bleAdvertiser;
     private AdvertiseCallback bleAdvertiseCallback;
 
+    // Agrupa los start/stop de escaneo y advertising BLE y respeta el límite de arranques de escaneo
+    private final BleOperationGuard bleOperationGuard =
+            new BleOperationGuard(mainHandler, BleOperationGuard.DEFAULT_COALESCE_MS);
+
+    // Batching de resultados de escaneo en el controlador (sólo si el hardware lo soporta)
+    public static final long DEFAULT_BATCH_SCAN_REPORT_DELAY_MS = 5000;
+    private volatile boolean batchScanEnabled = false;
+    private volatile long batchScanReportDelayMs = DEFAULT_BATCH_SCAN_REPORT_DELAY_MS;
+    private final BleScanStats scanStats = new BleScanStats();
+    // Los resultados de escaneo se clasifican fuera del hilo binder del callback
+    private final ScanResultQueue scanQueue = new ScanResultQueue(ScanResultQueue.DEFAULT_CAPACITY,
+            (device, rssi, timestampNanos, record) -> parseScanResult(device, rssi, timestampNanos, record));
+
+    // Intensidad del escaneo y advertising BLE según la actividad reciente
+    private final DutyCycleScheduler dutyCycle = new DutyCycleScheduler(mainHandler, this::onDutyCycleLevelChanged);
+
+    // Peers BLE descubiertos: RSSI suavizado, expiración por TTL y límite de entradas
+    private final DiscoveryCache discoveryCache = new DiscoveryCache(
+            (entry, expired) -> onDiscoveredPeerEvicted(entry.address, expired),
+            address -> endpoints.getConnectedThread(address) != null);
+
+    // Expira periódicamente los peers de la caché mientras dura el discovery
+    private final Runnable discoverySweep = new Runnable() {
+        @Override
+        public void run() {
+            if (!isDiscovering) {
+                return;
+            }
+            discoveryCache.expire(SystemClock.elapsedRealtime());
+            scheduleDiscoverySweep();
+        }
+    };
+
     public NearbyMultipeer() {
-        // Constructor por defecto
+        bleOperationGuard.register(BleOperationGuard.Operation.SCAN, new BleOperationGuard.Actions() {
+            @Override
+            public boolean start() {
+                return startBleScanning();
+            }
+
+            @Override
+            public void stop() {
+                stopBleScanning();
+            }
+        }, BleOperationGuard.SCAN_MAX_STARTS, BleOperationGuard.SCAN_WINDOW_MS);
+        bleOperationGuard.register(BleOperationGuard.Operation.ADVERTISE, new BleOperationGuard.Actions() {
+            @Override
+            public boolean start() {
+                return startBleAdvertising();
+            }
+
+            @Override
+            public void stop() {
+                stopBleAdvertising();
+            }
+        }, 0, 0);
+    }
+
+    /**
+     * Registro binario de tramas Bluetooth y anuncios BLE
+     */
+    public BleTraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Hilo por el que se entregan los callbacks; el plugin lo usa también para sus eventos
+     */
+    public CallbackDispatcher getCallbackDispatcher() {
+        return callbackDispatcher;
+    }
+
+    /**
+     * Activa el batching de resultados de escaneo en el controlador BLE. Sin soporte de
+     * hardware (isOffloadedScanBatchingSupported) se sigue escaneando con reporte inmediato.
+     * @param enabled Si se agrupan los resultados
+     * @param reportDelayMs Cada cuánto entrega el controlador el lote
+     * @return true si el hardware soporta batching
+     */
+    public boolean setBatchScanning(boolean enabled, long reportDelayMs) {
+        batchScanEnabled = enabled;
+        batchScanReportDelayMs = reportDelayMs;
+        if (bleOperationGuard.isActive(BleOperationGuard.Operation.SCAN)) {
+            bleOperationGuard.requestRestart(BleOperationGuard.Operation.SCAN);
+        }
+        return isBatchScanSupported();
+    }
+
+    public boolean isBatchScanSupported() {
+        return bluetoothAdapter != null && bluetoothAdapter.isOffloadedScanBatchingSupported();
+    }
+
+    /**
+     * Contadores de callbacks de escaneo BLE
+     */
+    public BleScanStats getScanStats() {
+        return scanStats;
+    }
+
+    /**
+     * Contadores de la cola entre el callback de escaneo y el parser
+     */
+    public ScanResultQueue.Stats getScanQueueStats() {
+        return scanQueue.getStats();
+    }
+
+    /**
+     * Nivel actual de escaneo/advertising BLE y tiempo pasado en cada nivel
+     */
+    public DutyCycleScheduler.Stats getDutyCycleStats() {
+        return dutyCycle.getStats();
+    }
+
+    /**
+     * Cambia la política de escaneo/advertising adaptativo
+     * @param adaptive Si es false se escanea y anuncia siempre a máxima intensidad
+     * @param aggressiveMs Tiempo sin peers nuevos antes de bajar a BALANCED
+     * @param balancedMs Tiempo en BALANCED antes de bajar al siguiente nivel
+     * @param minLevel Nivel más bajo permitido
+     */
+    public void setDutyCyclePolicy(boolean adaptive, long aggressiveMs, long balancedMs, DutyCycleScheduler.Level minLevel) {
+        dutyCycle.configure(adaptive, aggressiveMs, balancedMs, minLevel);
+    }
+
+    // Rearranca con la configuración del nuevo nivel las operaciones BLE que estén activas
+    private void onDutyCycleLevelChanged(DutyCycleScheduler.Level level) {
+        BleLogger.info("Nivel de escaneo/advertising BLE: {}", level);
+        for (BleOperationGuard.Operation operation : BleOperationGuard.Operation.values()) {
+            if (bleOperationGuard.isActive(operation)) {
+                bleOperationGuard.requestRestart(operation);
+            }
+        }
+    }
+
+    /**
+     * Caché de peers BLE descubiertos
+     */
+    public DiscoveryCache getDiscoveryCache() {
+        return discoveryCache;
+    }
+
+    /**
+     * Cambia el TTL, el máximo de entradas y el suavizado de RSSI de la caché de peers BLE
+     */
+    public void setDiscoveryCacheOptions(long ttlMs, int maxEntries, double rssiSmoothing) {
+        discoveryCache.configure(ttlMs, maxEntries, rssiSmoothing);
+        mainHandler.post(() -> {
+            if (isDiscovering) {
+                scheduleDiscoverySweep();
+            }
+        });
+    }
+
+    private void scheduleDiscoverySweep() {
+        mainHandler.removeCallbacks(discoverySweep);
+        long interval = discoveryCache.getSweepIntervalMs();
+        if (interval > 0) {
+            mainHandler.postDelayed(discoverySweep, interval);
+        }
+    }
+
+    // Un peer BLE ha expirado o se ha retirado por el límite de la caché
+    private void onDiscoveredPeerEvicted(String address, boolean expired) {
+        BleLogger.debug("Peer BLE perdido ({}): {}", expired ? "TTL" : "LRU", address);
+        endpoints.forgetDiscovered(address);
+        callbackDispatcher.post(() -> {
+            if (endpointDiscoveryCallback != null) {
+                endpointDiscoveryCallback.onEndpointLost(address);
+            }
+        });
+    }
+
+    /**
+     * Contadores de las peticiones de escaneo o advertising BLE (agrupadas, descartadas y aplazadas)
+     */
+    public BleOperationGuard.Stats getBleOperationStats(BleOperationGuard.Operation operation) {
+        return bleOperationGuard.getStats(operation);
     }
 
     /**
@@ -155,8 +420,9 @@ public class NearbyMultipeer {
                           EndpointDiscoveryCallback discoveryCallback,
                           PayloadCallback payloadCallback,
                           String serviceUUIDString) {
-        Log.d(TAG, "[initialize] context=" + context + ", serviceId=" + serviceId + ", connectionCallback=" + connectionCallback + ", discoveryCallback=" + discoveryCallback + ", payloadCallback=" + payloadCallback + ", serviceUUIDString=" + serviceUUIDString);
+        BleLogger.debug("[initialize] serviceId={}, serviceUUIDString={}", serviceId, serviceUUIDString);
         this.context = context;
+        permissions.refresh(context);
         this.serviceId = serviceId;
         this.connectionLifecycleCallback = connectionCallback;
         this.endpointDiscoveryCallback = discoveryCallback;
@@ -167,13 +433,13 @@ public class NearbyMultipeer {
                 String formatted = formatBleUuid(serviceUUIDString);
                 this.serviceUUID = java.util.UUID.fromString(formatted);
             } catch (IllegalArgumentException e) {
-                Log.e(TAG, "UUID de servicio inválido, usando el valor por defecto", e);
+                BleLogger.error("UUID de servicio inválido, usando el valor por defecto", e);
                 this.serviceUUID = java.util.UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
             }
         } else {
             this.serviceUUID = java.util.UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
         }
-        Log.i(TAG, "NearbyMultipeer inicializado con serviceId: " + serviceId + ", serviceUUID: " + this.serviceUUID);
+        BleLogger.info("NearbyMultipeer inicializado con serviceId: {}, serviceUUID: {}", serviceId, this.serviceUUID);
 
         // Initialize Bluetooth
         BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
@@ -188,7 +454,7 @@ public class NearbyMultipeer {
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         context.registerReceiver(bluetoothReceiver, filter);
 
-        Log.i(TAG, "NearbyMultipeer inicializado con serviceId: " + serviceId);
+        BleLogger.info("NearbyMultipeer inicializado con serviceId: {}", serviceId);
     }
 
     private final BroadcastReceiver bluetoothReceiver = new BroadcastReceiver() {
@@ -207,23 +473,23 @@ public class NearbyMultipeer {
                             deviceName = device.getName();
                             deviceAddress = device.getAddress();
                         } else {
-                            Log.w(TAG, "No se tienen permisos para obtener información del dispositivo Bluetooth");
+                            BleLogger.warn("No se tienen permisos para obtener información del dispositivo Bluetooth");
                         }
                     } catch (SecurityException e) {
-                        Log.e(TAG, "Error de permisos al obtener información del dispositivo Bluetooth", e);
+                        BleLogger.error("Error de permisos al obtener información del dispositivo Bluetooth", e);
                     }
 
                     if (deviceName != null && deviceName.startsWith("iOS_")) {
                         // This is an iOS device (we'll prefix iOS devices with "iOS_")
-                        Log.i(TAG, "Found iOS device: " + deviceName);
-                        discoveredDevices.put(deviceAddress, device);
+                        BleLogger.info("Found iOS device: {}", deviceName);
+                        endpoints.putDiscovered(deviceAddress, device);
 
                         // Create final copies for use in lambda
                         final String finalDeviceAddress = deviceAddress;
                         final String finalDeviceName = deviceName;
 
                         // Notify the discovery callback
-                        mainHandler.post(() -> {
+                        callbackDispatcher.post(() -> {
                             if (endpointDiscoveryCallback != null) {
                                 // Create a fake DiscoveredEndpointInfo for the iOS device
                                 assert finalDeviceAddress != null;
@@ -242,42 +508,44 @@ public class NearbyMultipeer {
                         if (hasBluetoothScanPermissions()) {
                             bluetoothAdapter.startDiscovery();
                         } else {
-                            Log.w(TAG, "No se tienen permisos para iniciar Bluetooth discovery");
+                            BleLogger.warn("No se tienen permisos para iniciar Bluetooth discovery");
                         }
                     } catch (SecurityException e) {
-                        Log.e(TAG, "Error de permisos al iniciar Bluetooth discovery", e);
+                        BleLogger.error("Error de permisos al iniciar Bluetooth discovery", e);
                     }
                 }
             } else if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
                 int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
                 if (state == BluetoothAdapter.STATE_OFF) {
-                    Log.w(TAG, "Bluetooth turned off");
+                    BleLogger.warn("Bluetooth turned off");
+                    // El sistema ya ha parado el escaneo y el advertising BLE
+                    bleOperationGuard.markStopped(BleOperationGuard.Operation.SCAN);
+                    bleOperationGuard.markStopped(BleOperationGuard.Operation.ADVERTISE);
+                    dutyCycle.onStopped(BleOperationGuard.Operation.SCAN);
+                    dutyCycle.onStopped(BleOperationGuard.Operation.ADVERTISE);
                 } else if (state == BluetoothAdapter.STATE_ON) {
-                    Log.i(TAG, "Bluetooth turned on");
+                    BleLogger.info("Bluetooth turned on");
                     // Restart advertising or discovery if needed
                     if (isAdvertising) {
-                        // Verificar permisos antes de llamar a startBluetoothAdvertising
+                        // Verificar permisos antes de pedir el advertising BLE
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                            if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                                    == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                                startBluetoothAdvertising();
+                            if (permissions.hasAdvertise()) {
+                                bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                             } else {
-                                Log.w(TAG, "No se tienen permisos para reiniciar Bluetooth advertising");
+                                BleLogger.warn("No se tienen permisos para reiniciar Bluetooth advertising");
                             }
                         } else {
-                            startBluetoothAdvertising();
+                            bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                         }
                     }
                     if (isDiscovering) {
                         // Verificar permisos antes de llamar a startBluetoothDiscovery
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                            if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_SCAN)
-                                    == android.content.pm.PackageManager.PERMISSION_GRANTED &&
-                                context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                                    == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                            if (permissions.hasScan() &&
+                                permissions.hasConnect()) {
                                 startBluetoothDiscovery();
                             } else {
-                                Log.w(TAG, "No se tienen permisos para reiniciar Bluetooth discovery");
+                                BleLogger.warn("No se tienen permisos para reiniciar Bluetooth discovery");
                             }
                         } else {
                             startBluetoothDiscovery();
@@ -288,63 +556,158 @@ public class NearbyMultipeer {
         }
     };
 
+    /**
+     * Establece el receptor de mensajes de datos recibidos por Bluetooth.
+     * Si está definido, los mensajes se entregan directamente desde el buffer de
+     * recepción sin construir un {@link Payload} intermedio.
+     * @param listener Receptor de mensajes (null para usar el PayloadCallback)
+     */
+    public void setMessageListener(MessageListener listener) {
+        this.messageListener = listener;
+    }
+
+    /**
+     * Establece el receptor de ficheros recibidos (por Nearby o por Bluetooth)
+     * @param listener Receptor de ficheros
+     */
+    public void setFileListener(FileListener listener) {
+        this.fileListener = listener;
+    }
+
+    /**
+     * Configura la cola de salida de las conexiones Bluetooth.
+     * Se aplica a las conexiones que se establezcan a partir de este momento.
+     * @param capacity Número máximo de mensajes pendientes por conexión
+     * @param policy Qué hacer cuando la cola está llena
+     * @param blockTimeoutMs Tiempo máximo de espera con la política BLOCK
+     */
+    public void setOutboundQueueOptions(int capacity, BluetoothWriter.FullPolicy policy, long blockTimeoutMs) {
+        BleLogger.debug("[setOutboundQueueOptions] capacity={}, policy={}, blockTimeoutMs={}", capacity, policy, blockTimeoutMs);
+        this.outboundQueueCapacity = Math.max(1, capacity);
+        this.outboundQueuePolicy = policy;
+        this.outboundBlockTimeoutMs = Math.max(0, blockTimeoutMs);
+    }
+
+    /**
+     * Configura la cola de entrada de las conexiones Bluetooth, entre el hilo lector y el
+     * dispatcher de callbacks. Se aplica a las conexiones que se establezcan a partir de este momento.
+     * @param capacity Número máximo de mensajes recibidos pendientes de entregar por conexión
+     * @param policy Qué hacer cuando la cola está llena
+     */
+    public void setInboundQueueOptions(int capacity, InboundRing.OverflowPolicy policy) {
+        BleLogger.debug("[setInboundQueueOptions] capacity={}, policy={}", capacity, policy);
+        this.inboundQueueCapacity = Math.max(1, capacity);
+        this.inboundOverflowPolicy = policy;
+    }
+
+    /**
+     * Configura los límites de los ficheros recibidos por Bluetooth. Un fichero anunciado que
+     * supere maxFileSize, que no quepa en el espacio libre o que exceda maxOpenTransfers
+     * transferencias abiertas en la conexión se rechaza con un payloadTransferUpdate FAILURE.
+     * @param maxFileSize Tamaño máximo de un fichero recibido, en bytes
+     * @param maxOpenTransfers Transferencias a fichero abiertas a la vez por conexión
+     */
+    public void setInboundFileOptions(long maxFileSize, int maxOpenTransfers) {
+        BleLogger.debug("[setInboundFileOptions] maxFileSize={}, maxOpenTransfers={}", maxFileSize, maxOpenTransfers);
+        this.maxInboundFileSize = Math.max(0, maxFileSize);
+        this.maxOpenInboundFiles = Math.max(1, maxOpenTransfers);
+    }
+
+    /**
+     * Colas de entrada de las conexiones Bluetooth activas, por endpoint
+     */
+    public Map<String, InboundRing> getInboundQueues() {
+        Map<String, InboundRing> queues = new LinkedHashMap<>();
+        for (Map.Entry<String, ConnectedThread> entry : endpoints.getConnectedThreads().entrySet()) {
+            queues.put(entry.getKey(), entry.getValue().mmInbound);
+        }
+        return queues;
+    }
+
+    /**
+     * Configura la agrupación de escrituras pequeñas en el socket Bluetooth
+     * @param endpointId Endpoint al que se aplica, o null para el valor por defecto
+     * @param options Configuración de agrupación
+     */
+    public void setCoalescingOptions(String endpointId, BluetoothWriter.CoalescingOptions options) {
+        BleLogger.debug("[setCoalescingOptions] endpointId={}, enabled={}, maxBytes={}, maxDelayMs={}", endpointId, options.enabled, options.maxBytes, options.maxDelayMs);
+        if (endpointId == null) {
+            defaultCoalescing = options;
+            // Apply to live connections that do not have their own settings
+            for (Map.Entry<String, ConnectedThread> entry : endpoints.getConnectedThreads().entrySet()) {
+                if (!endpointCoalescing.containsKey(entry.getKey())) {
+                    entry.getValue().setCoalescing(options);
+                }
+            }
+        } else {
+            endpointCoalescing.put(endpointId, options);
+            ConnectedThread connectedThread = endpoints.getConnectedThread(endpointId);
+            if (connectedThread != null) {
+                connectedThread.setCoalescing(options);
+            }
+        }
+    }
+
+    private BluetoothWriter.CoalescingOptions getCoalescingOptions(String endpointId) {
+        BluetoothWriter.CoalescingOptions options = endpointCoalescing.get(endpointId);
+        return options != null ? options : defaultCoalescing;
+    }
+
     public void setStrategy(Strategy newStrategy) {
-        Log.d(TAG, "[setStrategy] newStrategy=" + newStrategy);
+        BleLogger.debug("[setStrategy] newStrategy={}", newStrategy);
         this.strategy = newStrategy;
-        Log.i(TAG, "Estrategia cambiada a: " + strategy.toString());
+        BleLogger.info("Estrategia cambiada a: {}", strategy);
     }
 
     public String echo(String value) {
-        Log.d(TAG, "[echo] value=" + value);
-        Log.i("Echo", value);
+        BleLogger.debug("[echo] value={}", value);
         return value;
     }
 
     public void startAdvertising(String displayName, OnResultListener listener) {
-        Log.d(TAG, "[startAdvertising] displayName=" + displayName + ", listener=" + listener);
+        BleLogger.debug("[startAdvertising] displayName={}", displayName);
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
-        Log.i(TAG, "Iniciando advertising como: " + displayName);
+        BleLogger.info("Iniciando advertising como: {}", displayName);
+        dutyCycle.onActivity();
 
         // Start advertising with Nearby for Android devices
         connectionsClient.startAdvertising(
                 displayName,
                 serviceId,
-                connectionLifecycleCallback,
+                nearbyLifecycleCallback,
                 new AdvertisingOptions.Builder().setStrategy(strategy).build()
         ).addOnSuccessListener(unused -> {
-            Log.i(TAG, "Nearby advertising iniciado con éxito");
+            BleLogger.info("Nearby advertising iniciado con éxito");
 
             // Also start Bluetooth advertising for iOS devices
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                    startBluetoothAdvertising();
+                if (permissions.hasAdvertise()) {
+                    bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                 } else {
-                    Log.w(TAG, "No se tienen permisos para iniciar Bluetooth advertising");
+                    BleLogger.warn("No se tienen permisos para iniciar Bluetooth advertising");
                 }
             } else {
-                startBluetoothAdvertising();
+                bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
             }
 
             isAdvertising = true;
             listener.onSuccess();
         }).addOnFailureListener(e -> {
-            Log.e(TAG, "Error al iniciar Nearby advertising", e);
+            BleLogger.error("Error al iniciar Nearby advertising", e);
 
             // Try Bluetooth advertising as fallback
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                    startBluetoothAdvertising();
+                if (permissions.hasAdvertise()) {
+                    bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                 } else {
-                    Log.w(TAG, "No se tienen permisos para iniciar Bluetooth advertising");
+                    BleLogger.warn("No se tienen permisos para iniciar Bluetooth advertising");
                 }
             } else {
-                startBluetoothAdvertising();
+                bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
             }
 
             isAdvertising = true;
@@ -352,35 +715,53 @@ public class NearbyMultipeer {
         });
     }
 
+    /**
+     * Arranca el advertising BLE. No se llama directamente: las peticiones pasan por
+     * {@link #bleOperationGuard}.
+     * @return true si se ha pedido el arranque a la pila BLE
+     */
     @RequiresPermission(value = "android.permission.BLUETOOTH_ADVERTISE")
-    private void startBluetoothAdvertising() {
-        Log.d(TAG, "[startBluetoothAdvertising] bluetoothAdapter=" + bluetoothAdapter);
+    private boolean startBleAdvertising() {
+        BleLogger.debug("[startBleAdvertising] bluetoothAdapter={}", bluetoothAdapter);
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
-            Log.e(TAG, "Bluetooth no disponible o no activado");
-            return;
+            BleLogger.error("Bluetooth no disponible o no activado");
+            return false;
         }
 
         // BLE Advertising
         bleAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
         if (bleAdvertiser == null) {
-            Log.e(TAG, "Este dispositivo no soporta BLE Advertising");
-            return;
+            BleLogger.error("Este dispositivo no soporta BLE Advertising");
+            return false;
+        }
+
+        // Máxima visibilidad mientras hay actividad; menos consumo cuando el entorno es estable
+        DutyCycleScheduler.Level level = dutyCycle.getLevel();
+        int advertiseMode;
+        int txPower;
+        switch (level) {
+            case BALANCED:
+                advertiseMode = AdvertiseSettings.ADVERTISE_MODE_BALANCED;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM;
+                break;
+            case LOW_POWER:
+                advertiseMode = AdvertiseSettings.ADVERTISE_MODE_LOW_POWER;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM;
+                break;
+            default:
+                advertiseMode = AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
+                break;
         }
-
-        // Configuración optimizada para máxima visibilidad
         AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                .setAdvertiseMode(advertiseMode)
+                .setTxPowerLevel(txPower)
                 .setConnectable(true) // Important for allowing connections
                 .setTimeout(0) // No timeout to keep advertising
                 .build();
 
         // Datos de fabricante personalizados: NMP, v1, Android
-        byte[] manufacturerDataBytes = new byte[] {
-            (byte)0x4E, (byte)0x4D, (byte)0x50, // "NMP"
-            (byte)0x01,                         // Protocol version 1
-            (byte)0x01                          // Device type Android (0x01)
-        };
+        byte[] manufacturerDataBytes = PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_ANDROID);
 
         // Optional: Append device name to manufacturer data if needed and if space allows.
         // For now, keeping it separate to ensure the core manufacturer data is minimal and clear.
@@ -393,7 +774,7 @@ public class NearbyMultipeer {
 
         AdvertiseData.Builder dataBuilder = new AdvertiseData.Builder()
                 .addServiceUuid(new ParcelUuid(serviceUUID)) // Include the main service UUID
-                .addManufacturerData(0x0000, manufacturerDataBytes) // Use a common manufacturer ID, e.g., 0x0000 or 0xFFFF
+                .addManufacturerData(PeerSignature.MANUFACTURER_ID, manufacturerDataBytes) // Use a common manufacturer ID, e.g., 0x0000 or 0xFFFF
                 .setIncludeDeviceName(true); // Including device name can be useful for debugging
 
         AdvertiseData data = dataBuilder.build();
@@ -409,7 +790,7 @@ public class NearbyMultipeer {
             bleAdvertiseCallback = new AdvertiseCallback() {
                 @Override
                 public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-                    Log.i(TAG, "BLE Advertising started successfully.");
+                    BleLogger.info("BLE Advertising started successfully.");
                     BleLogger.info("BLE Advertising started successfully. Settings: " + settingsInEffect.toString());
                     BleLogger.logHexData("Manufacturer Data being advertised", manufacturerDataBytes);
                 }
@@ -417,7 +798,7 @@ public class NearbyMultipeer {
                 @Override
                 public void onStartFailure(int errorCode) {
                     String errorString = getAdvertiseErrorString(errorCode);
-                    Log.e(TAG, "BLE Advertising onStartFailure: " + errorString);
+                    BleLogger.error("BLE Advertising onStartFailure: {}", errorString);
                     BleLogger.error("BLE Advertising onStartFailure: " + errorString);
                     // Potentially retry or log error more permanently
                 }
@@ -430,7 +811,9 @@ public class NearbyMultipeer {
                 bleAdvertiser.stopAdvertising(bleAdvertiseCallback);
                 // Start advertising
                 bleAdvertiser.startAdvertising(settings, data, scanResponse, bleAdvertiseCallback);
-                BleLogger.info("Attempting to start BLE advertising...");
+                BleLogger.info("Attempting to start BLE advertising ({})...", level);
+                dutyCycle.onStarted(BleOperationGuard.Operation.ADVERTISE);
+                return true;
             } else {
                  BleLogger.error("bleAdvertiser is null, cannot start advertising.");
             }
@@ -439,38 +822,44 @@ public class NearbyMultipeer {
         } catch (Exception e) {
             BleLogger.error("Exception while starting BLE advertising: " + e.getMessage(), e);
         }
+        return false;
     }
 
     // Advertising clásico para compatibilidad adicional
         stopBluetoothAdvertisingClassic();
         acceptThread = new AcceptThread();
         acceptThread.start();
-        Log.i(TAG, "Bluetooth advertising clásico iniciado");
+        BleLogger.info("Bluetooth advertising clásico iniciado");
     }
 
     private void stopBluetoothAdvertising() {
-        Log.d(TAG, "[stopBluetoothAdvertising] acceptThread=" + acceptThread + ", serverSocket=" + serverSocket);
+        BleLogger.debug("[stopBluetoothAdvertising] acceptThread={}, serverSocket={}", acceptThread, serverSocket);
         // Parar BLE Advertising
+        bleOperationGuard.requestStop(BleOperationGuard.Operation.ADVERTISE);
+        // Parar advertising clásico
+        stopBluetoothAdvertisingClassic();
+    }
+
+    // Detener advertising BLE; sólo se llama desde bleOperationGuard
+    private void stopBleAdvertising() {
+        dutyCycle.onStopped(BleOperationGuard.Operation.ADVERTISE);
         if (bleAdvertiser != null && bleAdvertiseCallback != null) {
             try {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                            == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                    if (permissions.hasAdvertise()) {
                         bleAdvertiser.stopAdvertising(bleAdvertiseCallback);
-                        Log.i(TAG, "BLE advertising detenido");
+                        BleLogger.info("BLE advertising detenido");
                     } else {
-                        Log.w(TAG, "No se tienen permisos para detener BLE advertising");
+                        BleLogger.warn("No se tienen permisos para detener BLE advertising");
                     }
                 } else {
                     bleAdvertiser.stopAdvertising(bleAdvertiseCallback);
-                    Log.i(TAG, "BLE advertising detenido");
+                    BleLogger.info("BLE advertising detenido");
                 }
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al detener BLE advertising", e);
+                BleLogger.error("Error de permisos al detener BLE advertising", e);
             }
         }
-        // Parar advertising clásico
-        stopBluetoothAdvertisingClassic();
     }
 
     private void stopBluetoothAdvertisingClassic() {
@@ -481,44 +870,43 @@ public class NearbyMultipeer {
         if (serverSocket != null) {
             try {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                            == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                    if (permissions.hasConnect()) {
                         serverSocket.close();
                     } else {
-                        Log.w(TAG, "No se tienen permisos para cerrar el servidor Bluetooth");
+                        BleLogger.warn("No se tienen permisos para cerrar el servidor Bluetooth");
                     }
                 } else {
                     serverSocket.close();
                 }
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al cerrar el servidor Bluetooth", e);
+                BleLogger.error("Error de permisos al cerrar el servidor Bluetooth", e);
             } catch (IOException e) {
-                Log.e(TAG, "Error al cerrar el servidor Bluetooth", e);
+                BleLogger.error("Error al cerrar el servidor Bluetooth", e);
             }
             serverSocket = null;
         }
     }
 
     public void stopAdvertising() {
-        Log.d(TAG, "[stopAdvertising] isAdvertising=" + isAdvertising);
+        BleLogger.debug("[stopAdvertising] isAdvertising={}", isAdvertising);
         if (connectionsClient != null) {
             connectionsClient.stopAdvertising();
-            Log.i(TAG, "Nearby advertising detenido");
+            BleLogger.info("Nearby advertising detenido");
         }
 
         stopBluetoothAdvertising();
         isAdvertising = false;
-        Log.i(TAG, "Advertising detenido");
+        BleLogger.info("Advertising detenido");
     }
 
     public void startDiscovery(OnResultListener listener) {
-        Log.d(TAG, "[startDiscovery] listener=" + listener);
+        BleLogger.debug("[startDiscovery]");
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
-        Log.i(TAG, "Iniciando discovery para serviceId: " + serviceId);
+        BleLogger.info("Iniciando discovery para serviceId: {}", serviceId);
 
         // Start discovery with Nearby for Android devices
         connectionsClient.startDiscovery(
@@ -526,17 +914,15 @@ public class NearbyMultipeer {
                 endpointDiscoveryCallback,
                 new DiscoveryOptions.Builder().setStrategy(strategy).build()
         ).addOnSuccessListener(unused -> {
-            Log.i(TAG, "Nearby discovery iniciado con éxito");
+            BleLogger.info("Nearby discovery iniciado con éxito");
 
             // Also start Bluetooth discovery for iOS devices
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_SCAN)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED &&
-                    context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                if (permissions.hasScan() &&
+                    permissions.hasConnect()) {
                     startBluetoothDiscovery();
                 } else {
-                    Log.w(TAG, "No se tienen permisos para iniciar Bluetooth discovery");
+                    BleLogger.warn("No se tienen permisos para iniciar Bluetooth discovery");
                 }
             } else {
                 startBluetoothDiscovery();
@@ -545,17 +931,15 @@ public class NearbyMultipeer {
             isDiscovering = true;
             listener.onSuccess();
         }).addOnFailureListener(e -> {
-            Log.e(TAG, "Error al iniciar Nearby discovery", e);
+            BleLogger.error("Error al iniciar Nearby discovery", e);
 
             // Try Bluetooth discovery as fallback
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_SCAN)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED &&
-                    context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                if (permissions.hasScan() &&
+                    permissions.hasConnect()) {
                     startBluetoothDiscovery();
                 } else {
-                    Log.w(TAG, "No se tienen permisos para iniciar Bluetooth discovery");
+                    BleLogger.warn("No se tienen permisos para iniciar Bluetooth discovery");
                 }
             } else {
                 startBluetoothDiscovery();
@@ -568,34 +952,37 @@ public class NearbyMultipeer {
 
     @RequiresPermission(allOf = {"android.permission.BLUETOOTH_SCAN", "android.permission.BLUETOOTH_CONNECT"})
     private void startBluetoothDiscovery() {
-        Log.d(TAG, "[startBluetoothDiscovery] bluetoothAdapter=" + bluetoothAdapter);
+        BleLogger.debug("[startBluetoothDiscovery] bluetoothAdapter={}", bluetoothAdapter);
         if (bluetoothAdapter == null) {
-            Log.e(TAG, "Bluetooth no disponible");
+            BleLogger.error("Bluetooth no disponible");
             return;
         }
 
         // Check permissions for Bluetooth operations
         if (!hasBluetoothPermissions()) {
-            Log.e(TAG, "No se tienen permisos para usar Bluetooth");
+            BleLogger.error("No se tienen permisos para usar Bluetooth");
             return;
         }
 
         try {
             // Make sure Bluetooth is enabled
             if (!bluetoothAdapter.isEnabled()) {
-                Log.w(TAG, "Bluetooth no está activado");
+                BleLogger.warn("Bluetooth no está activado");
                 return;
             }
 
             // Clear previously discovered devices
-            discoveredDevices.clear();
+            endpoints.clearDiscovered();
+            discoveryCache.clear();
+            scheduleDiscoverySweep();
+            dutyCycle.onActivity();
 
             // Iniciar escaneo BLE específico
-            startBleScanning();
+            bleOperationGuard.requestStart(BleOperationGuard.Operation.SCAN);
 
             // Check scan permissions
             if (!hasBluetoothScanPermissions()) {
-                Log.e(TAG, "No se tienen permisos para escanear dispositivos Bluetooth");
+                BleLogger.error("No se tienen permisos para escanear dispositivos Bluetooth");
                 return;
             }
 
@@ -607,78 +994,66 @@ public class NearbyMultipeer {
             // Start discovery
             if (hasBluetoothScanPermissions()) {
                 bluetoothAdapter.startDiscovery();
-                Log.i(TAG, "Bluetooth discovery clásico iniciado");
+                BleLogger.info("Bluetooth discovery clásico iniciado");
             } else {
-                Log.e(TAG, "No se tienen permisos para iniciar Bluetooth discovery");
+                BleLogger.error("No se tienen permisos para iniciar Bluetooth discovery");
             }
         } catch (SecurityException e) {
-            Log.e(TAG, "Error de permisos en operaciones Bluetooth", e);
+            BleLogger.error("Error de permisos en operaciones Bluetooth", e);
         }
     }
 
     /**
-     * Inicia el escaneo específico BLE para encontrar dispositivos iOS y Android
+     * Inicia el escaneo específico BLE para encontrar dispositivos iOS y Android.
+     * No se llama directamente: las peticiones pasan por {@link #bleOperationGuard}.
+     * @return true si se ha pedido el arranque a la pila BLE
      */
     @RequiresPermission(value = "android.permission.BLUETOOTH_SCAN")
-    private void startBleScanning() {
+    private boolean startBleScanning() {
         BleLogger.info("Iniciando escaneo BLE...");
-        bleDevices.clear();
 
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
             BleLogger.error("Bluetooth no disponible o no activado");
-            return;
+            return false;
         }
 
         // Obtener scanner BLE
         bleScanner = bluetoothAdapter.getBluetoothLeScanner();
         if (bleScanner == null) {
             BleLogger.error("Este dispositivo no soporta BLE scanning");
-            return;
+            return false;
         }
 
-        // Filtros para escanear específicamente nuestro servicio
-        List<ScanFilter> filters = new ArrayList<>();
-        ScanFilter serviceFilter = new ScanFilter.Builder()
-                .setServiceUuid(new ParcelUuid(serviceUUID))
-                .build();
-        // filters.add(serviceFilter); // Service UUID filter can be primary if manufacturer data is less reliable.
-
-        // Filter for iOS devices: NMP, v1, iOS type (0x02)
-        // Manufacturer ID should match what iOS is advertising with, if it sets one.
-        // Assuming iOS doesn't set a specific manufacturer ID that we can filter by,
-        // we rely on the content of the manufacturer data.
-        // However, if Android sets manufacturer ID 0x0000, iOS should look for that.
-        // For scanning iOS, iOS advertises with CBAdvertisementDataManufacturerDataKey.
-        // The manufacturer ID is part of this data.
-        // Android's ScanFilter's manufacturerId (first param of setManufacturerData) is to filter specific company's beacons.
-        // For custom data, often this ID is not the filter criteria, but the data itself.
-        // Let's try with 0x0000 if iOS is expected to use that, or if iOS doesn't set one, this field might be ignored if data matches.
-
-        byte[] manufacturerDataFilterBytes = new byte[]{
-            (byte)0x4E, (byte)0x4D, (byte)0x50, // "NMP"
-            (byte)0x01,                         // Protocol version 1
-            (byte)0x02                          // Device type iOS (0x02)
-        };
-        byte[] manufacturerDataMaskBytes = new byte[]{
-            (byte)0xFF, (byte)0xFF, (byte)0xFF,
-            (byte)0xFF,
-            (byte)0xFF
-        };
-
-        ScanFilter manufacturerFilter = new ScanFilter.Builder()
-                .setManufacturerData(0x0000, manufacturerDataFilterBytes, manufacturerDataMaskBytes) // Matching ID 0x0000
-                .build();
-        filters.add(manufacturerFilter);
-
-        // Also, add a filter for the service UUID as iOS should be advertising this.
-        filters.add(serviceFilter);
+        // Filtros de PeerSignature para todos los tipos de dispositivo y versiones NMP. Con soporte de
+        // hardware el controlador descarta al resto de anunciantes sin despertar a la app.
+        List<ScanFilter> filters = PeerSignature.buildScanFilters(serviceUUID);
+        if (!bluetoothAdapter.isOffloadedFilteringSupported()) {
+            BleLogger.debug("Filtros de escaneo sin soporte en hardware: se aplican en software");
+        }
 
 
-        // Configuración optimizada para descubrimiento rápido
+        // Descubrimiento rápido mientras hay actividad; ventanas más espaciadas cuando el entorno es estable
+        DutyCycleScheduler.Level level = dutyCycle.getLevel();
+        int scanMode;
+        switch (level) {
+            case BALANCED:
+                scanMode = ScanSettings.SCAN_MODE_BALANCED;
+                break;
+            case LOW_POWER:
+                scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+                break;
+            default:
+                scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+                break;
+        }
+        // Con batching el controlador acumula los resultados y despierta a la app una vez por lote
+        long reportDelay = batchScanEnabled && bluetoothAdapter.isOffloadedScanBatchingSupported()
+                ? batchScanReportDelayMs : 0;
         ScanSettings scanSettings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .setReportDelay(0) // Reporte inmediato
-                .setMatchMode(ScanSettings.MATCH_MODE_AGGRESSIVE)
+                .setScanMode(scanMode)
+                .setReportDelay(reportDelay)
+                .setMatchMode(level == DutyCycleScheduler.Level.LOW_POWER
+                        ? ScanSettings.MATCH_MODE_STICKY : ScanSettings.MATCH_MODE_AGGRESSIVE)
                 .setNumOfMatches(ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT)
                 .build();
 
@@ -696,141 +1071,29 @@ public class NearbyMultipeer {
         bleScanCallback = new ScanCallback() {
             @Override
             public void onScanResult(int callbackType, ScanResult result) {
+                scanStats.onResult();
                 BluetoothDevice device = result.getDevice();
                 if (device == null) return;
-
-                String deviceName;
-                try {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                        if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
-                                == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                            deviceName = device.getName();
-                        } else {
-                            deviceName = "Unknown";
-                        }
-                    } else {
-                        deviceName = device.getName();
-                    }
-                } catch (SecurityException e) {
-                    deviceName = "Unknown";
-                    BleLogger.error("Error de permisos al obtener nombre del dispositivo", e);
-                }
-
-                if (deviceName == null) deviceName = "Unknown";
-
-                String deviceAddress = device.getAddress();
-                int rssi = result.getRssi();
-
-                // Para depuración, mostrar todos los dispositivos encontrados
-                BleLogger.debug("Dispositivo BLE encontrado: " + deviceName + " (" + deviceAddress + ") RSSI: " + rssi);
-
-                // Detectar si es un dispositivo iOS por el nombre o datos de fabricante
-                boolean isIosDevice = false;
-                ScanRecord scanRecord = result.getScanRecord();
-
-                if (scanRecord != null) {
-                    // Attempt to get manufacturer data using the ID 0x0000
-                    byte[] manufacturerData = scanRecord.getManufacturerSpecificData(0x0000);
-                    if (manufacturerData == null) {
-                        // Fallback if 0x0000 returns no data, try iterating common IDs or checking all.
-                        // For now, let's assume 0x0000 is what we're looking for or that getManufacturerSpecificData(id) can be tricky.
-                        // A more robust way is to parse all service data or manufacturer data fields if the ID is uncertain.
-                        // However, the filter should have already pre-qualified this.
-                        Map<Integer, byte[]> allManufacturerData = scanRecord.getManufacturerSpecificData();
-                        if(allManufacturerData != null && !allManufacturerData.isEmpty()){
-                             // Log all manufacturer data found
-                            for(Map.Entry<Integer, byte[]> entry : allManufacturerData.entrySet()){
-                                BleLogger.debug("Found Manufacturer Data with ID: " + entry.getKey());
-                                BleLogger.logHexData("Data for ID " + entry.getKey(), entry.getValue());
-                                if(entry.getKey() == 0x0000) { // Or check if any matches the expected pattern
-                                    manufacturerData = entry.getValue();
-                                    break;
-                                }
-                            }
-                        }
-                    }
-
-                    if (manufacturerData != null && manufacturerData.length >= 5) {
-                        // Verify NMP, protocol version, and iOS device type
-                        if (manufacturerData[0] == (byte)0x4E &&
-                            manufacturerData[1] == (byte)0x4D &&
-                            manufacturerData[2] == (byte)0x50 && // NMP
-                            manufacturerData[3] == (byte)0x01 && // Protocol v1
-                            manufacturerData[4] == (byte)0x02) { // Device Type iOS
-                            isIosDevice = true;
-                            BleLogger.info("iOS device identified via Manufacturer Data. Name: " + deviceName);
-                            BleLogger.logHexData("Matching Manufacturer Data", manufacturerData);
-                            // Optional: Extract device name if iOS appends it after these 5 bytes
-                            if (manufacturerData.length > 5) {
-                                try {
-                                    String extractedName = new String(manufacturerData, 5, manufacturerData.length - 5, "UTF-8");
-                                    BleLogger.info("Extracted name from iOS manufacturer data: " + extractedName);
-                                    // deviceName = extractedName; // Could override if this is more reliable
-                                } catch (Exception e) {
-                                    BleLogger.error("Error decoding name from iOS manufacturer data", e);
-                                }
-                            }
-                        }
-                    }
-                }
-
-                // Fallback: Check if device name starts with "iOS_" if manufacturer data check fails
-                if (!isIosDevice && deviceName != null && deviceName.toLowerCase().startsWith("ios_")) {
-                    BleLogger.info("iOS device identified by name prefix: " + deviceName);
-                    isIosDevice = true;
-                }
-
-                if (isIosDevice) {
-                    String discoveredServiceId = "BLE_iOS_Device"; // More specific service ID
-
-                    // Para depuración, mostrar los datos detallados
-                    BleLogger.info("Dispositivo iOS BLE encontrado: " + deviceName);
-                    if (scanRecord != null) {
-                        BleLogger.debug("Datos de advertising: " + scanRecord);
-                        if (scanRecord.getServiceUuids() != null) {
-                            for (ParcelUuid uuid : scanRecord.getServiceUuids()) {
-                                BleLogger.debug("Servicio anunciado: " + uuid.toString());
-                            }
-                        }
-                    }
-
-                    // Si ya habíamos detectado este dispositivo, no notificar de nuevo
-                    if (!bleDevices.containsKey(deviceAddress)) {
-                        bleDevices.put(deviceAddress, device);
-                        discoveredDevices.put(deviceAddress, device); // También guardar en la lista general
-
-                        // Notificar a través del callback de Nearby
-                        if (endpointDiscoveryCallback != null) {
-                            String finalDeviceName = deviceName;
-                            mainHandler.post(() -> endpointDiscoveryCallback.onEndpointFound(deviceAddress, new DiscoveredEndpointInfo(serviceId, finalDeviceName)));
-                        }
-                    }
-                }
-                else if (deviceName.startsWith("Android_") || (scanRecord != null && scanRecord.getServiceUuids() != null &&
-                        scanRecord.getServiceUuids().contains(new ParcelUuid(serviceUUID)))) {
-                    // Es un dispositivo Android con nuestro servicio
-                    BleLogger.info("Dispositivo Android BLE encontrado: " + deviceName);
-                    String serviceId = "Android_Device";
-
-                    // Si ya habíamos detectado este dispositivo, no notificar de nuevo
-                    if (!bleDevices.containsKey(deviceAddress)) {
-                        bleDevices.put(deviceAddress, device);
-                        discoveredDevices.put(deviceAddress, device); // También guardar en la lista general
-
-                        // Notificar a través del callback de Nearby
-                        if (endpointDiscoveryCallback != null) {
-                            String finalDeviceName = deviceName;
-                            mainHandler.post(() -> endpointDiscoveryCallback.onEndpointFound(deviceAddress, new DiscoveredEndpointInfo(serviceId, finalDeviceName)));
-                        }
-                    }
-                }
+                scanQueue.offer(device, result.getRssi(), result.getTimestampNanos(), result.getScanRecord());
             }
 
             @Override
             public void onBatchScanResults(List<ScanResult> results) {
-                BleLogger.info("Batch scan results: " + results.size() + " dispositivos");
+                // Una sola pasada: nos quedamos con el resultado más reciente de cada dispositivo del lote
+                Map<String, ScanResult> latest = new LinkedHashMap<>();
                 for (ScanResult result : results) {
-                    onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+                    BluetoothDevice device = result.getDevice();
+                    if (device == null) continue;
+                    String address = device.getAddress();
+                    ScanResult previous = latest.get(address);
+                    if (previous == null || result.getTimestampNanos() >= previous.getTimestampNanos()) {
+                        latest.put(address, result);
+                    }
+                }
+                scanStats.onBatch(results.size(), latest.size());
+                BleLogger.debug("Batch scan results: {} resultados, {} dispositivos", results.size(), latest.size());
+                for (ScanResult result : latest.values()) {
+                    scanQueue.offer(result.getDevice(), result.getRssi(), result.getTimestampNanos(), result.getScanRecord());
                 }
             }
 
@@ -843,7 +1106,9 @@ public class NearbyMultipeer {
         try {
             if (hasBluetoothScanPermissions()) {
                 bleScanner.startScan(filters, scanSettings, bleScanCallback);
-                BleLogger.info("Escaneo BLE iniciado con éxito");
+                BleLogger.info("Escaneo BLE iniciado con éxito ({})", level);
+                dutyCycle.onStarted(BleOperationGuard.Operation.SCAN);
+                return true;
             } else {
                 BleLogger.error("No se tienen permisos para escanear BLE");
                 throw new SecurityException("No se tienen permisos BLUETOOTH_SCAN");
@@ -853,10 +1118,151 @@ public class NearbyMultipeer {
         } catch (Exception e) {
             BleLogger.error("Error al iniciar escaneo BLE", e);
         }
+        return false;
+    }
+
+    /**
+     * Clasifica un resultado de escaneo BLE y notifica los peers nuevos. Se ejecuta en el
+     * hilo de {@link #scanQueue}, no en el callback del escaneo.
+     * @param timestampNanos momento en que se recibió el anuncio (reloj de elapsedRealtimeNanos)
+     */
+    private void parseScanResult(BluetoothDevice device, int rssi, long timestampNanos, ScanRecord scanRecord) {
+        String deviceName;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                if (permissions.hasConnect()) {
+                    deviceName = device.getName();
+                } else {
+                    deviceName = "Unknown";
+                }
+            } else {
+                deviceName = device.getName();
+            }
+        } catch (SecurityException e) {
+            deviceName = "Unknown";
+            BleLogger.error("Error de permisos al obtener nombre del dispositivo", e);
+        }
+
+        if (deviceName == null) deviceName = "Unknown";
+
+        String deviceAddress = device.getAddress();
+
+        // Para depuración, mostrar todos los dispositivos encontrados
+        BleLogger.debug("Dispositivo BLE encontrado: {} ({}) RSSI: {}", deviceName, deviceAddress, rssi);
+
+        // Detectar si es un dispositivo iOS por el nombre o datos de fabricante
+        boolean isIosDevice = false;
+        boolean isAndroidDevice = false;
+
+        if (scanRecord != null) {
+            byte[] rawRecord = scanRecord.getBytes();
+            if (rawRecord != null) {
+                traceRecorder.record(BleTraceRecorder.KIND_ADVERTISEMENT, deviceAddress, 0,
+                        rawRecord, 0, rawRecord.length);
+            }
+
+            // Attempt to get manufacturer data using the ID 0x0000
+            byte[] manufacturerData = scanRecord.getManufacturerSpecificData(PeerSignature.MANUFACTURER_ID);
+            if (manufacturerData == null) {
+                // Fallback if 0x0000 returns no data, try iterating common IDs or checking all.
+                // For now, let's assume 0x0000 is what we're looking for or that getManufacturerSpecificData(id) can be tricky.
+                // A more robust way is to parse all service data or manufacturer data fields if the ID is uncertain.
+                // However, the filter should have already pre-qualified this.
+                Map<Integer, byte[]> allManufacturerData = scanRecord.getManufacturerSpecificData();
+                if(allManufacturerData != null && !allManufacturerData.isEmpty()){
+                     // Log all manufacturer data found
+                    for(Map.Entry<Integer, byte[]> entry : allManufacturerData.entrySet()){
+                        if (BleLogger.isLoggable(BleLogger.LogLevel.DEBUG)) {
+                            BleLogger.debug("Found Manufacturer Data with ID: " + entry.getKey());
+                            BleLogger.logHexData("Data for ID " + entry.getKey(), entry.getValue());
+                        }
+                        if(entry.getKey() == PeerSignature.MANUFACTURER_ID) { // Or check if any matches the expected pattern
+                            manufacturerData = entry.getValue();
+                            break;
+                        }
+                    }
+                }
+            }
+
+            // Verify NMP, protocol version, and device type
+            int deviceType = PeerSignature.matchDeviceType(manufacturerData);
+            if (deviceType == PeerSignature.DEVICE_TYPE_IOS) {
+                isIosDevice = true;
+                BleLogger.info("iOS device identified via Manufacturer Data. Name: {}", deviceName);
+                BleLogger.logHexData("Matching Manufacturer Data", manufacturerData);
+                // Optional: Extract device name if iOS appends it after the header
+                if (manufacturerData.length > PeerSignature.HEADER_SIZE) {
+                    try {
+                        String extractedName = new String(manufacturerData, PeerSignature.HEADER_SIZE,
+                                manufacturerData.length - PeerSignature.HEADER_SIZE, "UTF-8");
+                        BleLogger.info("Extracted name from iOS manufacturer data: {}", extractedName);
+                        // deviceName = extractedName; // Could override if this is more reliable
+                    } catch (Exception e) {
+                        BleLogger.error("Error decoding name from iOS manufacturer data", e);
+                    }
+                }
+            } else if (deviceType == PeerSignature.DEVICE_TYPE_ANDROID) {
+                isAndroidDevice = true;
+            }
+        }
+
+        // Fallback: Check if device name starts with "iOS_" if manufacturer data check fails
+        if (!isIosDevice && deviceName != null && deviceName.toLowerCase().startsWith("ios_")) {
+            BleLogger.info("iOS device identified by name prefix: {}", deviceName);
+            isIosDevice = true;
+        }
+
+        if (isIosDevice) {
+            String discoveredServiceId = "BLE_iOS_Device"; // More specific service ID
+
+            // Para depuración, mostrar los datos detallados
+            BleLogger.info("Dispositivo iOS BLE encontrado: {}", deviceName);
+            if (scanRecord != null) {
+                BleLogger.debug("Datos de advertising: {}", scanRecord);
+                if (scanRecord.getServiceUuids() != null) {
+                    for (ParcelUuid uuid : scanRecord.getServiceUuids()) {
+                        BleLogger.debug("Servicio anunciado: {}", uuid);
+                    }
+                }
+            }
+
+            // Si el dispositivo sigue en la caché, sólo se actualizan su RSSI y última vez visto
+            endpoints.putBleDiscovered(deviceAddress, device);
+            if (discoveryCache.observe(deviceAddress, deviceName, serviceId, rssi, timestampNanos / 1_000_000)) {
+                dutyCycle.onActivity();
+
+                // Notificar a través del callback de Nearby
+                if (endpointDiscoveryCallback != null) {
+                    String finalDeviceName = deviceName;
+                    callbackDispatcher.post(() -> endpointDiscoveryCallback.onEndpointFound(deviceAddress, new DiscoveredEndpointInfo(serviceId, finalDeviceName)));
+                }
+            }
+        }
+        else if (isAndroidDevice || deviceName.startsWith("Android_") || (scanRecord != null && scanRecord.getServiceUuids() != null &&
+                scanRecord.getServiceUuids().contains(new ParcelUuid(serviceUUID)))) {
+            // Es un dispositivo Android con nuestro servicio
+            BleLogger.info("Dispositivo Android BLE encontrado: {}", deviceName);
+            String serviceId = "Android_Device";
+
+            // Si el dispositivo sigue en la caché, sólo se actualizan su RSSI y última vez visto
+            endpoints.putBleDiscovered(deviceAddress, device);
+            if (discoveryCache.observe(deviceAddress, deviceName, serviceId, rssi, timestampNanos / 1_000_000)) {
+                dutyCycle.onActivity();
+
+                // Notificar a través del callback de Nearby
+                if (endpointDiscoveryCallback != null) {
+                    String finalDeviceName = deviceName;
+                    callbackDispatcher.post(() -> endpointDiscoveryCallback.onEndpointFound(deviceAddress, new DiscoveredEndpointInfo(serviceId, finalDeviceName)));
+                }
+            }
+        }
     }
 
-    // Detener escaneo BLE específicamente
+    // Detener escaneo BLE específicamente; sólo se llama desde bleOperationGuard
     private void stopBleScanning() {
+        dutyCycle.onStopped(BleOperationGuard.Operation.SCAN);
+        // Los resultados pendientes ya no deben generar endpointFound
+        scanQueue.clear();
         if (bluetoothAdapter == null || bleScanner == null) return;
 
         if (bleScanCallback != null) {
@@ -876,56 +1282,57 @@ public class NearbyMultipeer {
     }
 
     private void stopBluetoothDiscovery() {
-        Log.d(TAG, "[stopBluetoothDiscovery] bluetoothAdapter=" + bluetoothAdapter);
+        BleLogger.debug("[stopBluetoothDiscovery] bluetoothAdapter={}", bluetoothAdapter);
         if (bluetoothAdapter == null) return;
 
         // Detener escaneo BLE
-        stopBleScanning();
+        bleOperationGuard.requestStop(BleOperationGuard.Operation.SCAN);
+        mainHandler.removeCallbacks(discoverySweep);
 
         // Check permissions
         if (!hasBluetoothScanPermissions()) {
-            Log.e(TAG, "No se tienen permisos para controlar Bluetooth discovery");
+            BleLogger.error("No se tienen permisos para controlar Bluetooth discovery");
             return;
         }
 
         try {
             if (bluetoothAdapter.isDiscovering()) {
                 bluetoothAdapter.cancelDiscovery();
-                Log.i(TAG, "Bluetooth discovery detenido");
+                BleLogger.info("Bluetooth discovery detenido");
             }
         } catch (SecurityException e) {
-            Log.e(TAG, "Error de permisos al detener Bluetooth discovery", e);
+            BleLogger.error("Error de permisos al detener Bluetooth discovery", e);
         }
     }
 
     public void stopDiscovery() {
-        Log.d(TAG, "[stopDiscovery] isDiscovering=" + isDiscovering);
+        BleLogger.debug("[stopDiscovery] isDiscovering={}", isDiscovering);
         if (connectionsClient != null) {
             connectionsClient.stopDiscovery();
-            Log.i(TAG, "Nearby discovery detenido");
+            BleLogger.info("Nearby discovery detenido");
         }
 
         stopBluetoothDiscovery();
         isDiscovering = false;
-        Log.i(TAG, "Discovery detenido");
+        BleLogger.info("Discovery detenido");
     }
 
     public void requestConnection(String displayName, String endpointId, OnResultListener listener) {
-        Log.d(TAG, "[requestConnection] displayName=" + displayName + ", endpointId=" + endpointId + ", listener=" + listener);
+        BleLogger.debug("[requestConnection] displayName={}, endpointId={}", displayName, endpointId);
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
         // Check if this is a Bluetooth device (iOS)
-        if (discoveredDevices.containsKey(endpointId)) {
+        if (endpoints.isDiscovered(endpointId)) {
             // This is an iOS device, connect via Bluetooth
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_CONNECT) == android.content.pm.PackageManager.PERMISSION_GRANTED &&
-                    context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_SCAN) == android.content.pm.PackageManager.PERMISSION_GRANTED) {
+                if (permissions.hasConnect() &&
+                    permissions.hasScan()) {
                     connectToBluetoothDevice(endpointId, listener);
                 } else {
-                    Log.e(TAG, "No se tienen permisos para conectar con dispositivos Bluetooth");
+                    BleLogger.error("No se tienen permisos para conectar con dispositivos Bluetooth");
                     listener.onFailure("No se tienen permisos para conectar con dispositivos Bluetooth");
                 }
             } else {
@@ -933,14 +1340,14 @@ public class NearbyMultipeer {
             }
         } else {
             // This is an Android device, connect via Nearby
-            Log.i(TAG, "Solicitando conexión a endpoint Nearby: " + endpointId);
+            BleLogger.info("Solicitando conexión a endpoint Nearby: {}", endpointId);
             try {
                 connectionsClient.requestConnection(
                         displayName,
                         endpointId,
-                        connectionLifecycleCallback
+                        nearbyLifecycleCallback
                 ).addOnSuccessListener(unused -> {
-                    Log.i(TAG, "Solicitud de conexión Nearby enviada con éxito");
+                    BleLogger.info("Solicitud de conexión Nearby enviada con éxito");
 
                     // Stop advertising once connected
                     if (isAdvertising) {
@@ -949,14 +1356,14 @@ public class NearbyMultipeer {
 
                     listener.onSuccess();
                 }).addOnFailureListener(e -> {
-                    Log.e(TAG, "Error al solicitar conexión Nearby", e);
+                    BleLogger.error("Error al solicitar conexión Nearby", e);
                     listener.onFailure("Error al solicitar conexión: " + e.getMessage());
                 });
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al solicitar conexión Nearby", e);
+                BleLogger.error("Error de permisos al solicitar conexión Nearby", e);
                 listener.onFailure("Error de permisos: " + e.getMessage());
             } catch (Exception e) {
-                Log.e(TAG, "Error al solicitar conexión Nearby", e);
+                BleLogger.error("Error al solicitar conexión Nearby", e);
                 listener.onFailure("Error: " + e.getMessage());
             }
         }
@@ -964,8 +1371,8 @@ public class NearbyMultipeer {
 
     @RequiresPermission(allOf = {"android.permission.BLUETOOTH_CONNECT", "android.permission.BLUETOOTH_SCAN"})
     private void connectToBluetoothDevice(String deviceAddress, OnResultListener listener) {
-        Log.d(TAG, "[connectToBluetoothDevice] deviceAddress=" + deviceAddress + ", listener=" + listener);
-        BluetoothDevice device = discoveredDevices.get(deviceAddress);
+        BleLogger.debug("[connectToBluetoothDevice] deviceAddress={}", deviceAddress);
+        BluetoothDevice device = endpoints.getDiscoveredDevice(deviceAddress);
         if (device == null) {
             listener.onFailure("Dispositivo no encontrado: " + deviceAddress);
             return;
@@ -973,7 +1380,7 @@ public class NearbyMultipeer {
 
         // Check permissions
         if (!hasBluetoothPermissions()) {
-            Log.e(TAG, "No se tienen permisos para conectar con dispositivos Bluetooth");
+            BleLogger.error("No se tienen permisos para conectar con dispositivos Bluetooth");
             listener.onFailure("No se tienen permisos para conectar con dispositivos Bluetooth");
             return;
         }
@@ -984,14 +1391,14 @@ public class NearbyMultipeer {
                 bluetoothAdapter.cancelDiscovery();
             }
         } catch (SecurityException e) {
-            Log.e(TAG, "Error de permisos al cancelar Bluetooth discovery", e);
+            BleLogger.error("Error de permisos al cancelar Bluetooth discovery", e);
             listener.onFailure("Error de permisos: " + e.getMessage());
             return;
         }
 
         // Create and start the connect thread
         ConnectThread connectThread = new ConnectThread(device, deviceAddress);
-        connectThreads.put(deviceAddress, connectThread);
+        endpoints.putConnectThread(deviceAddress, connectThread);
         connectThread.start();
 
         // Stop advertising once connected
@@ -999,298 +1406,733 @@ public class NearbyMultipeer {
             stopAdvertising();
         }
 
-        Log.i(TAG, "Iniciando conexión Bluetooth a: " + deviceAddress);
+        BleLogger.info("Iniciando conexión Bluetooth a: {}", deviceAddress);
         listener.onSuccess();
     }
 
     public void acceptConnection(String endpointId, OnResultListener listener) {
-        Log.d(TAG, "[acceptConnection] endpointId=" + endpointId + ", listener=" + listener);
+        BleLogger.debug("[acceptConnection] endpointId={}", endpointId);
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
         // Check if this is a Bluetooth connection (iOS device)
-        if (connectedSockets.containsKey(endpointId)) {
+        BluetoothSocket socket = endpoints.getSocket(endpointId);
+        if (socket != null) {
             // For Bluetooth, the connection is already established at this point
             // We just need to start the connected thread to handle data transfer
-            BluetoothSocket socket = connectedSockets.get(endpointId);
-            if (socket != null) {
-                ConnectedThread connectedThread = new ConnectedThread(socket, endpointId);
-                connectedThreads.put(endpointId, connectedThread);
-                connectedThread.start();
+            ConnectedThread connectedThread = new ConnectedThread(socket, endpointId);
+            endpoints.putConnected(endpointId, socket, connectedThread);
+            connectedThread.start();
+
+            // Stop advertising once connected
+            if (isAdvertising) {
+                stopAdvertising();
+            }
+
+            isConnected = true;
+            BleLogger.info("Conexión Bluetooth aceptada con éxito");
+            listener.onSuccess();
 
-                // Stop advertising once connected
-                if (isAdvertising) {
-                    stopAdvertising();
+            // Notify connection result
+            callbackDispatcher.post(() -> {
+                if (connectionLifecycleCallback != null) {
+                    connectionLifecycleCallback.onConnectionResult(
+                        endpointId,
+                        new com.google.android.gms.nearby.connection.ConnectionResolution(
+                            com.google.android.gms.common.api.Status.RESULT_SUCCESS
+                        )
+                    );
                 }
+            });
+        } else {
+            // This is a Nearby connection (Android device)
+            BleLogger.info("Aceptando conexión de endpoint Nearby: {}", endpointId);
+            try {
+                connectionsClient.acceptConnection(endpointId, nearbyPayloadCallback)
+                        .addOnSuccessListener(unused -> {
+                            BleLogger.info("Conexión Nearby aceptada con éxito");
 
-                isConnected = true;
-                Log.i(TAG, "Conexión Bluetooth aceptada con éxito");
-                listener.onSuccess();
-
-                // Notify connection result
-                mainHandler.post(() -> {
-                    if (connectionLifecycleCallback != null) {
-                        connectionLifecycleCallback.onConnectionResult(
-                            endpointId,
-                            new com.google.android.gms.nearby.connection.ConnectionResolution(
-                                com.google.android.gms.common.api.Status.RESULT_SUCCESS
-                            )
-                        );
-                    }
-                });
-            } else {
-                listener.onFailure("Socket no disponible para: " + endpointId);
-            }
-        } else {
-            // This is a Nearby connection (Android device)
-            Log.i(TAG, "Aceptando conexión de endpoint Nearby: " + endpointId);
-            try {
-                connectionsClient.acceptConnection(endpointId, payloadCallback)
-                        .addOnSuccessListener(unused -> {
-                            Log.i(TAG, "Conexión Nearby aceptada con éxito");
-
-                            // Stop advertising once connected
-                            if (isAdvertising) {
-                                stopAdvertising();
-                            }
+                            // Stop advertising once connected
+                            if (isAdvertising) {
+                                stopAdvertising();
+                            }
 
                             isConnected = true;
                             listener.onSuccess();
                         })
                         .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al aceptar conexión Nearby", e);
+                            BleLogger.error("Error al aceptar conexión Nearby", e);
                             listener.onFailure("Error al aceptar conexión: " + e.getMessage());
                         });
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al aceptar conexión Nearby", e);
+                BleLogger.error("Error de permisos al aceptar conexión Nearby", e);
                 listener.onFailure("Error de permisos: " + e.getMessage());
             } catch (Exception e) {
-                Log.e(TAG, "Error al aceptar conexión Nearby", e);
+                BleLogger.error("Error al aceptar conexión Nearby", e);
                 listener.onFailure("Error: " + e.getMessage());
             }
         }
     }
 
     public void rejectConnection(String endpointId, OnResultListener listener) {
-        Log.d(TAG, "[rejectConnection] endpointId=" + endpointId + ", listener=" + listener);
+        BleLogger.debug("[rejectConnection] endpointId={}", endpointId);
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
         // Check if this is a Bluetooth connection (iOS device)
-        if (connectedSockets.containsKey(endpointId)) {
+        if (endpoints.getSocket(endpointId) != null) {
             // Close the Bluetooth socket
-            BluetoothSocket socket = connectedSockets.remove(endpointId);
+            BluetoothSocket socket = endpoints.removeSocket(endpointId);
             if (socket != null) {
                 try {
                     socket.close();
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
                 }
             }
 
             // Remove any connect thread
-            ConnectThread connectThread = connectThreads.remove(endpointId);
+            ConnectThread connectThread = endpoints.removeConnectThread(endpointId);
             if (connectThread != null) {
                 connectThread.cancel();
             }
 
-            Log.i(TAG, "Conexión Bluetooth rechazada con éxito");
+            BleLogger.info("Conexión Bluetooth rechazada con éxito");
             listener.onSuccess();
         } else {
             // This is a Nearby connection (Android device)
-            Log.i(TAG, "Rechazando conexión de endpoint Nearby: " + endpointId);
+            BleLogger.info("Rechazando conexión de endpoint Nearby: {}", endpointId);
             try {
                 connectionsClient.rejectConnection(endpointId)
                         .addOnSuccessListener(unused -> {
-                            Log.i(TAG, "Conexión Nearby rechazada con éxito");
+                            BleLogger.info("Conexión Nearby rechazada con éxito");
                             listener.onSuccess();
                         })
                         .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al rechazar conexión Nearby", e);
+                            BleLogger.error("Error al rechazar conexión Nearby", e);
                             listener.onFailure("Error al rechazar conexión: " + e.getMessage());
                         });
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al rechazar conexión Nearby", e);
+                BleLogger.error("Error de permisos al rechazar conexión Nearby", e);
                 listener.onFailure("Error de permisos: " + e.getMessage());
             } catch (Exception e) {
-                Log.e(TAG, "Error al rechazar conexión Nearby", e);
+                BleLogger.error("Error al rechazar conexión Nearby", e);
                 listener.onFailure("Error: " + e.getMessage());
             }
         }
     }
 
     public void sendMessage(String endpointId, String message, OnResultListener listener) {
-        Log.d(TAG, "[sendMessage] endpointId=" + endpointId + ", message=" + message + ", listener=" + listener);
+        BleLogger.debug(() -> "[sendMessage] endpointId=" + endpointId + ", message=" + BleLogger.payload(message));
         if (connectionsClient == null) {
             listener.onFailure("No inicializado. Llama a initialize primero.");
             return;
         }
 
         // Check if this is a Bluetooth connection (iOS device)
-        ConnectedThread connectedThread = connectedThreads.get(endpointId);
+        ConnectedThread connectedThread = endpoints.getConnectedThread(endpointId);
         if (connectedThread != null) {
-            // Send via Bluetooth
+            // Send via Bluetooth; resolved by the connection writer once the frame is flushed
             byte[] bytes = message.getBytes();
-            connectedThread.write(bytes);
-            Log.i(TAG, "Mensaje Bluetooth enviado con éxito");
-            listener.onSuccess();
+            connectedThread.write(bytes, new OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    BleLogger.info("Mensaje Bluetooth enviado con éxito");
+                    listener.onSuccess();
+                }
+
+                @Override
+                public void onFailure(String error) {
+                    BleLogger.error("Error al enviar mensaje Bluetooth: {}", error);
+                    listener.onFailure(error);
+                }
+            });
         } else {
             // Send via Nearby
-            byte[] bytes = message.getBytes();
-            Payload payload = Payload.fromBytes(bytes);
+            BleLogger.info("Enviando mensaje a endpoint Nearby: {}", endpointId);
+            sendNearbyBytes(Collections.singletonList(endpointId), message.getBytes(), listener);
+        }
+    }
 
-            Log.i(TAG, "Enviando mensaje a endpoint Nearby: " + endpointId);
-            try {
-                connectionsClient.sendPayload(endpointId, payload)
-                        .addOnSuccessListener(unused -> {
-                            Log.i(TAG, "Mensaje Nearby enviado con éxito");
+    /**
+     * Envía el mismo mensaje a varios endpoints codificándolo una sola vez: los endpoints
+     * Nearby conectados reciben un único sendPayload con toda la lista y las conexiones
+     * Bluetooth comparten la misma trama ya codificada. Los endpoints que no están
+     * conectados fallan sin enviar nada; si el sendPayload falla, falla para todos los
+     * endpoints Nearby de la lista.
+     * @param endpointIds Endpoints de destino
+     * @param message Mensaje a enviar
+     * @param listener Recibe el resultado de cada endpoint cuando han terminado todos
+     */
+    public void broadcastMessage(List<String> endpointIds, String message, OnBroadcastResultListener listener) {
+        BleLogger.debug("[broadcastMessage] endpointIds={}, length={}", endpointIds, message.length());
+        BroadcastResults results = new BroadcastResults(endpointIds, listener);
+        if (connectionsClient == null) {
+            results.failAll(endpointIds, "No inicializado. Llama a initialize primero.");
+            return;
+        }
+
+        byte[] bytes = message.getBytes();
+        List<String> nearbyIds = new ArrayList<>();
+        List<ConnectedThread> bluetoothThreads = new ArrayList<>();
+        List<String> bluetoothIds = new ArrayList<>();
+        for (String endpointId : results.getEndpointIds()) {
+            ConnectedThread connectedThread = endpoints.getConnectedThread(endpointId);
+            if (connectedThread != null) {
+                bluetoothThreads.add(connectedThread);
+                bluetoothIds.add(endpointId);
+            } else {
+                nearbyIds.add(endpointId);
+            }
+        }
+
+        // Small messages share one encoded frame; large ones share the source array
+        byte[] frame = bytes.length > TRANSFER_CHUNK_SIZE ? null : FrameCodec.encode(FrameCodec.TYPE_DATA, 0, bytes);
+        for (int i = 0; i < bluetoothThreads.size(); i++) {
+            String endpointId = bluetoothIds.get(i);
+            bluetoothThreads.get(i).write(bytes, frame, new OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    results.succeed(endpointId);
+                }
+
+                @Override
+                public void onFailure(String error) {
+                    results.fail(endpointId, error);
+                }
+            });
+        }
+
+        // A multi-endpoint sendPayload fails as a whole when any id is not connected, so
+        // unknown ids are failed here and left out of the call
+        List<String> connectedNearbyIds = new ArrayList<>(nearbyIds.size());
+        for (String endpointId : nearbyIds) {
+            if (nearbyConnected.contains(endpointId)) {
+                connectedNearbyIds.add(endpointId);
+            } else {
+                results.fail(endpointId, "Endpoint no conectado: " + endpointId);
+            }
+        }
+
+        if (!connectedNearbyIds.isEmpty()) {
+            BleLogger.info("Enviando mensaje a {} endpoints Nearby", connectedNearbyIds.size());
+            sendNearbyBytes(connectedNearbyIds, bytes, new OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    results.succeedAll(connectedNearbyIds);
+                }
+
+                @Override
+                public void onFailure(String error) {
+                    results.failAll(connectedNearbyIds, error);
+                }
+            });
+        }
+    }
+
+    /**
+     * Configura cómo se envían por Nearby los mensajes que no caben en un payload BYTES
+     * @param maxBytesPayloadSize Tamaño máximo de un payload BYTES (los mensajes mayores se fragmentan)
+     * @param streamThreshold Tamaño a partir del cual se envía un único payload STREAM en lugar de fragmentos
+     */
+    public void setFragmentationOptions(int maxBytesPayloadSize, long streamThreshold) {
+        BleLogger.debug("[setFragmentationOptions] maxBytesPayloadSize={}, streamThreshold={}", maxBytesPayloadSize, streamThreshold);
+        int minimum = FrameCodec.HEADER_SIZE + FrameCodec.CHUNK_HEADER_SIZE + 1;
+        this.maxBytesPayloadSize = Math.max(minimum, Math.min(maxBytesPayloadSize, ConnectionsClient.MAX_BYTES_DATA_SIZE));
+        this.streamThreshold = Math.max(this.maxBytesPayloadSize, streamThreshold);
+    }
+
+    // Chooses BYTES, sequenced fragments or a STREAM payload depending on the message size
+    private void sendNearbyBytes(List<String> endpointIds, byte[] bytes, OnResultListener listener) {
+        try {
+            if (bytes.length <= maxBytesPayloadSize) {
+                sendNearbyPayloads(endpointIds, new Payload[] { Payload.fromBytes(bytes) }, listener);
+            } else if (bytes.length <= streamThreshold) {
+                sendNearbyPayloads(endpointIds, encodeNearbyFragments(bytes), listener);
+            } else {
+                // The preamble tells the receiver to deliver the stream as a message, not as a file
+                InputStream stream = new SequenceInputStream(
+                    new ByteArrayInputStream(FrameCodec.encode(FrameCodec.TYPE_STREAM_MESSAGE, 0, new byte[0])),
+                    new ByteArrayInputStream(bytes)
+                );
+                sendNearbyPayloads(endpointIds, new Payload[] { Payload.fromStream(stream) }, listener);
+            }
+        } catch (SecurityException e) {
+            BleLogger.error("Error de permisos al enviar mensaje Nearby", e);
+            listener.onFailure("Error de permisos: " + e.getMessage());
+        } catch (Exception e) {
+            BleLogger.error("Error al enviar mensaje Nearby", e);
+            listener.onFailure("Error: " + e.getMessage());
+        }
+    }
+
+    // Splits a message into TYPE_CHUNK frames that each fit in a BYTES payload
+    private Payload[] encodeNearbyFragments(byte[] bytes) {
+        long transferId = payloadIdGenerator.incrementAndGet();
+        int fragmentSize = maxBytesPayloadSize - FrameCodec.HEADER_SIZE - FrameCodec.CHUNK_HEADER_SIZE;
+        int count = (bytes.length + fragmentSize - 1) / fragmentSize;
+        Payload[] payloads = new Payload[count];
+        for (int i = 0; i < count; i++) {
+            int offset = i * fragmentSize;
+            int length = Math.min(fragmentSize, bytes.length - offset);
+            byte[] frame = new byte[FrameCodec.HEADER_SIZE + FrameCodec.CHUNK_HEADER_SIZE + length];
+            FrameCodec.writeChunkFrame(frame, transferId, bytes.length, offset, bytes, offset, length);
+            payloads[i] = Payload.fromBytes(frame);
+        }
+        BleLogger.debug("Mensaje Nearby de {} bytes dividido en {} fragmentos", bytes.length, count);
+        return payloads;
+    }
+
+    // Sends the payloads in order; the listener is notified once, when all succeed or the first fails
+    private void sendNearbyPayloads(List<String> endpointIds, Payload[] payloads, OnResultListener listener) {
+        AtomicInteger pending = new AtomicInteger(payloads.length);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (Payload payload : payloads) {
+            connectionsClient.sendPayload(endpointIds, payload)
+                    .addOnSuccessListener(unused -> {
+                        if (pending.decrementAndGet() == 0 && !failed.get()) {
+                            BleLogger.info("Mensaje Nearby enviado con éxito");
                             listener.onSuccess();
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al enviar mensaje Nearby", e);
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        if (failed.compareAndSet(false, true)) {
+                            BleLogger.error("Error al enviar mensaje Nearby", e);
                             listener.onFailure("Error al enviar mensaje: " + e.getMessage());
-                        });
-            } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al enviar mensaje Nearby", e);
-                listener.onFailure("Error de permisos: " + e.getMessage());
-            } catch (Exception e) {
-                Log.e(TAG, "Error al enviar mensaje Nearby", e);
-                listener.onFailure("Error: " + e.getMessage());
+                        }
+                    });
+        }
+    }
+
+    // Reassembles fragments sent by encodeNearbyFragments; returns false if the payload is not a fragment
+    private boolean onNearbyFragment(String endpointId, byte[] bytes) {
+        if (!FrameCodec.isFrame(bytes, FrameCodec.TYPE_CHUNK)
+                || bytes.length < FrameCodec.HEADER_SIZE + FrameCodec.CHUNK_HEADER_SIZE) {
+            return false;
+        }
+
+        int offset = FrameCodec.HEADER_SIZE;
+        long transferId = FrameCodec.readLong(bytes, offset);
+        long totalLength = FrameCodec.readLong(bytes, offset + 8);
+        long position = FrameCodec.readLong(bytes, offset + 16);
+        int dataOffset = offset + FrameCodec.CHUNK_HEADER_SIZE;
+        int dataLength = bytes.length - dataOffset;
+
+        expireNearbyFragments(SystemClock.elapsedRealtime());
+        Map<Long, InboundTransfer> transfers = nearbyFragments.get(endpointId);
+        if (transfers == null) {
+            transfers = new HashMap<>();
+            nearbyFragments.put(endpointId, transfers);
+        }
+
+        InboundTransfer transfer = transfers.get(transferId);
+        if (transfer == null) {
+            if (totalLength < 0 || totalLength > MAX_INBOUND_TRANSFER_SIZE) {
+                BleLogger.warn("Mensaje Nearby fragmentado demasiado grande, se descarta: {} bytes", totalLength);
+                return true;
+            }
+            if (!InboundTransfer.canOpen(transfers, totalLength)) {
+                BleLogger.warn("Demasiados mensajes Nearby fragmentados abiertos, se descarta el mensaje {}", transferId);
+                return true;
+            }
+            transfer = new InboundTransfer(transferId, (int) totalLength, TRANSFER_CHUNK_SIZE);
+            transfers.put(transferId, transfer);
+        }
+
+        if (!transfer.place(position, bytes, dataOffset, dataLength)) {
+            BleLogger.warn("Fragmento Nearby inválido o repetido para el mensaje {}, se descarta", transferId);
+            transfers.remove(transferId);
+            if (transfers.isEmpty()) {
+                nearbyFragments.remove(endpointId);
+            }
+            return true;
+        }
+        if (transfer.isComplete()) {
+            transfers.remove(transferId);
+            if (transfers.isEmpty()) {
+                nearbyFragments.remove(endpointId);
             }
+            deliverNearbyMessage(endpointId, transfer.data, transfer.data.length);
+        }
+        return true;
+    }
+
+    private void deliverNearbyMessage(String endpointId, byte[] data, int length) {
+        if (messageListener != null) {
+            messageListener.onMessageReceived(endpointId, data, 0, length);
+        } else if (payloadCallback != null) {
+            byte[] copy = length == data.length ? data : Arrays.copyOf(data, length);
+            payloadCallback.onPayloadReceived(endpointId, Payload.fromBytes(copy));
         }
     }
 
     public void disconnectFromEndpoint(String endpointId) {
-        Log.d(TAG, "[disconnectFromEndpoint] endpointId=" + endpointId);
+        BleLogger.debug("[disconnectFromEndpoint] endpointId={}", endpointId);
         // Check if this is a Bluetooth connection (iOS device)
-        ConnectedThread connectedThread = connectedThreads.remove(endpointId);
-        if (connectedThread != null) {
-            // Disconnect Bluetooth
-            connectedThread.cancel();
+        EndpointRegistry.Connection<ConnectedThread> connection = endpoints.removeConnection(endpointId);
+        if (connection != null) {
+            // Disconnect Bluetooth; the disconnection is reported once the messages already
+            // read from the socket have been delivered, as when the peer drops the link
+            connection.connectedThread.cancel(() -> {
+                if (connectionLifecycleCallback != null) {
+                    connectionLifecycleCallback.onDisconnected(endpointId);
+                }
+            });
 
             // Close the socket
-            BluetoothSocket socket = connectedSockets.remove(endpointId);
+            BluetoothSocket socket = connection.socket;
             if (socket != null) {
                 try {
                     socket.close();
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
                 }
             }
 
             // Resume advertising after disconnection
             if (!isAdvertising && !isConnected) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                            == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                        startBluetoothAdvertising();
+                    if (permissions.hasAdvertise()) {
+                        bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                         isAdvertising = true;
                     } else {
-                        Log.w(TAG, "No se tienen permisos para reiniciar Bluetooth advertising");
+                        BleLogger.warn("No se tienen permisos para reiniciar Bluetooth advertising");
                     }
                 } else {
-                    startBluetoothAdvertising();
+                    bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
                     isAdvertising = true;
                 }
             }
 
-            Log.i(TAG, "Desconectado del endpoint Bluetooth: " + endpointId);
-
-            // Notify disconnection
-            mainHandler.post(() -> {
-                if (connectionLifecycleCallback != null) {
-                    connectionLifecycleCallback.onDisconnected(endpointId);
-                }
-            });
+            BleLogger.info("Desconectado del endpoint Bluetooth: {}", endpointId);
         } else if (connectionsClient != null) {
             // Disconnect Nearby
             connectionsClient.disconnectFromEndpoint(endpointId);
+            nearbyConnected.remove(endpointId);
+            // Partial messages are only touched on the main thread, where Nearby delivers payloads
+            mainHandler.post(() -> nearbyFragments.remove(endpointId));
 
             // Resume advertising after disconnection
             if (!isAdvertising && !isConnected) {
                 startAdvertising("AndroidDevice", new OnResultListener() {
                     @Override
                     public void onSuccess() {
-                        Log.i(TAG, "Advertising reiniciado después de desconexión");
+                        BleLogger.info("Advertising reiniciado después de desconexión");
                     }
 
                     @Override
                     public void onFailure(String error) {
-                        Log.e(TAG, "Error al reiniciar advertising: " + error);
+                        BleLogger.error("Error al reiniciar advertising: {}", error);
                     }
                 });
             }
 
-            Log.i(TAG, "Desconectado del endpoint Nearby: " + endpointId);
+            BleLogger.info("Desconectado del endpoint Nearby: {}", endpointId);
         }
     }
 
     public void disconnectFromAllEndpoints() {
-        Log.d(TAG, "[disconnectFromAllEndpoints]");
-        // Disconnect all Bluetooth connections
-        for (ConnectedThread thread : connectedThreads.values()) {
-            if (thread != null) {
-                thread.cancel();
+        BleLogger.debug("[disconnectFromAllEndpoints]");
+        closeAllConnections();
+
+        // Resume advertising after disconnection
+        if (!isAdvertising && !isConnected) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                if (permissions.hasAdvertise()) {
+                    bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
+                    isAdvertising = true;
+                } else {
+                    BleLogger.warn("No se tienen permisos para reiniciar Bluetooth advertising");
+                }
+            } else {
+                bleOperationGuard.requestStart(BleOperationGuard.Operation.ADVERTISE);
+                isAdvertising = true;
             }
         }
-        connectedThreads.clear();
 
-        // Close all sockets
-        for (BluetoothSocket socket : connectedSockets.values()) {
-            if (socket != null) {
+        BleLogger.info("Desconectado de todos los endpoints");
+    }
+
+    /**
+     * Cierra todas las conexiones Bluetooth y Nearby sin reanudar el advertising
+     * @return Hilos lectores de las conexiones Bluetooth cerradas
+     */
+    private List<ConnectedThread> closeAllConnections() {
+        List<ConnectedThread> readers = new ArrayList<>();
+        // Disconnect all Bluetooth connections and close their sockets
+        for (EndpointRegistry.Connection<ConnectedThread> connection : endpoints.removeAllConnections()) {
+            if (connection.connectedThread != null) {
+                connection.connectedThread.cancel();
+                readers.add(connection.connectedThread);
+            }
+            if (connection.socket != null) {
                 try {
-                    socket.close();
+                    connection.socket.close();
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
                 }
             }
         }
-        connectedSockets.clear();
 
         // Disconnect all Nearby connections
         if (connectionsClient != null) {
             connectionsClient.stopAllEndpoints();
         }
+        nearbyConnected.clear();
+        return readers;
+    }
 
-        // Resume advertising after disconnection
-        if (!isAdvertising && !isConnected) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (context.checkSelfPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
-                        == android.content.pm.PackageManager.PERMISSION_GRANTED) {
-                    startBluetoothAdvertising();
-                    isAdvertising = true;
-                } else {
-                    Log.w(TAG, "No se tienen permisos para reiniciar Bluetooth advertising");
-                }
-            } else {
-                startBluetoothAdvertising();
-                isAdvertising = true;
+    /**
+     * Espera a que terminen los hilos lectores, como mucho {@link #READER_JOIN_TIMEOUT_MS}
+     * entre todos
+     */
+    private static void joinReaders(List<ConnectedThread> readers) {
+        long deadline = SystemClock.elapsedRealtime() + READER_JOIN_TIMEOUT_MS;
+        for (ConnectedThread reader : readers) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                BleLogger.warn("[cleanup] hilos lectores sin terminar tras {} ms", READER_JOIN_TIMEOUT_MS);
+                return;
+            }
+            try {
+                reader.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
-
-        Log.i(TAG, "Desconectado de todos los endpoints");
     }
 
+    /**
+     * Libera todos los recursos. La instancia no puede volver a usarse: el hilo de callbacks
+     * se detiene y no vuelve a arrancar.
+     */
     public void cleanup() {
-        Log.d(TAG, "[cleanup]");
+        BleLogger.debug("[cleanup]");
         if (connectionsClient != null) {
             stopAdvertising();
             stopDiscovery();
-            disconnectFromAllEndpoints();
+            // The readers hand their last messages to the callback thread before exiting
+            joinReaders(closeAllConnections());
+            streamReceiver.cancelAll();
+            mainHandler.post(() -> {
+                incomingFilePayloads.clear();
+                nearbyFragments.clear();
+            });
 
             // Unregister the broadcast receiver
             try {
                 context.unregisterReceiver(bluetoothReceiver);
             } catch (Exception e) {
-                Log.e(TAG, "Error al desregistrar el receptor Bluetooth", e);
+                BleLogger.error("Error al desregistrar el receptor Bluetooth", e);
+            }
+
+            BleLogger.info("Recursos liberados");
+        }
+        scanQueue.shutdown();
+        // Delivers what the readers queued before exiting, then stops the callback thread
+        callbackDispatcher.quit();
+    }
+
+    /**
+     * Envía un fichero sin cargarlo en memoria ni pasarlo por el puente JS.
+     * Por Nearby se usa un payload FILE; por Bluetooth se lee del disco fragmento a
+     * fragmento con notificaciones de progreso.
+     * @param endpointId Endpoint de destino
+     * @param path Ruta del fichero (ruta absoluta o URI file://)
+     * @param listener Se notifica con el id del payload cuando el envío termina (Bluetooth)
+     *                 o queda en curso (Nearby)
+     */
+    public void sendFile(String endpointId, String path, OnPayloadSentListener listener) {
+        BleLogger.debug("[sendFile] endpointId={}, path={}", endpointId, path);
+        if (connectionsClient == null) {
+            listener.onFailure("No inicializado. Llama a initialize primero.");
+            return;
+        }
+
+        File file = resolveFile(path);
+        if (!file.isFile() || !file.canRead()) {
+            listener.onFailure("Fichero no encontrado o sin permisos de lectura: " + path);
+            return;
+        }
+
+        ConnectedThread connectedThread = endpoints.getConnectedThread(endpointId);
+        if (connectedThread != null) {
+            connectedThread.writeFile(file, listener);
+            return;
+        }
+
+        Payload payload;
+        try {
+            payload = Payload.fromFile(file);
+        } catch (FileNotFoundException e) {
+            BleLogger.error(() -> "Fichero no encontrado: " + path, e);
+            listener.onFailure("Fichero no encontrado: " + path);
+            return;
+        }
+        payload.setFileName(file.getName());
+        long payloadId = payload.getId();
+
+        BleLogger.info("Enviando fichero a endpoint Nearby: {} ({} bytes)", endpointId, file.length());
+        try {
+            connectionsClient.sendPayload(endpointId, payload)
+                    .addOnSuccessListener(unused -> {
+                        BleLogger.info("Fichero Nearby en envío: {}", payloadId);
+                        listener.onSuccess(payloadId);
+                    })
+                    .addOnFailureListener(e -> {
+                        BleLogger.error("Error al enviar fichero Nearby", e);
+                        listener.onFailure("Error al enviar fichero: " + e.getMessage());
+                    });
+        } catch (SecurityException e) {
+            BleLogger.error("Error de permisos al enviar fichero Nearby", e);
+            listener.onFailure("Error de permisos: " + e.getMessage());
+        } catch (Exception e) {
+            BleLogger.error("Error al enviar fichero Nearby", e);
+            listener.onFailure("Error: " + e.getMessage());
+        }
+    }
+
+    private static File resolveFile(String path) {
+        if (path.startsWith("file://")) {
+            String decoded = Uri.parse(path).getPath();
+            if (decoded != null) {
+                return new File(decoded);
             }
+            return new File(path.substring("file://".length()));
+        }
+        return new File(path);
+    }
+
+    // Directorio donde se guardan los ficheros recibidos
+    private File getReceivedFilesDir() throws IOException {
+        File dir = new File(context.getCacheDir(), RECEIVED_FILES_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se puede crear el directorio " + dir);
+        }
+        return dir;
+    }
 
-            Log.i(TAG, "Recursos liberados");
+    // Nombre seguro para un fichero recibido: sin rutas y único por transferencia
+    private File createReceivedFile(long payloadId, String fileName) throws IOException {
+        String name = fileName != null ? new File(fileName).getName() : "";
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = "file";
         }
+        return new File(getReceivedFilesDir(), payloadId + "_" + name);
+    }
+
+    // Lleva la cuenta de los endpoints Nearby conectados y delega en el callback del plugin
+    private final ConnectionLifecycleCallback nearbyLifecycleCallback = new ConnectionLifecycleCallback() {
+        @Override
+        public void onConnectionInitiated(String endpointId, ConnectionInfo info) {
+            if (connectionLifecycleCallback != null) {
+                connectionLifecycleCallback.onConnectionInitiated(endpointId, info);
+            }
+        }
+
+        @Override
+        public void onConnectionResult(String endpointId, ConnectionResolution result) {
+            if (result.getStatus().isSuccess()) {
+                nearbyConnected.add(endpointId);
+            }
+            if (connectionLifecycleCallback != null) {
+                connectionLifecycleCallback.onConnectionResult(endpointId, result);
+            }
+        }
+
+        @Override
+        public void onDisconnected(String endpointId) {
+            nearbyConnected.remove(endpointId);
+            if (connectionLifecycleCallback != null) {
+                connectionLifecycleCallback.onDisconnected(endpointId);
+            }
+        }
+    };
+
+    // Intercepta los payloads FILE y STREAM de Nearby; sólo los BYTES se pasan tal cual al PayloadCallback
+    private final PayloadCallback nearbyPayloadCallback = new PayloadCallback() {
+        @Override
+        public void onPayloadReceived(String endpointId, Payload payload) {
+            if (payload.getType() == Payload.Type.FILE) {
+                // The file is still being written; it is handed over once the transfer succeeds
+                incomingFilePayloads.put(payload.getId(), payload);
+                return;
+            }
+            if (payload.getType() == Payload.Type.STREAM) {
+                streamReceiver.onPayloadReceived(endpointId, payload);
+                return;
+            }
+            byte[] bytes = payload.asBytes();
+            if (bytes != null && onNearbyFragment(endpointId, bytes)) {
+                return;
+            }
+            if (payloadCallback != null) {
+                payloadCallback.onPayloadReceived(endpointId, payload);
+            }
+        }
+
+        @Override
+        public void onPayloadTransferUpdate(String endpointId, PayloadTransferUpdate update) {
+            if (update.getStatus() != PayloadTransferUpdate.Status.IN_PROGRESS) {
+                Payload filePayload = incomingFilePayloads.remove(update.getPayloadId());
+                if (filePayload != null && update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+                    fileExecutor.execute(() -> moveNearbyFile(endpointId, filePayload));
+                }
+            }
+            streamReceiver.onPayloadTransferUpdate(update);
+            if (payloadCallback != null) {
+                payloadCallback.onPayloadTransferUpdate(endpointId, update);
+            }
+        }
+    };
+
+    // Moves a completed Nearby file into the received files directory (worker thread)
+    private void moveNearbyFile(String endpointId, Payload payload) {
+        Payload.File payloadFile = payload.asFile();
+        if (payloadFile == null) {
+            return;
+        }
+
+        File target;
+        try {
+            target = createReceivedFile(payload.getId(), payload.getFileName());
+            Uri uri = payloadFile.asUri();
+            if (uri != null) {
+                try (InputStream in = context.getContentResolver().openInputStream(uri);
+                     OutputStream out = new FileOutputStream(target)) {
+                    if (in == null) {
+                        throw new IOException("No se puede abrir " + uri);
+                    }
+                    byte[] buffer = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                context.getContentResolver().delete(uri, null, null);
+            } else {
+                File source = payloadFile.asJavaFile();
+                if (source == null || !source.renameTo(target)) {
+                    throw new IOException("No se puede mover el fichero recibido " + source);
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            BleLogger.error(() -> "Error al guardar el fichero Nearby recibido " + payload.getId(), e);
+            return;
+        }
+
+        BleLogger.debug("Fichero Nearby recibido: {}", target);
+        long size = target.length();
+        callbackDispatcher.post(() -> {
+            if (fileListener != null) {
+                fileListener.onFileReceived(endpointId, payload.getId(), target, payload.getFileName(), size);
+            }
+        });
     }
 
     // Interfaz para manejar resultados asíncronos
@@ -1299,23 +2141,292 @@ public class NearbyMultipeer {
         void onFailure(String error);
     }
 
+    // Resultado de un envío a varios endpoints: endpointId -> error, o null si se envió correctamente
+    public interface OnBroadcastResultListener {
+        void onComplete(Map<String, String> results);
+    }
+
+    // Recoge los resultados de un broadcast y notifica una sola vez, cuando han llegado todos
+    private static final class BroadcastResults {
+        private final Map<String, String> results = new LinkedHashMap<>();
+        private final OnBroadcastResultListener listener;
+        private int pending;
+
+        BroadcastResults(List<String> endpointIds, OnBroadcastResultListener listener) {
+            // Duplicated ids are sent once
+            for (String endpointId : endpointIds) {
+                results.put(endpointId, null);
+            }
+            this.pending = results.size();
+            this.listener = listener;
+            if (pending == 0) {
+                listener.onComplete(results);
+            }
+        }
+
+        synchronized List<String> getEndpointIds() {
+            return new ArrayList<>(results.keySet());
+        }
+
+        void succeed(String endpointId) {
+            complete(endpointId, null);
+        }
+
+        void fail(String endpointId, String error) {
+            complete(endpointId, error != null ? error : "Error desconocido");
+        }
+
+        void succeedAll(List<String> endpointIds) {
+            for (String endpointId : endpointIds) {
+                succeed(endpointId);
+            }
+        }
+
+        void failAll(List<String> endpointIds, String error) {
+            for (String endpointId : endpointIds) {
+                fail(endpointId, error);
+            }
+        }
+
+        private void complete(String endpointId, String error) {
+            synchronized (this) {
+                results.put(endpointId, error);
+                if (--pending != 0) {
+                    return;
+                }
+            }
+            listener.onComplete(results);
+        }
+    }
+
+    // Resultado de un envío identificado por su payloadId
+    public interface OnPayloadSentListener {
+        void onSuccess(long payloadId);
+        void onFailure(String error);
+    }
+
+    // Notifica el progreso de un payload enviado o recibido por Bluetooth
+    private void notifyTransferUpdate(String endpointId, long payloadId, long bytesTransferred, long totalBytes, int status) {
+        callbackDispatcher.post(() -> {
+            if (payloadCallback != null) {
+                payloadCallback.onPayloadTransferUpdate(
+                    endpointId,
+                    new PayloadTransferUpdate.Builder()
+                        .setPayloadId(payloadId)
+                        .setTotalBytes(totalBytes)
+                        .setBytesTransferred(bytesTransferred)
+                        .setStatus(status)
+                        .build()
+                );
+            }
+        });
+    }
+
+    // Drops partially received Nearby messages whose sender went quiet
+    private void expireNearbyFragments(long now) {
+        Iterator<Map.Entry<String, Map<Long, InboundTransfer>>> endpoints = nearbyFragments.entrySet().iterator();
+        while (endpoints.hasNext()) {
+            Map.Entry<String, Map<Long, InboundTransfer>> entry = endpoints.next();
+            Iterator<InboundTransfer> transfers = entry.getValue().values().iterator();
+            while (transfers.hasNext()) {
+                InboundTransfer transfer = transfers.next();
+                if (now - transfer.lastActivity >= NEARBY_FRAGMENT_TIMEOUT_MS) {
+                    BleLogger.warn("Mensaje Nearby fragmentado {} de {} incompleto tras {} ms, se descarta",
+                            transfer.payloadId, entry.getKey(), NEARBY_FRAGMENT_TIMEOUT_MS);
+                    transfers.remove();
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                endpoints.remove();
+            }
+        }
+    }
+
+    // Transferencia fragmentada en curso de recepción, en memoria o directamente a un fichero
+    private static class InboundTransfer {
+        final long payloadId;
+        final long totalLength;
+        byte[] data;            // null for file transfers; holds totalLength bytes once complete
+        final File file;        // null for in-memory transfers
+        final String fileName;
+        private OutputStream fileOut;
+        long received = 0;
+        long lastActivity = SystemClock.elapsedRealtime();
+        // Rangos ya recibidos por place(), inicio -> fin (exclusivo), fusionados cuando son contiguos
+        private TreeMap<Long, Long> filled;
+
+        /**
+         * Transferencia en memoria
+         * @param initialCapacity Bytes reservados al empezar; el buffer crece hasta totalLength al llegar los fragmentos
+         */
+        InboundTransfer(long payloadId, int totalLength, int initialCapacity) {
+            this.payloadId = payloadId;
+            this.totalLength = totalLength;
+            this.data = new byte[Math.min(totalLength, initialCapacity)];
+            this.file = null;
+            this.fileName = null;
+        }
+
+        InboundTransfer(long payloadId, long totalLength, File file, String fileName) throws IOException {
+            this.payloadId = payloadId;
+            this.totalLength = totalLength;
+            this.data = null;
+            this.file = file;
+            this.fileName = fileName;
+            this.fileOut = new FileOutputStream(file);
+        }
+
+        // Chunks of one transfer arrive in order on the RFCOMM stream
+        boolean append(long position, byte[] src, int offset, int length) throws IOException {
+            if (position != received || received + length > totalLength) {
+                return false;
+            }
+            if (fileOut != null) {
+                fileOut.write(src, offset, length);
+            } else {
+                ensureCapacity((int) received + length);
+                System.arraycopy(src, offset, data, (int) received, length);
+            }
+            received += length;
+            if (fileOut != null && isComplete()) {
+                fileOut.close();
+                fileOut = null;
+            }
+            return true;
+        }
+
+        // Nearby payloads may complete out of order: fragments are placed by position
+        boolean place(long position, byte[] src, int offset, int length) {
+            if (data == null || length <= 0 || position < 0 || position + length > totalLength) {
+                return false;
+            }
+            if (filled == null) {
+                filled = new TreeMap<>();
+            }
+            long end = position + length;
+            // Se rechaza cualquier fragmento que se solape con uno ya recibido
+            Map.Entry<Long, Long> before = filled.floorEntry(position);
+            if (before != null && before.getValue() > position) {
+                return false;
+            }
+            Long nextStart = filled.ceilingKey(position);
+            if (nextStart != null && nextStart < end) {
+                return false;
+            }
+
+            ensureCapacity((int) end);
+            System.arraycopy(src, offset, data, (int) position, length);
+            received += length;
+            lastActivity = SystemClock.elapsedRealtime();
+
+            long start = position;
+            if (before != null && before.getValue() == position) {
+                start = before.getKey();
+            }
+            if (nextStart != null && nextStart == end) {
+                end = filled.remove(nextStart);
+            }
+            filled.put(start, end);
+            return true;
+        }
+
+        boolean isComplete() {
+            return received == totalLength;
+        }
+
+        // Grows the buffer geometrically, never past totalLength
+        private void ensureCapacity(int needed) {
+            if (needed <= data.length) {
+                return;
+            }
+            int capacity = (int) Math.min(totalLength, Math.max(needed, (long) data.length * 2));
+            data = Arrays.copyOf(data, capacity);
+        }
+
+        /**
+         * Indica si se puede abrir otra transferencia en memoria de totalLength bytes sin superar
+         * los límites de transferencias abiertas y bytes reservados
+         * @param open Transferencias abiertas de la misma conexión
+         */
+        static boolean canOpen(Map<Long, InboundTransfer> open, long totalLength) {
+            int count = 0;
+            long reserved = totalLength;
+            for (InboundTransfer transfer : open.values()) {
+                if (transfer.file == null) {
+                    count++;
+                    reserved += transfer.totalLength;
+                }
+            }
+            return count < MAX_OPEN_INBOUND_TRANSFERS && reserved <= MAX_RESERVED_INBOUND_BYTES;
+        }
+
+        /**
+         * Indica si se puede abrir otra transferencia a fichero de totalLength bytes sin superar
+         * el tamaño máximo, el límite de ficheros abiertos ni el espacio libre que queda después
+         * de lo que aún deben recibir las transferencias a fichero abiertas
+         * @param open Transferencias abiertas de la misma conexión
+         * @param usableSpace Bytes disponibles en el directorio de ficheros recibidos
+         */
+        static boolean canOpenFile(Map<Long, InboundTransfer> open, long totalLength, long maxFileSize,
+                                   int maxOpenFiles, long usableSpace) {
+            if (totalLength > maxFileSize) {
+                return false;
+            }
+            int count = 0;
+            long needed = totalLength;
+            for (InboundTransfer transfer : open.values()) {
+                if (transfer.file != null) {
+                    count++;
+                    needed += transfer.totalLength - transfer.received;
+                }
+            }
+            return count < maxOpenFiles && needed <= usableSpace;
+        }
+
+        // Discards a transfer that can no longer complete
+        void abort() {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    BleLogger.warn("Error al cerrar fichero parcial", e);
+                }
+                fileOut = null;
+            }
+            if (file != null && !file.delete()) {
+                BleLogger.warn("No se pudo borrar el fichero parcial {}", file);
+            }
+        }
+    }
+
+    // Interfaz para recibir mensajes sin copias intermedias.
+    // Los bytes sólo son válidos durante la llamada: el buffer vuelve al pool al terminar.
+    public interface MessageListener {
+        void onMessageReceived(String endpointId, byte[] data, int offset, int length);
+    }
+
+    // Interfaz para recibir ficheros ya escritos en disco
+    public interface FileListener {
+        void onFileReceived(String endpointId, long payloadId, File file, String fileName, long size);
+    }
+
     // Thread para aceptar conexiones Bluetooth entrantes
     private class AcceptThread extends Thread {
         public AcceptThread() {
             // Check permissions before creating server socket
             if (!hasBluetoothPermissions()) {
-                Log.e(TAG, "No se tienen permisos para crear un servidor Bluetooth");
+                BleLogger.error("No se tienen permisos para crear un servidor Bluetooth");
                 return;
             }
 
             try {
                 // Create a new listening server socket
                 serverSocket = bluetoothAdapter.listenUsingRfcommWithServiceRecord("NearbyMultipeer", serviceUUID);
-                Log.d(TAG, "Servidor Bluetooth creado");
+                BleLogger.debug("Servidor Bluetooth creado");
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al crear el servidor Bluetooth", e);
+                BleLogger.error("Error de permisos al crear el servidor Bluetooth", e);
             } catch (IOException e) {
-                Log.e(TAG, "Error al crear el servidor Bluetooth", e);
+                BleLogger.error("Error al crear el servidor Bluetooth", e);
             }
         }
 
@@ -1325,10 +2436,10 @@ public class NearbyMultipeer {
             // Keep listening until exception occurs or a socket is returned
             while (true) {
                 try {
-                    Log.d(TAG, "Esperando conexiones Bluetooth entrantes...");
+                    BleLogger.debug("Esperando conexiones Bluetooth entrantes...");
                     socket = serverSocket.accept();
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al aceptar conexión Bluetooth", e);
+                    BleLogger.error("Error al aceptar conexión Bluetooth", e);
                     break;
                 }
 
@@ -1344,23 +2455,23 @@ public class NearbyMultipeer {
                             deviceAddress = device.getAddress();
                             deviceName = device.getName();
                         } else {
-                            Log.w(TAG, "No se tienen permisos para obtener información del dispositivo Bluetooth");
+                            BleLogger.warn("No se tienen permisos para obtener información del dispositivo Bluetooth");
                         }
                     } catch (SecurityException e) {
-                        Log.e(TAG, "Error de permisos al obtener información del dispositivo Bluetooth", e);
+                        BleLogger.error("Error de permisos al obtener información del dispositivo Bluetooth", e);
                     }
 
-                    Log.i(TAG, "Conexión Bluetooth entrante de: " + deviceName + " (" + deviceAddress + ")");
+                    BleLogger.info("Conexión Bluetooth entrante de: {} ({})", deviceName, deviceAddress);
 
                     // Store the socket
-                    connectedSockets.put(deviceAddress, socket);
+                    endpoints.putSocket(deviceAddress, socket);
 
                     // Create final copies for use in lambda
                     final String finalDeviceAddress = deviceAddress;
                     final String finalDeviceName = deviceName;
 
                     // Notify the connection request
-                    mainHandler.post(() -> {
+                    callbackDispatcher.post(() -> {
                         if (connectionLifecycleCallback != null) {
                             connectionLifecycleCallback.onConnectionInitiated(
                                 finalDeviceAddress,
@@ -1387,7 +2498,7 @@ public class NearbyMultipeer {
                     serverSocket.close();
                 }
             } catch (IOException e) {
-                Log.e(TAG, "Error al cerrar el servidor Bluetooth", e);
+                BleLogger.error("Error al cerrar el servidor Bluetooth", e);
             }
         }
     }
@@ -1409,12 +2520,12 @@ public class NearbyMultipeer {
                     // Get a BluetoothSocket for a connection with the given BluetoothDevice
                     tmp = device.createRfcommSocketToServiceRecord(serviceUUID);
                 } else {
-                    Log.e(TAG, "No se tienen permisos para crear socket Bluetooth");
+                    BleLogger.error("No se tienen permisos para crear socket Bluetooth");
                 }
             } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al crear socket Bluetooth", e);
+                BleLogger.error("Error de permisos al crear socket Bluetooth", e);
             } catch (IOException e) {
-                Log.e(TAG, "Error al crear socket Bluetooth", e);
+                BleLogger.error("Error al crear socket Bluetooth", e);
             }
 
             mmSocket = tmp;
@@ -1423,7 +2534,7 @@ public class NearbyMultipeer {
         public void run() {
             // Check permissions before canceling discovery
             if (!hasBluetoothScanPermissions()) {
-                Log.e(TAG, "No se tienen permisos para controlar Bluetooth discovery");
+                BleLogger.error("No se tienen permisos para controlar Bluetooth discovery");
             } else {
                 try {
                     // Cancel discovery because it otherwise slows down the connection
@@ -1431,7 +2542,7 @@ public class NearbyMultipeer {
                         bluetoothAdapter.cancelDiscovery();
                     }
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al cancelar Bluetooth discovery", e);
+                    BleLogger.error("Error de permisos al cancelar Bluetooth discovery", e);
                 }
             }
 
@@ -1443,29 +2554,30 @@ public class NearbyMultipeer {
                         deviceName = mmDevice.getName();
                     }
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al obtener nombre del dispositivo Bluetooth", e);
+                    BleLogger.error("Error de permisos al obtener nombre del dispositivo Bluetooth", e);
                 }
 
-                Log.d(TAG, "Conectando a dispositivo Bluetooth: " + deviceName);
+                BleLogger.debug("Conectando a dispositivo Bluetooth: {}", deviceName);
 
                 // Check Bluetooth permissions before connecting
                 if (!hasBluetoothPermissions()) {
-                    Log.e(TAG, "No se tienen permisos para conectar con dispositivo Bluetooth");
+                    BleLogger.error("No se tienen permisos para conectar con dispositivo Bluetooth");
                     throw new IOException("Bluetooth connection permission denied");
                 }
 
                 try {
                     mmSocket.connect();
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al conectar con dispositivo Bluetooth", e);
+                    BleLogger.error("Error de permisos al conectar con dispositivo Bluetooth", e);
                     throw new IOException("Bluetooth connection permission denied", e);
                 }
 
-                // Store the socket
-                connectedSockets.put(mmDeviceAddress, mmSocket);
+                // Register the connection before anyone is told about it
+                ConnectedThread connectedThread = new ConnectedThread(mmSocket, mmDeviceAddress);
+                endpoints.putConnected(mmDeviceAddress, mmSocket, connectedThread);
 
                 // Notify the connection result
-                mainHandler.post(() -> {
+                callbackDispatcher.post(() -> {
                     if (connectionLifecycleCallback != null) {
                         connectionLifecycleCallback.onConnectionResult(
                             mmDeviceAddress,
@@ -1477,18 +2589,16 @@ public class NearbyMultipeer {
                 });
 
                 // Start the connected thread to manage the connection
-                ConnectedThread connectedThread = new ConnectedThread(mmSocket, mmDeviceAddress);
-                connectedThreads.put(mmDeviceAddress, connectedThread);
                 connectedThread.start();
 
                 // Set connected flag
                 isConnected = true;
 
             } catch (IOException connectException) {
-                Log.e(TAG, "Error al conectar con dispositivo Bluetooth", connectException);
+                BleLogger.error("Error al conectar con dispositivo Bluetooth", connectException);
 
                 // Notify the connection result
-                mainHandler.post(() -> {
+                callbackDispatcher.post(() -> {
                     if (connectionLifecycleCallback != null) {
                         connectionLifecycleCallback.onConnectionResult(
                             mmDeviceAddress,
@@ -1504,12 +2614,12 @@ public class NearbyMultipeer {
                     try {
                         mmSocket.close();
                     } catch (SecurityException e) {
-                        Log.e(TAG, "Error de permisos al cerrar socket Bluetooth", e);
+                        BleLogger.error("Error de permisos al cerrar socket Bluetooth", e);
                     } catch (IOException closeException) {
-                        Log.e(TAG, "Error al cerrar socket Bluetooth", closeException);
+                        BleLogger.error("Error al cerrar socket Bluetooth", closeException);
                     }
                 } else {
-                    Log.w(TAG, "No se tienen permisos para cerrar socket Bluetooth");
+                    BleLogger.warn("No se tienen permisos para cerrar socket Bluetooth");
                 }
             }
         }
@@ -1519,12 +2629,12 @@ public class NearbyMultipeer {
                 try {
                     mmSocket.close();
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error de permisos al cerrar socket Bluetooth", e);
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
                 }
             } else {
-                Log.w(TAG, "No se tienen permisos para cerrar socket Bluetooth");
+                BleLogger.warn("No se tienen permisos para cerrar socket Bluetooth");
             }
         }
     }
@@ -1535,6 +2645,14 @@ public class NearbyMultipeer {
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
         private final String mmDeviceAddress;
+        private final FrameCodec.Decoder mmDecoder = new FrameCodec.Decoder(receiveBufferPool);
+        private final BluetoothWriter mmWriter;
+        private final Map<Long, InboundTransfer> mmInboundTransfers = new HashMap<>(); // reader thread only
+        private final InboundRing mmInbound = new InboundRing(inboundQueueCapacity, inboundOverflowPolicy,
+                receiveBufferPool, callbackDispatcher, this::deliverMessage);
+        private volatile boolean mmCancelled = false;
+        // Runs on the dispatcher once the inbound queue drains after cancel(Runnable)
+        private volatile Runnable mmOnCancelled;
 
         public ConnectedThread(BluetoothSocket socket, String deviceAddress) {
             mmSocket = socket;
@@ -1547,94 +2665,408 @@ public class NearbyMultipeer {
                 tmpIn = socket.getInputStream();
                 tmpOut = socket.getOutputStream();
             } catch (IOException e) {
-                Log.e(TAG, "Error al obtener streams Bluetooth", e);
+                BleLogger.error("Error al obtener streams Bluetooth", e);
             }
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmWriter = new BluetoothWriter(
+                "BluetoothWriter-" + deviceAddress,
+                tmpOut,
+                outboundQueueCapacity,
+                outboundQueuePolicy,
+                outboundBlockTimeoutMs,
+                e -> closeSocket(),
+                traceRecorder,
+                deviceAddress
+            );
+            mmWriter.setCoalescing(getCoalescingOptions(deviceAddress));
+        }
+
+        public void setCoalescing(BluetoothWriter.CoalescingOptions options) {
+            mmWriter.setCoalescing(options);
         }
 
         public void run() {
+            mmWriter.start();
+
             byte[] mmBuffer = new byte[1024];
             int numBytes;
 
             // Keep listening to the InputStream until an exception occurs
             while (true) {
                 if (!hasBluetoothPermissions()) {
-                    Log.w(TAG, "No se tienen permisos para leer datos Bluetooth");
+                    BleLogger.warn("No se tienen permisos para leer datos Bluetooth");
                     break;
                 }
 
                 try {
                     // Read from the InputStream
                     numBytes = mmInStream.read(mmBuffer);
+                    if (numBytes < 0) {
+                        BleLogger.info("Stream Bluetooth cerrado por el extremo remoto: {}", mmDeviceAddress);
+                        break;
+                    }
+
+                    // Reassemble frames split across reads or glued together in one read
+                    mmDecoder.feed(mmBuffer, 0, numBytes, this::onFrame);
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al leer datos Bluetooth", e);
+                    BleLogger.error("Error de permisos al leer datos Bluetooth", e);
                     break;
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    if (!mmCancelled) {
+                        BleLogger.error("Error al leer datos Bluetooth", e);
+                    }
+                    break;
                 }
+            }
 
-                // Convert to string and notify
-                String message = new String(mmBuffer, 0, numBytes);
-                Log.d(TAG, "Mensaje Bluetooth recibido: " + message);
+            mmDecoder.reset();
+            mmWriter.shutdown();
 
-                // Notify the payload callback
-                mainHandler.post(() -> {
-                    if (payloadCallback != null) {
-                        payloadCallback.onPayloadReceived(
-                            mmDeviceAddress,
-                            Payload.fromBytes(message.getBytes())
-                        );
+            // Transfers that were still arriving can no longer complete
+            for (InboundTransfer transfer : mmInboundTransfers.values()) {
+                transfer.abort();
+                notifyTransferUpdate(mmDeviceAddress, transfer.payloadId, transfer.received,
+                        transfer.totalLength, PayloadTransferUpdate.Status.FAILURE);
+            }
+            mmInboundTransfers.clear();
+
+            if (!mmCancelled) {
+                onConnectionLost();
+            } else {
+                mmInbound.close(mmOnCancelled);
+            }
+        }
+
+        private void onFrame(int type, int flags, byte[] buffer, int length) {
+            traceRecorder.record(BleTraceRecorder.KIND_FRAME_IN, mmDeviceAddress, type, buffer, 0, length);
+            if (type == FrameCodec.TYPE_CHUNK) {
+                try {
+                    onChunk(buffer, length);
+                } finally {
+                    receiveBufferPool.release(buffer);
+                }
+                return;
+            }
+            if (type == FrameCodec.TYPE_TRANSFER_INFO) {
+                try {
+                    onTransferInfo(buffer, length);
+                } finally {
+                    receiveBufferPool.release(buffer);
+                }
+                return;
+            }
+            if (type != FrameCodec.TYPE_DATA) {
+                BleLogger.warn("Tipo de trama Bluetooth desconocido: {}", type);
+                receiveBufferPool.release(buffer);
+                return;
+            }
+
+            if (BleLogger.isLoggable(BleLogger.LogLevel.VERBOSE)) {
+                BleLogger.verbose("Mensaje Bluetooth recibido: {} bytes", length);
+            }
+
+            // The ring owns the pooled buffer and recycles it once delivered
+            enqueueMessage(buffer, length, true);
+        }
+
+        private void enqueueMessage(byte[] buffer, int length, boolean fromPool) {
+            if (!mmInbound.offer(buffer, length, fromPool)) {
+                BleLogger.warn("Cola de entrada llena para {}, se cierra la conexión", mmDeviceAddress);
+                closeSocket();
+            }
+        }
+
+        // Runs on the callback dispatcher, in the order messages were read
+        private void deliverMessage(byte[] buffer, int length) {
+            if (messageListener != null) {
+                messageListener.onMessageReceived(mmDeviceAddress, buffer, 0, length);
+            } else if (payloadCallback != null) {
+                payloadCallback.onPayloadReceived(
+                    mmDeviceAddress,
+                    Payload.fromBytes(Arrays.copyOf(buffer, length))
+                );
+            }
+        }
+
+        // Announces a file transfer: its chunks are written straight to disk
+        private void onTransferInfo(byte[] buffer, int length) {
+            if (length < FrameCodec.TRANSFER_INFO_HEADER_SIZE) {
+                BleLogger.warn("Trama de información Bluetooth demasiado corta: {} bytes", length);
+                return;
+            }
+
+            long payloadId = FrameCodec.readLong(buffer, 0);
+            long totalLength = FrameCodec.readLong(buffer, 8);
+            int contentType = buffer[16] & 0xFF;
+            if (contentType != FrameCodec.CONTENT_FILE || totalLength < 0) {
+                BleLogger.warn("Transferencia Bluetooth no soportada: tipo {}", contentType);
+                return;
+            }
+            String fileName = new String(buffer, FrameCodec.TRANSFER_INFO_HEADER_SIZE,
+                    length - FrameCodec.TRANSFER_INFO_HEADER_SIZE, StandardCharsets.UTF_8);
+
+            InboundTransfer previous = mmInboundTransfers.remove(payloadId);
+            if (previous != null) {
+                previous.abort();
+            }
+            try {
+                File file = createReceivedFile(payloadId, fileName);
+                File dir = file.getParentFile();
+                long usableSpace = dir != null ? dir.getUsableSpace() : 0;
+                if (!InboundTransfer.canOpenFile(mmInboundTransfers, totalLength, maxInboundFileSize,
+                        maxOpenInboundFiles, usableSpace)) {
+                    BleLogger.warn("Transferencia de fichero Bluetooth rechazada: {} ({} bytes, {} libres)",
+                            payloadId, totalLength, usableSpace);
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, 0, totalLength,
+                            PayloadTransferUpdate.Status.FAILURE);
+                    return;
+                }
+                mmInboundTransfers.put(payloadId, new InboundTransfer(payloadId, totalLength, file, fileName));
+            } catch (IOException | SecurityException e) {
+                BleLogger.error(() -> "No se puede crear el fichero para la transferencia " + payloadId, e);
+                notifyTransferUpdate(mmDeviceAddress, payloadId, 0, totalLength,
+                        PayloadTransferUpdate.Status.FAILURE);
+            }
+        }
+
+        private void onChunk(byte[] buffer, int length) {
+            if (length < FrameCodec.CHUNK_HEADER_SIZE) {
+                BleLogger.warn("Fragmento Bluetooth demasiado corto: {} bytes", length);
+                return;
+            }
+
+            long payloadId = FrameCodec.readLong(buffer, 0);
+            long totalLength = FrameCodec.readLong(buffer, 8);
+            long position = FrameCodec.readLong(buffer, 16);
+            int dataLength = length - FrameCodec.CHUNK_HEADER_SIZE;
+
+            InboundTransfer transfer = mmInboundTransfers.get(payloadId);
+            if (transfer == null) {
+                if (totalLength < 0 || totalLength > MAX_INBOUND_TRANSFER_SIZE) {
+                    BleLogger.warn("Transferencia Bluetooth demasiado grande, se descarta: {} bytes", totalLength);
+                    return;
+                }
+                if (!InboundTransfer.canOpen(mmInboundTransfers, totalLength)) {
+                    BleLogger.warn("Demasiadas transferencias Bluetooth abiertas, se rechaza la transferencia {}", payloadId);
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, 0, totalLength,
+                            PayloadTransferUpdate.Status.FAILURE);
+                    return;
+                }
+                transfer = new InboundTransfer(payloadId, (int) totalLength, TRANSFER_CHUNK_SIZE);
+                mmInboundTransfers.put(payloadId, transfer);
+            }
+
+            boolean appended;
+            try {
+                appended = transfer.append(position, buffer, FrameCodec.CHUNK_HEADER_SIZE, dataLength);
+            } catch (IOException e) {
+                BleLogger.error(() -> "Error al escribir el fichero de la transferencia " + payloadId, e);
+                appended = false;
+            }
+            if (!appended) {
+                BleLogger.warn("Fragmento Bluetooth inesperado para la transferencia {}, se descarta", payloadId);
+                mmInboundTransfers.remove(payloadId);
+                transfer.abort();
+                notifyTransferUpdate(mmDeviceAddress, payloadId, transfer.received, totalLength,
+                        PayloadTransferUpdate.Status.FAILURE);
+                return;
+            }
+
+            if (!transfer.isComplete()) {
+                notifyTransferUpdate(mmDeviceAddress, payloadId, transfer.received, totalLength,
+                        PayloadTransferUpdate.Status.IN_PROGRESS);
+                return;
+            }
+
+            mmInboundTransfers.remove(payloadId);
+            BleLogger.debug("Transferencia Bluetooth recibida: {} ({} bytes)", payloadId, totalLength);
+            notifyTransferUpdate(mmDeviceAddress, payloadId, totalLength, totalLength,
+                    PayloadTransferUpdate.Status.SUCCESS);
+
+            if (transfer.file != null) {
+                InboundTransfer completed = transfer;
+                callbackDispatcher.post(() -> {
+                    if (fileListener != null) {
+                        fileListener.onFileReceived(mmDeviceAddress, completed.payloadId, completed.file,
+                                completed.fileName, completed.totalLength);
                     }
                 });
+                return;
             }
+
+            enqueueMessage(transfer.data, transfer.data.length, false);
         }
 
-        public void write(byte[] bytes) {
+        // The remote side closed the link or the stream became unreadable
+        private void onConnectionLost() {
+            EndpointRegistry.Connection<ConnectedThread> connection = endpoints.removeConnection(mmDeviceAddress, this);
+            BluetoothSocket socket = connection != null ? connection.socket : null;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
+                }
+            }
+
+            // Report the disconnection only after the messages already read have been delivered
+            mmInbound.close(() -> {
+                if (connectionLifecycleCallback != null) {
+                    connectionLifecycleCallback.onDisconnected(mmDeviceAddress);
+                }
+            });
+        }
+
+        /**
+         * Encola un mensaje para que lo escriba el hilo escritor de la conexión.
+         * Los mensajes mayores que un fragmento se envían como transferencia fragmentada,
+         * con notificaciones de progreso por cada fragmento escrito.
+         * @param bytes Datos del mensaje
+         * @param listener Se notifica cuando el mensaje completo se ha escrito en el socket
+         */
+        public void write(byte[] bytes, OnResultListener listener) {
+            write(bytes, null, listener);
+        }
+
+        /**
+         * Igual que {@link #write(byte[], OnResultListener)}, pero reutilizando una trama
+         * TYPE_DATA ya codificada (por ejemplo, compartida entre varias conexiones)
+         * @param bytes Datos del mensaje; no deben modificarse hasta que termine el envío
+         * @param frame Trama de bytes ya codificada, o null para codificarla aquí
+         * @param listener Se notifica cuando el mensaje completo se ha escrito en el socket
+         */
+        public void write(byte[] bytes, byte[] frame, OnResultListener listener) {
             if (!hasBluetoothPermissions()) {
-                Log.w(TAG, "No se tienen permisos para escribir datos Bluetooth");
+                BleLogger.warn("No se tienen permisos para escribir datos Bluetooth");
+                listener.onFailure("No se tienen permisos para escribir datos Bluetooth");
                 return;
             }
 
-            try {
-                mmOutStream.write(bytes);
+            long payloadId = payloadIdGenerator.incrementAndGet();
+            OnResultListener resultListener = new OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, bytes.length, bytes.length,
+                            PayloadTransferUpdate.Status.SUCCESS);
+                    BleLogger.debug("Mensaje Bluetooth enviado: {} bytes", bytes.length);
+                    listener.onSuccess();
+                }
 
-                // Notify the payload transfer update
-                mainHandler.post(() -> {
-                    if (payloadCallback != null) {
-                        payloadCallback.onPayloadTransferUpdate(
-                            mmDeviceAddress,
-                            new PayloadTransferUpdate.Builder()
-                                .setPayloadId(0)
-                                .setTotalBytes(bytes.length)
-                                .setBytesTransferred(bytes.length)
-                                .setStatus(PayloadTransferUpdate.Status.SUCCESS)
-                                .build()
-                        );
+                @Override
+                public void onFailure(String error) {
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, 0, bytes.length,
+                            PayloadTransferUpdate.Status.FAILURE);
+                    listener.onFailure(error);
+                }
+            };
+
+            if (bytes.length > TRANSFER_CHUNK_SIZE) {
+                BluetoothWriter.OutboundTransfer transfer = new BluetoothWriter.OutboundTransfer(
+                    payloadId,
+                    bytes,
+                    TRANSFER_CHUNK_SIZE,
+                    (id, transferred, total) -> {
+                        if (transferred < total) {
+                            notifyTransferUpdate(mmDeviceAddress, id, transferred, total,
+                                    PayloadTransferUpdate.Status.IN_PROGRESS);
+                        }
                     }
-                });
+                );
+                mmWriter.enqueueTransfer(transfer, resultListener);
+            } else {
+                mmWriter.enqueue(frame != null ? frame : FrameCodec.encode(FrameCodec.TYPE_DATA, 0, bytes), resultListener);
+            }
+        }
 
-                Log.d(TAG, "Mensaje Bluetooth enviado: " + new String(bytes));
-            } catch (SecurityException e) {
-                Log.e(TAG, "Error de permisos al escribir datos Bluetooth", e);
+        /**
+         * Encola un fichero para enviarlo por fragmentos leídos directamente del disco,
+         * precedidos de una trama con su nombre y tamaño
+         * @param file Fichero a enviar
+         * @param listener Se notifica cuando el fichero completo se ha escrito en el socket
+         */
+        public void writeFile(File file, OnPayloadSentListener listener) {
+            if (!hasBluetoothPermissions()) {
+                BleLogger.warn("No se tienen permisos para escribir datos Bluetooth");
+                listener.onFailure("No se tienen permisos para escribir datos Bluetooth");
                 return;
+            }
+
+            BluetoothWriter.TransferSource source;
+            try {
+                source = BluetoothWriter.fileSource(file);
+            } catch (IOException e) {
+                BleLogger.error(() -> "Error al abrir el fichero " + file, e);
+                listener.onFailure("Error al abrir el fichero: " + e.getMessage());
+                return;
+            }
+
+            long payloadId = payloadIdGenerator.incrementAndGet();
+            long totalLength = source.length();
+            BluetoothWriter.OutboundTransfer transfer = new BluetoothWriter.OutboundTransfer(
+                payloadId,
+                source,
+                TRANSFER_CHUNK_SIZE,
+                FrameCodec.encodeTransferInfo(payloadId, totalLength, FrameCodec.CONTENT_FILE, file.getName()),
+                (id, transferred, total) -> {
+                    if (transferred < total) {
+                        notifyTransferUpdate(mmDeviceAddress, id, transferred, total,
+                                PayloadTransferUpdate.Status.IN_PROGRESS);
+                    }
+                }
+            );
+
+            mmWriter.enqueueTransfer(transfer, new OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, totalLength, totalLength,
+                            PayloadTransferUpdate.Status.SUCCESS);
+                    BleLogger.debug("Fichero Bluetooth enviado: {} ({} bytes)", file, totalLength);
+                    listener.onSuccess(payloadId);
+                }
+
+                @Override
+                public void onFailure(String error) {
+                    notifyTransferUpdate(mmDeviceAddress, payloadId, 0, totalLength,
+                            PayloadTransferUpdate.Status.FAILURE);
+                    listener.onFailure(error);
+                }
+            });
+        }
+
+        // Closing the socket unblocks the reader, which then reports the connection as lost
+        private void closeSocket() {
+            try {
+                mmSocket.close();
             } catch (IOException e) {
-                Log.e(TAG, "Error al enviar datos Bluetooth", e);
+                BleLogger.error("Error al cerrar socket Bluetooth", e);
             }
         }
 
         public void cancel() {
+            cancel(null);
+        }
+
+        /**
+         * Cierra la conexión
+         * @param onClosed Se ejecuta en el hilo de callbacks después de entregar los mensajes
+         *                 ya leídos; puede ser null
+         */
+        public void cancel(Runnable onClosed) {
+            mmOnCancelled = onClosed;
+            mmCancelled = true;
+            mmWriter.shutdown();
             if (hasBluetoothPermissions()) {
                 try {
                     mmSocket.close();
                 } catch (SecurityException e) {
-                    Log.e(TAG, "Error de permisos al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error de permisos al cerrar socket Bluetooth", e);
                 } catch (IOException e) {
-                    Log.e(TAG, "Error al cerrar socket Bluetooth", e);
+                    BleLogger.error("Error al cerrar socket Bluetooth", e);
                 }
             } else {
-                Log.w(TAG, "No se tienen permisos para cerrar socket Bluetooth");
+                BleLogger.warn("No se tienen permisos para cerrar socket Bluetooth");
             }
         }
     }
@@ -3,9 +3,10 @@ package com.squareetlabs.capacitor.nearbymultipeer;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.os.Build;
-import android.util.Log;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.PermissionState;
 import com.getcapacitor.Plugin;
@@ -18,12 +19,25 @@ import com.getcapacitor.annotation.PermissionCallback;
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
+import com.google.android.gms.nearby.connection.ConnectionsClient;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
 import com.google.android.gms.nearby.connection.EndpointDiscoveryCallback;
 import com.google.android.gms.nearby.connection.Payload;
 import com.google.android.gms.nearby.connection.PayloadCallback;
 import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.android.gms.nearby.connection.Strategy;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @SuppressLint("MissingPermission")
 @CapacitorPlugin(
     name = "NearbyMultipeer",
@@ -72,11 +86,132 @@ import com.google.android.gms.nearby.connection.Strategy;
 )
 public class NearbyMultipeerPlugin extends Plugin {
 
-    private NearbyMultipeer implementation;
+    // Se sustituye por una instancia nueva en cleanup()
+    private volatile NearbyMultipeer implementation;
+
+    // Agrupación opcional de los mensajes recibidos (null = un evento "message" por mensaje)
+    private volatile InboundMessageBatcher<JSObject> messageBatcher;
 
     @Override
     public void load() {
-        implementation = new NearbyMultipeer();
+        implementation = createImplementation();
+    }
+
+    private NearbyMultipeer createImplementation() {
+        NearbyMultipeer nearby = new NearbyMultipeer();
+        nearby.setMessageListener(this::notifyMessage);
+        nearby.setFileListener(this::notifyFile);
+        return nearby;
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        releaseImplementation();
+        super.handleOnDestroy();
+    }
+
+    /**
+     * Libera la instancia actual después de entregar los mensajes que esperaban en el lote
+     */
+    private void releaseImplementation() {
+        InboundMessageBatcher<JSObject> batcher = messageBatcher;
+        messageBatcher = null;
+        if (batcher != null) {
+            implementation.getCallbackDispatcher().dispatch(batcher::flush);
+        }
+        implementation.cleanup();
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        // Permissions may have changed in the system settings while the app was in the background
+        implementation.refreshPermissions();
+    }
+
+    /**
+     * Registra una llamada del plugin sin construir el texto si el nivel debug está
+     * desactivado; el contenido de los mensajes sólo se incluye con setLogPayloads
+     */
+    private static void logCall(String method, PluginCall call) {
+        if (BleLogger.isLoggable(BleLogger.LogLevel.DEBUG)) {
+            BleLogger.debug("[" + method + "] call data=" + describeCallData(call.getData()));
+        }
+    }
+
+    private static String describeCallData(JSObject data) {
+        if (BleLogger.isPayloadLoggingEnabled()) {
+            return data.toString();
+        }
+        StringBuilder sb = new StringBuilder("{");
+        Iterator<String> keys = data.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = data.opt(key);
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(key).append('=');
+            if ("data".equals(key) && value instanceof String) {
+                sb.append(BleLogger.payload((String) value));
+            } else if (value instanceof JSONArray) {
+                sb.append('<').append(((JSONArray) value).length()).append(" items>");
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Emite un evento a JS desde el hilo de callbacks (ver {@link CallbackDispatcher})
+     */
+    private void emit(String eventName, JSObject data) {
+        implementation.getCallbackDispatcher().dispatch(() -> notifyListeners(eventName, data));
+    }
+
+    /**
+     * Notifica a JS un mensaje recibido, decodificando directamente desde el buffer
+     * de origen
+     */
+    private void notifyMessage(String endpointId, byte[] data, int offset, int length) {
+        JSObject jsObject = new JSObject();
+        jsObject.put("endpointId", endpointId);
+        jsObject.put("data", new String(data, offset, length, StandardCharsets.UTF_8));
+
+        InboundMessageBatcher<JSObject> batcher = messageBatcher;
+        if (batcher != null) {
+            batcher.add(jsObject);
+        } else {
+            emit("message", jsObject);
+        }
+    }
+
+    /**
+     * Notifica a JS un lote de mensajes en un único evento
+     */
+    private void notifyMessages(List<JSObject> batch) {
+        JSArray messages = new JSArray();
+        for (JSObject message : batch) {
+            messages.put(message);
+        }
+        JSObject jsObject = new JSObject();
+        jsObject.put("messages", messages);
+        emit("messages", jsObject);
+    }
+
+    /**
+     * Notifica a JS un fichero recibido; sólo se envía la ruta, nunca el contenido
+     */
+    private void notifyFile(String endpointId, long payloadId, File file, String fileName, long size) {
+        BleLogger.debug(() -> "[notifyFile] endpointId=" + endpointId + ", payloadId=" + payloadId + ", file=" + file);
+        JSObject jsObject = new JSObject();
+        jsObject.put("endpointId", endpointId);
+        jsObject.put("payloadId", payloadId);
+        jsObject.put("path", file.getAbsolutePath());
+        jsObject.put("fileName", fileName);
+        jsObject.put("size", size);
+        emit("fileReceived", jsObject);
     }
 
     /**
@@ -166,7 +301,9 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PermissionCallback
     private void checkRequiredPermissions(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "checkRequiredPermissions callback");
+        BleLogger.debug("checkRequiredPermissions callback");
+        // The user may have just granted or denied something
+        implementation.refreshPermissions();
 
         // Verificar cada permiso requerido
         String[] requiredPermissions = getRequiredPermissions();
@@ -200,14 +337,14 @@ public class NearbyMultipeerPlugin extends Plugin {
             }
 
             if (alias != null && getPermissionState(alias) != PermissionState.GRANTED) {
-                Log.w("NearbyMultipeerPlugin", "Permiso no concedido: " + alias);
+                BleLogger.warn("Permiso no concedido: {}", alias);
                 allGranted = false;
                 break;
             }
         }
 
         if (!allGranted) {
-            Log.w("NearbyMultipeerPlugin", "No se han concedido todos los permisos necesarios");
+            BleLogger.warn("No se han concedido todos los permisos necesarios");
             call.reject("Se requieren permisos para utilizar Nearby Connections");
             return;
         }
@@ -216,7 +353,7 @@ public class NearbyMultipeerPlugin extends Plugin {
         if (call.getData().has("serviceId")) {
             String serviceIdValue = call.getString("serviceId");
             String serviceUUIDString = call.getString("serviceUUIDString");
-            Log.d("NearbyMultipeerPlugin", "Inicializando con serviceId: " + serviceIdValue + ", serviceUUIDString: " + serviceUUIDString);
+            BleLogger.debug(() -> "Inicializando con serviceId: " + serviceIdValue + ", serviceUUIDString: " + serviceUUIDString);
             implementation.initialize(getContext(), serviceIdValue, connectionLifecycleCallback,
                                     endpointDiscoveryCallback, payloadCallback, serviceUUIDString);
             call.resolve();
@@ -227,7 +364,7 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void initialize(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[initialize] call data=" + call.getData().toString());
+        logCall("initialize", call);
         String serviceIdValue = call.getString("serviceId");
         if (serviceIdValue == null) {
             call.reject("serviceId is required");
@@ -238,7 +375,7 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void startAdvertising(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[startAdvertising] call data=" + call.getData().toString());
+        logCall("startAdvertising", call);
         String name = call.getString("displayName");
         if (name == null) {
             name = "AndroidDevice";
@@ -259,21 +396,23 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void cleanup(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[cleanup]");
-        implementation.stopAdvertising();
+        BleLogger.debug("[cleanup]");
+        releaseImplementation();
+        // A cleaned-up instance cannot be restarted; start over as after load()
+        implementation = createImplementation();
         call.resolve();
     }
 
     @PluginMethod
     public void stopAdvertising(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[stopAdvertising]");
+        BleLogger.debug("[stopAdvertising]");
         implementation.stopAdvertising();
         call.resolve();
     }
 
     @PluginMethod
     public void startDiscovery(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[startDiscovery] call data=" + call.getData().toString());
+        logCall("startDiscovery", call);
         implementation.startDiscovery(new NearbyMultipeer.OnResultListener() {
             @Override
             public void onSuccess() {
@@ -289,14 +428,14 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void stopDiscovery(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[stopDiscovery]");
+        BleLogger.debug("[stopDiscovery]");
         implementation.stopDiscovery();
         call.resolve();
     }
 
     @PluginMethod
     public void connect(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[connect] call data=" + call.getData().toString());
+        logCall("connect", call);
         String endpointId = call.getString("endpointId");
         if (endpointId == null) {
             call.reject("endpointId required");
@@ -323,7 +462,7 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void acceptConnection(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[acceptConnection] call data=" + call.getData().toString());
+        logCall("acceptConnection", call);
         String endpointId = call.getString("endpointId");
         if (endpointId == null) {
             call.reject("endpointId required");
@@ -345,7 +484,7 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void rejectConnection(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[rejectConnection] call data=" + call.getData().toString());
+        logCall("rejectConnection", call);
         String endpointId = call.getString("endpointId");
         if (endpointId == null) {
             call.reject("endpointId required");
@@ -367,14 +506,14 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void disconnect(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[disconnect]");
+        BleLogger.debug("[disconnect]");
         implementation.disconnectFromAllEndpoints();
         call.resolve();
     }
 
     @PluginMethod
     public void disconnectFromEndpoint(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[disconnectFromEndpoint] call data=" + call.getData().toString());
+        logCall("disconnectFromEndpoint", call);
         String endpointId = call.getString("endpointId");
         if (endpointId == null) {
             call.reject("endpointId required");
@@ -387,7 +526,7 @@ public class NearbyMultipeerPlugin extends Plugin {
 
     @PluginMethod
     public void sendMessage(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[sendMessage] call data=" + call.getData().toString());
+        logCall("sendMessage", call);
         String endpointId = call.getString("endpointId");
         if (endpointId == null) {
             call.reject("endpointId required");
@@ -413,9 +552,554 @@ public class NearbyMultipeerPlugin extends Plugin {
         });
     }
 
+    @PluginMethod
+    public void sendMessages(PluginCall call) {
+        JSArray messages = call.getArray("messages");
+        if (messages == null) {
+            call.reject("messages required");
+            return;
+        }
+        // Only the count is logged: this path is meant for high-rate producers
+        BleLogger.debug(() -> "[sendMessages] count=" + messages.length());
+
+        int count = messages.length();
+        JSObject[] results = new JSObject[count];
+        AtomicInteger pending = new AtomicInteger(count);
+        Runnable resolveWhenDone = () -> {
+            if (pending.decrementAndGet() == 0) {
+                JSArray resultArray = new JSArray();
+                for (JSObject result : results) {
+                    resultArray.put(result);
+                }
+                JSObject ret = new JSObject();
+                ret.put("results", resultArray);
+                call.resolve(ret);
+            }
+        };
+
+        if (count == 0) {
+            JSObject ret = new JSObject();
+            ret.put("results", new JSArray());
+            call.resolve(ret);
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            JSONObject item = messages.optJSONObject(i);
+            String endpointId = item != null ? item.optString("endpointId", null) : null;
+            String dataStr = item != null ? item.optString("data", null) : null;
+
+            JSObject result = new JSObject();
+            result.put("endpointId", endpointId);
+            results[index] = result;
+
+            if (endpointId == null || dataStr == null) {
+                result.put("success", false);
+                result.put("error", "endpointId and data required");
+                resolveWhenDone.run();
+                continue;
+            }
+
+            implementation.sendMessage(endpointId, dataStr, new NearbyMultipeer.OnResultListener() {
+                @Override
+                public void onSuccess() {
+                    result.put("success", true);
+                    resolveWhenDone.run();
+                }
+
+                @Override
+                public void onFailure(String error) {
+                    result.put("success", false);
+                    result.put("error", error);
+                    resolveWhenDone.run();
+                }
+            });
+        }
+    }
+
+    @PluginMethod
+    public void broadcastMessage(PluginCall call) {
+        BleLogger.debug(() -> "[broadcastMessage] endpointIds=" + call.getArray("endpointIds"));
+        JSArray endpointIdsArray = call.getArray("endpointIds");
+        if (endpointIdsArray == null) {
+            call.reject("endpointIds required");
+            return;
+        }
+
+        String dataStr = call.getString("data");
+        if (dataStr == null) {
+            call.reject("data required");
+            return;
+        }
+
+        List<String> endpointIds;
+        try {
+            endpointIds = endpointIdsArray.toList();
+        } catch (JSONException e) {
+            call.reject("endpointIds must be an array of strings");
+            return;
+        }
+
+        implementation.broadcastMessage(endpointIds, dataStr, results -> {
+            JSArray resultArray = new JSArray();
+            for (Map.Entry<String, String> entry : results.entrySet()) {
+                JSObject result = new JSObject();
+                result.put("endpointId", entry.getKey());
+                result.put("success", entry.getValue() == null);
+                if (entry.getValue() != null) {
+                    result.put("error", entry.getValue());
+                }
+                resultArray.put(result);
+            }
+            JSObject ret = new JSObject();
+            ret.put("results", resultArray);
+            call.resolve(ret);
+        });
+    }
+
+    @PluginMethod
+    public void sendFile(PluginCall call) {
+        logCall("sendFile", call);
+        String endpointId = call.getString("endpointId");
+        if (endpointId == null) {
+            call.reject("endpointId required");
+            return;
+        }
+
+        String path = call.getString("path");
+        if (path == null) {
+            call.reject("path required");
+            return;
+        }
+
+        implementation.sendFile(endpointId, path, new NearbyMultipeer.OnPayloadSentListener() {
+            @Override
+            public void onSuccess(long payloadId) {
+                JSObject ret = new JSObject();
+                ret.put("payloadId", payloadId);
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onFailure(String error) {
+                call.reject("Send file failed: " + error);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void setOutboundQueueOptions(PluginCall call) {
+        logCall("setOutboundQueueOptions", call);
+        Integer capacity = call.getInt("capacity", 64);
+        Long blockTimeoutMs = call.getLong("blockTimeoutMs", 5000L);
+        String policyName = call.getString("policy", "reject");
+
+        BluetoothWriter.FullPolicy policy;
+        switch (policyName.toLowerCase()) {
+            case "block":
+                policy = BluetoothWriter.FullPolicy.BLOCK;
+                break;
+            case "reject":
+                policy = BluetoothWriter.FullPolicy.REJECT;
+                break;
+            default:
+                call.reject("Invalid policy: " + policyName);
+                return;
+        }
+
+        if (capacity == null || capacity < 1) {
+            call.reject("capacity must be greater than 0");
+            return;
+        }
+
+        implementation.setOutboundQueueOptions(capacity, policy, blockTimeoutMs);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setInboundQueueOptions(PluginCall call) {
+        logCall("setInboundQueueOptions", call);
+        Integer capacity = call.getInt("capacity", 256);
+        String policyName = call.getString("policy", "block");
+
+        InboundRing.OverflowPolicy policy;
+        switch (policyName.toLowerCase()) {
+            case "dropoldest":
+                policy = InboundRing.OverflowPolicy.DROP_OLDEST;
+                break;
+            case "block":
+                policy = InboundRing.OverflowPolicy.BLOCK;
+                break;
+            case "disconnect":
+                policy = InboundRing.OverflowPolicy.DISCONNECT;
+                break;
+            default:
+                call.reject("Invalid policy: " + policyName);
+                return;
+        }
+
+        if (capacity == null || capacity < 1) {
+            call.reject("capacity must be greater than 0");
+            return;
+        }
+
+        implementation.setInboundQueueOptions(capacity, policy);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setInboundFileOptions(PluginCall call) {
+        logCall("setInboundFileOptions", call);
+        Long maxFileSize = call.getLong("maxFileSize", NearbyMultipeer.DEFAULT_MAX_INBOUND_FILE_SIZE);
+        Integer maxOpenTransfers = call.getInt("maxOpenTransfers", NearbyMultipeer.DEFAULT_MAX_OPEN_INBOUND_FILES);
+        if (maxFileSize == null || maxFileSize < 0) {
+            call.reject("maxFileSize must be 0 or greater");
+            return;
+        }
+        if (maxOpenTransfers == null || maxOpenTransfers < 1) {
+            call.reject("maxOpenTransfers must be greater than 0");
+            return;
+        }
+
+        implementation.setInboundFileOptions(maxFileSize, maxOpenTransfers);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getInboundQueueStats(PluginCall call) {
+        BleLogger.debug("[getInboundQueueStats]");
+        JSArray queues = new JSArray();
+        for (Map.Entry<String, InboundRing> entry : implementation.getInboundQueues().entrySet()) {
+            InboundRing ring = entry.getValue();
+            JSObject queue = new JSObject();
+            queue.put("endpointId", entry.getKey());
+            queue.put("size", ring.size());
+            queue.put("capacity", ring.capacity());
+            queue.put("highWater", ring.getHighWater());
+            queue.put("dropped", ring.getDropped());
+            queue.put("delivered", ring.getDelivered());
+            queues.put(queue);
+        }
+        JSObject ret = new JSObject();
+        ret.put("queues", queues);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setCoalescingOptions(PluginCall call) {
+        logCall("setCoalescingOptions", call);
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled required");
+            return;
+        }
+
+        Integer maxBytes = call.getInt("maxBytes", 4096);
+        Long maxDelayMs = call.getLong("maxDelayMs", 5L);
+        if (maxBytes == null || maxBytes < 1) {
+            call.reject("maxBytes must be greater than 0");
+            return;
+        }
+
+        implementation.setCoalescingOptions(
+            call.getString("endpointId"),
+            new BluetoothWriter.CoalescingOptions(enabled, maxBytes, maxDelayMs)
+        );
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setInboundBatching(PluginCall call) {
+        logCall("setInboundBatching", call);
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled required");
+            return;
+        }
+
+        Long flushIntervalMs = call.getLong("flushIntervalMs", 50L);
+        Integer maxBatchSize = call.getInt("maxBatchSize", 50);
+        if (flushIntervalMs == null || flushIntervalMs < 0) {
+            call.reject("flushIntervalMs must be 0 or greater");
+            return;
+        }
+        if (maxBatchSize == null || maxBatchSize < 1) {
+            call.reject("maxBatchSize must be greater than 0");
+            return;
+        }
+
+        // On the callback thread, so that reconfiguring or flushing is ordered with the batcher's own flushes
+        CallbackDispatcher dispatcher = implementation.getCallbackDispatcher();
+        dispatcher.dispatch(() -> {
+            if (enabled) {
+                if (messageBatcher == null) {
+                    messageBatcher = new InboundMessageBatcher<>(dispatcher,
+                            flushIntervalMs, maxBatchSize, this::notifyMessages);
+                } else {
+                    messageBatcher.configure(flushIntervalMs, maxBatchSize);
+                }
+            } else if (messageBatcher != null) {
+                // Deliver what is pending before going back to one event per message
+                InboundMessageBatcher<JSObject> batcher = messageBatcher;
+                messageBatcher = null;
+                batcher.flush();
+            }
+            call.resolve();
+        });
+    }
+
+    @PluginMethod
+    public void setFragmentationOptions(PluginCall call) {
+        logCall("setFragmentationOptions", call);
+        Integer maxBytesPayloadSize = call.getInt("maxBytesPayloadSize", ConnectionsClient.MAX_BYTES_DATA_SIZE);
+        Long streamThreshold = call.getLong("streamThreshold", 4L * 1024 * 1024);
+        if (maxBytesPayloadSize == null || maxBytesPayloadSize < 1) {
+            call.reject("maxBytesPayloadSize must be greater than 0");
+            return;
+        }
+        if (streamThreshold == null || streamThreshold < 1) {
+            call.reject("streamThreshold must be greater than 0");
+            return;
+        }
+
+        implementation.setFragmentationOptions(maxBytesPayloadSize, streamThreshold);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setCallbackDispatcher(PluginCall call) {
+        logCall("setCallbackDispatcher", call);
+        String thread = call.getString("thread");
+        if (thread == null) {
+            call.reject("thread required");
+            return;
+        }
+
+        CallbackDispatcher.Mode mode;
+        switch (thread) {
+            case "background":
+                mode = CallbackDispatcher.Mode.BACKGROUND;
+                break;
+            case "main":
+                mode = CallbackDispatcher.Mode.MAIN;
+                break;
+            default:
+                call.reject("Invalid thread: " + thread);
+                return;
+        }
+
+        implementation.getCallbackDispatcher().setMode(mode);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getCallbackDispatcherStats(PluginCall call) {
+        logCall("getCallbackDispatcherStats", call);
+        CallbackDispatcher dispatcher = implementation.getCallbackDispatcher();
+        CallbackDispatcher.Stats stats = dispatcher.getStats();
+        if (call.getBoolean("reset", false)) {
+            dispatcher.resetStats();
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("thread", stats.mode == CallbackDispatcher.Mode.MAIN ? "main" : "background");
+        ret.put("dispatched", stats.dispatched);
+        ret.put("pending", stats.pending);
+        ret.put("averageLatencyMs", stats.averageLatencyNanos / 1_000_000.0);
+        ret.put("maxLatencyMs", stats.maxLatencyNanos / 1_000_000.0);
+        ret.put("lastLatencyMs", stats.lastLatencyNanos / 1_000_000.0);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getBleOperationStats(PluginCall call) {
+        BleLogger.debug("[getBleOperationStats]");
+        JSObject ret = new JSObject();
+        ret.put("scan", toJSObject(implementation.getBleOperationStats(BleOperationGuard.Operation.SCAN)));
+        ret.put("advertise", toJSObject(implementation.getBleOperationStats(BleOperationGuard.Operation.ADVERTISE)));
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setBatchScanning(PluginCall call) {
+        logCall("setBatchScanning", call);
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled required");
+            return;
+        }
+
+        Long reportDelayMs = call.getLong("reportDelayMs", NearbyMultipeer.DEFAULT_BATCH_SCAN_REPORT_DELAY_MS);
+        if (reportDelayMs == null || reportDelayMs < 1) {
+            call.reject("reportDelayMs must be greater than 0");
+            return;
+        }
+
+        boolean supported = implementation.setBatchScanning(enabled, reportDelayMs);
+        JSObject ret = new JSObject();
+        ret.put("supported", supported);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void getScanStats(PluginCall call) {
+        logCall("getScanStats", call);
+        BleScanStats scanStats = implementation.getScanStats();
+        BleScanStats.Snapshot stats = scanStats.snapshot();
+        if (call.getBoolean("reset", false)) {
+            scanStats.reset();
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("batchSupported", implementation.isBatchScanSupported());
+        ret.put("resultCallbacks", stats.resultCallbacks);
+        ret.put("batchCallbacks", stats.batchCallbacks);
+        ret.put("batchResults", stats.batchResults);
+        ret.put("batchDuplicates", stats.batchDuplicates);
+        ret.put("elapsedMs", stats.elapsedMs);
+        ret.put("callbacksPerMinute", stats.callbacksPerMinute);
+
+        ScanResultQueue.Stats queueStats = implementation.getScanQueueStats();
+        JSObject queue = new JSObject();
+        queue.put("pending", queueStats.pending);
+        queue.put("capacity", queueStats.capacity);
+        queue.put("highWater", queueStats.highWater);
+        queue.put("captured", queueStats.captured);
+        queue.put("parsed", queueStats.parsed);
+        queue.put("dropped", queueStats.dropped);
+        ret.put("queue", queue);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void setDutyCyclePolicy(PluginCall call) {
+        logCall("setDutyCyclePolicy", call);
+        boolean adaptive = Boolean.TRUE.equals(call.getBoolean("adaptive", true));
+        Long aggressiveMs = call.getLong("aggressiveMs", DutyCycleScheduler.DEFAULT_AGGRESSIVE_MS);
+        Long balancedMs = call.getLong("balancedMs", DutyCycleScheduler.DEFAULT_BALANCED_MS);
+        String minLevelName = call.getString("minLevel", "lowPower");
+
+        DutyCycleScheduler.Level minLevel;
+        switch (minLevelName.toLowerCase()) {
+            case "balanced":
+                minLevel = DutyCycleScheduler.Level.BALANCED;
+                break;
+            case "lowpower":
+                minLevel = DutyCycleScheduler.Level.LOW_POWER;
+                break;
+            default:
+                call.reject("Invalid minLevel: " + minLevelName);
+                return;
+        }
+
+        if (aggressiveMs == null || aggressiveMs < 0 || balancedMs == null || balancedMs < 0) {
+            call.reject("aggressiveMs and balancedMs must not be negative");
+            return;
+        }
+
+        implementation.setDutyCyclePolicy(adaptive, aggressiveMs, balancedMs, minLevel);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getDutyCycleStats(PluginCall call) {
+        BleLogger.debug("[getDutyCycleStats]");
+        DutyCycleScheduler.Stats stats = implementation.getDutyCycleStats();
+        JSObject ret = new JSObject();
+        ret.put("level", dutyCycleLevelName(stats.level));
+        ret.put("adaptive", stats.adaptive);
+        ret.put("transitions", stats.transitions);
+        ret.put("scan", toJSObject(stats.scanMs));
+        ret.put("advertise", toJSObject(stats.advertiseMs));
+        call.resolve(ret);
+    }
+
+    private static String dutyCycleLevelName(DutyCycleScheduler.Level level) {
+        switch (level) {
+            case BALANCED:
+                return "balanced";
+            case LOW_POWER:
+                return "lowPower";
+            default:
+                return "aggressive";
+        }
+    }
+
+    // Tiempo por nivel, indexado por DutyCycleScheduler.Level
+    private static JSObject toJSObject(long[] timeMs) {
+        JSObject obj = new JSObject();
+        for (DutyCycleScheduler.Level level : DutyCycleScheduler.Level.values()) {
+            obj.put(dutyCycleLevelName(level) + "Ms", timeMs[level.ordinal()]);
+        }
+        return obj;
+    }
+
+    @PluginMethod
+    public void setDiscoveryCacheOptions(PluginCall call) {
+        logCall("setDiscoveryCacheOptions", call);
+        Long ttlMs = call.getLong("ttlMs", DiscoveryCache.DEFAULT_TTL_MS);
+        Integer maxEntries = call.getInt("maxEntries", DiscoveryCache.DEFAULT_MAX_ENTRIES);
+        Double rssiSmoothing = call.getDouble("rssiSmoothing", DiscoveryCache.DEFAULT_RSSI_SMOOTHING);
+        if (ttlMs == null || ttlMs < 0) {
+            call.reject("ttlMs must not be negative");
+            return;
+        }
+        if (maxEntries == null || maxEntries < 1) {
+            call.reject("maxEntries must be greater than 0");
+            return;
+        }
+        if (rssiSmoothing == null || rssiSmoothing <= 0 || rssiSmoothing > 1) {
+            call.reject("rssiSmoothing must be in (0, 1]");
+            return;
+        }
+
+        implementation.setDiscoveryCacheOptions(ttlMs, maxEntries, rssiSmoothing);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getDiscoveredEndpoints(PluginCall call) {
+        BleLogger.debug("[getDiscoveredEndpoints]");
+        DiscoveryCache cache = implementation.getDiscoveryCache();
+        long now = SystemClock.elapsedRealtime();
+
+        JSArray endpoints = new JSArray();
+        for (DiscoveryCache.Entry entry : cache.snapshot()) {
+            JSObject endpoint = new JSObject();
+            endpoint.put("endpointId", entry.address);
+            endpoint.put("endpointName", entry.name);
+            endpoint.put("serviceId", entry.serviceId);
+            endpoint.put("rssi", entry.rssi);
+            endpoint.put("lastRssi", entry.lastRssi);
+            endpoint.put("lastSeenMsAgo", now - entry.lastSeen);
+            endpoint.put("sightings", entry.sightings);
+            endpoints.put(endpoint);
+        }
+        DiscoveryCache.Stats stats = cache.getStats();
+        JSObject ret = new JSObject();
+        ret.put("endpoints", endpoints);
+        ret.put("expired", stats.expired);
+        ret.put("evicted", stats.evicted);
+        call.resolve(ret);
+    }
+
+    private JSObject toJSObject(BleOperationGuard.Stats stats) {
+        JSObject obj = new JSObject();
+        obj.put("active", stats.active);
+        obj.put("pending", stats.pending);
+        obj.put("requestedStarts", stats.requestedStarts);
+        obj.put("requestedStops", stats.requestedStops);
+        obj.put("executedStarts", stats.executedStarts);
+        obj.put("executedStops", stats.executedStops);
+        obj.put("suppressed", stats.suppressed);
+        obj.put("deferred", stats.deferred);
+        return obj;
+    }
+
     @PluginMethod
     public void setStrategy(PluginCall call) {
-        Log.d("NearbyMultipeerPlugin", "[setStrategy] call data=" + call.getData().toString());
+        logCall("setStrategy", call);
         String strategyName = call.getString("strategy");
         if (strategyName == null) {
             call.reject("strategy required");
@@ -472,81 +1156,149 @@ public class NearbyMultipeerPlugin extends Plugin {
         }
         
         BleLogger.setLogLevel(level);
+        BleLogger.setLogPayloads(Boolean.TRUE.equals(call.getBoolean("logPayloads", false)));
         BleLogger.info("Nivel de log establecido a: " + level.name());
         
         call.resolve();
     }
 
+    @PluginMethod
+    public void setTraceRecording(PluginCall call) {
+        logCall("setTraceRecording", call);
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled required");
+            return;
+        }
+
+        Integer capacity = call.getInt("capacity", BleTraceRecorder.DEFAULT_CAPACITY);
+        Integer maxRecordBytes = call.getInt("maxRecordBytes", BleTraceRecorder.DEFAULT_MAX_RECORD_BYTES);
+        if (capacity == null || capacity < 1) {
+            call.reject("capacity must be greater than 0");
+            return;
+        }
+        if (maxRecordBytes == null || maxRecordBytes < 0) {
+            call.reject("maxRecordBytes must not be negative");
+            return;
+        }
+
+        implementation.getTraceRecorder().configure(enabled, capacity, maxRecordBytes);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void dumpTrace(PluginCall call) {
+        logCall("dumpTrace", call);
+        BleTraceRecorder recorder = implementation.getTraceRecorder();
+        boolean clear = Boolean.TRUE.equals(call.getBoolean("clear", false));
+        long overwritten = recorder.getOverwritten();
+
+        JSArray records = new JSArray();
+        for (BleTraceRecorder.Record record : recorder.dump(clear)) {
+            JSObject item = new JSObject();
+            item.put("timestamp", record.timestamp);
+            item.put("kind", traceKindName(record.kind));
+            item.put("endpointId", record.address);
+            item.put("type", record.type);
+            item.put("length", record.length);
+            item.put("data", record.hex);
+            records.put(item);
+        }
+        JSObject ret = new JSObject();
+        ret.put("records", records);
+        ret.put("overwritten", overwritten);
+        call.resolve(ret);
+    }
+
+    private static String traceKindName(int kind) {
+        switch (kind) {
+            case BleTraceRecorder.KIND_FRAME_IN:
+                return "frameIn";
+            case BleTraceRecorder.KIND_FRAME_OUT:
+                return "frameOut";
+            case BleTraceRecorder.KIND_ADVERTISEMENT:
+                return "advertisement";
+            default:
+                return "unknown";
+        }
+    }
+
     private final ConnectionLifecycleCallback connectionLifecycleCallback = new ConnectionLifecycleCallback() {
         @Override
         public void onConnectionInitiated(@NonNull String endpointId, @NonNull ConnectionInfo info) {
-            Log.d("NearbyMultipeerPlugin", "[onConnectionInitiated] endpointId=" + endpointId + ", info=" + info);
+            BleLogger.debug("[onConnectionInitiated] endpointId={}, info={}", endpointId, info);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
             jsObject.put("endpointName", info.getEndpointName());
             jsObject.put("authenticationToken", info.getAuthenticationDigits());
             jsObject.put("isIncomingConnection", info.isIncomingConnection());
-            notifyListeners("connectionRequested", jsObject);
+            emit("connectionRequested", jsObject);
         }
 
         @Override
         public void onConnectionResult(@NonNull String endpointId, @NonNull ConnectionResolution result) {
-            Log.d("NearbyMultipeerPlugin", "[onConnectionResult] endpointId=" + endpointId + ", result=" + result);
+            BleLogger.debug("[onConnectionResult] endpointId={}, result={}", endpointId, result);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
             jsObject.put("status", result.getStatus().getStatusCode());
-            notifyListeners("connectionResult", jsObject);
+            emit("connectionResult", jsObject);
         }
 
         @Override
         public void onDisconnected(@NonNull String endpointId) {
-            Log.d("NearbyMultipeerPlugin", "[onDisconnected] endpointId=" + endpointId);
+            BleLogger.debug("[onDisconnected] endpointId={}", endpointId);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
-            notifyListeners("endpointLost", jsObject);
+            emit("endpointLost", jsObject);
         }
     };
 
     private final EndpointDiscoveryCallback endpointDiscoveryCallback = new EndpointDiscoveryCallback() {
         @Override
         public void onEndpointFound(@NonNull String endpointId, @NonNull DiscoveredEndpointInfo info) {
-            Log.d("NearbyMultipeerPlugin", "[onEndpointFound] endpointId=" + endpointId + ", info=" + info);
+            BleLogger.debug("[onEndpointFound] endpointId={}, info={}", endpointId, info);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
             jsObject.put("endpointName", info.getEndpointName());
             jsObject.put("serviceId", info.getServiceId());
-            notifyListeners("endpointFound", jsObject);
+            emit("endpointFound", jsObject);
         }
 
         @Override
         public void onEndpointLost(@NonNull String endpointId) {
-            Log.d("NearbyMultipeerPlugin", "[onEndpointLost] endpointId=" + endpointId);
+            BleLogger.debug("[onEndpointLost] endpointId={}", endpointId);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
-            notifyListeners("endpointLost", jsObject);
+            emit("endpointLost", jsObject);
         }
     };
 
     private final PayloadCallback payloadCallback = new PayloadCallback() {
         @Override
         public void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload) {
-            Log.d("NearbyMultipeerPlugin", "[onPayloadReceived] endpointId=" + endpointId + ", payload=" + payload);
-            String msg = new String(payload.asBytes());
-            JSObject jsObject = new JSObject();
-            jsObject.put("endpointId", endpointId);
-            jsObject.put("data", msg);
-            notifyListeners("message", jsObject);
+            BleLogger.debug("[onPayloadReceived] endpointId={}, payload={}", endpointId, payload);
+            // FILE and STREAM payloads are received incrementally by NearbyMultipeer
+            if (payload.getType() != Payload.Type.BYTES) {
+                BleLogger.warn("[onPayloadReceived] tipo de payload no esperado: {}", payload.getType());
+                return;
+            }
+            byte[] bytes = payload.asBytes();
+            if (bytes == null) {
+                return;
+            }
+            notifyMessage(endpointId, bytes, 0, bytes.length);
         }
 
         @Override
         public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update) {
-            Log.d("NearbyMultipeerPlugin", "[onPayloadTransferUpdate] endpointId=" + endpointId + ", update=" + update);
+            BleLogger.debug("[onPayloadTransferUpdate] endpointId={}, update={}", endpointId, update);
             JSObject jsObject = new JSObject();
             jsObject.put("endpointId", endpointId);
+            jsObject.put("payloadId", update.getPayloadId());
             jsObject.put("bytesTransferred", update.getBytesTransferred());
             jsObject.put("totalBytes", update.getTotalBytes());
             jsObject.put("status", update.getStatus());
-            notifyListeners("payloadTransferUpdate", jsObject);
+            emit("payloadTransferUpdate", jsObject);
         }
     };
 }
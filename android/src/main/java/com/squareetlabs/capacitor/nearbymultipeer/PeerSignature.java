@@ -0,0 +1,119 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Firma de los anuncios BLE de los peers NMP.
+ *
+ * Los peers se anuncian con datos de fabricante (ID {@link #MANUFACTURER_ID}) que empiezan
+ * con una cabecera fija de {@link #HEADER_SIZE} bytes:
+ * <pre>
+ *  0-2  magic "NMP" (0x4E 0x4D 0x50)
+ *  3    versión del protocolo
+ *  4    tipo de dispositivo ({@link #DEVICE_TYPE_ANDROID}, {@link #DEVICE_TYPE_IOS})
+ * </pre>
+ * seguida opcionalmente del nombre en UTF-8 (iOS).
+ *
+ * A partir de esta única descripción se generan el anuncio propio, los ScanFilter que el
+ * controlador Bluetooth aplica en hardware (descartando al resto de anunciantes antes de
+ * despertar a la app) y la clasificación de los resultados de escaneo.
+ */
+public final class PeerSignature {
+    public static final int MANUFACTURER_ID = 0x0000;
+    public static final byte MAGIC_0 = (byte) 0x4E; // 'N'
+    public static final byte MAGIC_1 = (byte) 0x4D; // 'M'
+    public static final byte MAGIC_2 = (byte) 0x50; // 'P'
+    public static final int PROTOCOL_VERSION = 0x01;
+    public static final int HEADER_SIZE = 5;
+
+    // Tipos de dispositivo
+    public static final int DEVICE_TYPE_ANDROID = 0x01;
+    public static final int DEVICE_TYPE_IOS = 0x02;
+
+    // Versiones y tipos que se aceptan al escanear
+    private static final int[] PROTOCOL_VERSIONS = {0x01};
+    private static final int[] DEVICE_TYPES = {DEVICE_TYPE_ANDROID, DEVICE_TYPE_IOS};
+
+    private PeerSignature() {
+        // Clase de utilidades
+    }
+
+    /**
+     * Cabecera de los datos de fabricante de un peer
+     */
+    public static byte[] header(int protocolVersion, int deviceType) {
+        return new byte[]{MAGIC_0, MAGIC_1, MAGIC_2, (byte) protocolVersion, (byte) deviceType};
+    }
+
+    /**
+     * Máscara de la cabecera: se comparan todos sus bytes y se ignora lo que venga detrás
+     */
+    public static byte[] headerMask() {
+        return new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    }
+
+    /**
+     * Filtros de escaneo: uno de datos de fabricante por cada versión y tipo de dispositivo
+     * aceptados, y uno por el UUID del servicio para los peers que no anuncian datos de fabricante
+     * @param serviceUuid UUID del servicio, o null para no añadir su filtro
+     */
+    public static List<ScanFilter> buildScanFilters(UUID serviceUuid) {
+        List<byte[]> headers = filterHeaders();
+        List<ScanFilter> filters = new ArrayList<>(headers.size() + 1);
+        for (byte[] header : headers) {
+            filters.add(new ScanFilter.Builder()
+                    .setManufacturerData(MANUFACTURER_ID, header, headerMask())
+                    .build());
+        }
+        if (serviceUuid != null) {
+            filters.add(new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(serviceUuid))
+                    .build());
+        }
+        return filters;
+    }
+
+    /**
+     * Cabeceras de los filtros de datos de fabricante, una por cada versión y tipo aceptados
+     */
+    static List<byte[]> filterHeaders() {
+        List<byte[]> headers = new ArrayList<>(PROTOCOL_VERSIONS.length * DEVICE_TYPES.length);
+        for (int version : PROTOCOL_VERSIONS) {
+            for (int deviceType : DEVICE_TYPES) {
+                headers.add(header(version, deviceType));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Tipo de dispositivo de unos datos de fabricante
+     * @return {@link #DEVICE_TYPE_ANDROID}, {@link #DEVICE_TYPE_IOS} o -1 si no es un peer NMP
+     *         con una versión y un tipo aceptados
+     */
+    public static int matchDeviceType(byte[] manufacturerData) {
+        if (manufacturerData == null || manufacturerData.length < HEADER_SIZE
+                || manufacturerData[0] != MAGIC_0
+                || manufacturerData[1] != MAGIC_1
+                || manufacturerData[2] != MAGIC_2
+                || !contains(PROTOCOL_VERSIONS, manufacturerData[3] & 0xFF)) {
+            return -1;
+        }
+        int deviceType = manufacturerData[4] & 0xFF;
+        return contains(DEVICE_TYPES, deviceType) ? deviceType : -1;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+/**
+ * Estado en caché de los permisos Bluetooth en tiempo de ejecución.
+ *
+ * checkSelfPermission es una llamada IPC al sistema; en lugar de hacerla en cada lectura,
+ * escritura o resultado de escaneo, se consulta aquí y se refresca cuando puede haber
+ * cambiado: al inicializar, en el callback de petición de permisos y al volver la app a
+ * primer plano. Android mata el proceso cuando se revoca un permiso, así que un permiso
+ * en caché como concedido no puede quedar obsoleto; uno denegado se actualiza en el
+ * siguiente refresco.
+ */
+public final class PermissionCache {
+    private volatile Context context;
+    private volatile boolean connect = false;
+    private volatile boolean scan = false;
+    private volatile boolean advertise = false;
+    private volatile long refreshCount = 0;
+
+    /**
+     * Cambia el contexto y vuelve a leer los permisos
+     */
+    public synchronized void refresh(Context context) {
+        this.context = context;
+        refresh();
+    }
+
+    /**
+     * Vuelve a leer los permisos del sistema
+     */
+    public synchronized void refresh() {
+        Context current = context;
+        if (current == null) {
+            connect = false;
+            scan = false;
+            advertise = false;
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            // Android 12+ (API 31+): permisos Bluetooth separados
+            connect = isGranted(current, android.Manifest.permission.BLUETOOTH_CONNECT);
+            scan = isGranted(current, android.Manifest.permission.BLUETOOTH_SCAN);
+            advertise = isGranted(current, android.Manifest.permission.BLUETOOTH_ADVERTISE);
+        } else {
+            // Versiones anteriores: un único permiso BLUETOOTH
+            boolean bluetooth = isGranted(current, android.Manifest.permission.BLUETOOTH);
+            connect = bluetooth;
+            scan = bluetooth;
+            advertise = bluetooth;
+        }
+        refreshCount++;
+    }
+
+    /**
+     * Permiso para conectar y usar sockets (BLUETOOTH_CONNECT o BLUETOOTH)
+     */
+    public boolean hasConnect() {
+        return connect;
+    }
+
+    /**
+     * Permiso para escanear (BLUETOOTH_SCAN o BLUETOOTH)
+     */
+    public boolean hasScan() {
+        return scan;
+    }
+
+    /**
+     * Permiso para anunciarse (BLUETOOTH_ADVERTISE o BLUETOOTH)
+     */
+    public boolean hasAdvertise() {
+        return advertise;
+    }
+
+    /**
+     * Número de veces que se han leído los permisos del sistema
+     */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    private static boolean isGranted(Context context, String permission) {
+        return context.checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+    }
+}
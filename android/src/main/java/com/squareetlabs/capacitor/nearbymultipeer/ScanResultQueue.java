@@ -0,0 +1,210 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Cola acotada entre el callback de escaneo BLE (hilo binder) y un hilo que clasifica
+ * los resultados.
+ *
+ * El callback sólo copia el dispositivo, el RSSI, la marca de tiempo y la referencia al
+ * ScanRecord (inmutable) en un hueco preasignado; la lectura del nombre, de los datos de
+ * fabricante y de los servicios, el log y las notificaciones se hacen en el hilo del
+ * parser. Con la cola llena se descarta el resultado más antiguo: en un escaneo continuo
+ * el mismo dispositivo volverá a anunciarse enseguida.
+ *
+ * El hilo del parser se arranca con el primer resultado, de modo que no existe si nunca
+ * se escanea, y se detiene con {@link #shutdown()}.
+ */
+public final class ScanResultQueue {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Resultados procesados por cada tarea antes de ceder el hilo
+    private static final int DRAIN_BATCH = 64;
+
+    /**
+     * Clasifica un resultado; se llama en el hilo del parser
+     */
+    public interface Parser {
+        void parse(BluetoothDevice device, int rssi, long timestampNanos, ScanRecord record);
+    }
+
+    private final Parser parser;
+    private final Runnable drainRunnable = this::drain;
+
+    // Guarded by this
+    private HandlerThread parserThread;
+    private Handler parserHandler;
+    private boolean shutdown = false;
+    private final BluetoothDevice[] devices;
+    private final int[] rssis;
+    private final long[] timestamps;
+    private final ScanRecord[] records;
+    private int head = 0;
+    private int size = 0;
+    private boolean drainScheduled = false;
+    private int highWater = 0;
+    private long captured = 0;
+    private long parsed = 0;
+    private long dropped = 0;
+
+    public ScanResultQueue(int capacity, Parser parser) {
+        int slots = Math.max(1, capacity);
+        this.devices = new BluetoothDevice[slots];
+        this.rssis = new int[slots];
+        this.timestamps = new long[slots];
+        this.records = new ScanRecord[slots];
+        this.parser = parser;
+    }
+
+    /**
+     * Encola un resultado de escaneo sin procesarlo
+     */
+    public void offer(BluetoothDevice device, int rssi, long timestampNanos, ScanRecord record) {
+        Handler handler = null;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            int capacity = devices.length;
+            if (size == capacity) {
+                // Drop-oldest: el hueco del más antiguo pasa a ser el del nuevo
+                head = (head + 1) % capacity;
+                size--;
+                dropped++;
+            }
+            int slot = (head + size) % capacity;
+            devices[slot] = device;
+            rssis[slot] = rssi;
+            timestamps[slot] = timestampNanos;
+            records[slot] = record;
+            size++;
+            captured++;
+            if (size > highWater) {
+                highWater = size;
+            }
+            if (!drainScheduled) {
+                drainScheduled = true;
+                handler = parserHandler();
+            }
+        }
+        if (handler != null) {
+            handler.post(drainRunnable);
+        }
+    }
+
+    /**
+     * Descarta los resultados pendientes (al detener el escaneo)
+     */
+    public synchronized void clear() {
+        while (size > 0) {
+            releaseHead();
+            dropped++;
+        }
+    }
+
+    /**
+     * Descarta los resultados pendientes y detiene el hilo del parser. Los resultados que
+     * lleguen después se ignoran.
+     */
+    public void shutdown() {
+        HandlerThread thread;
+        synchronized (this) {
+            shutdown = true;
+            clear();
+            thread = parserThread;
+            parserThread = null;
+            parserHandler = null;
+        }
+        if (thread != null) {
+            thread.quitSafely();
+        }
+    }
+
+    /**
+     * Copia de los contadores de la cola
+     */
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.pending = size;
+        stats.capacity = devices.length;
+        stats.highWater = highWater;
+        stats.captured = captured;
+        stats.parsed = parsed;
+        stats.dropped = dropped;
+        return stats;
+    }
+
+    private void drain() {
+        for (int i = 0; i < DRAIN_BATCH; i++) {
+            BluetoothDevice device;
+            int rssi;
+            long timestampNanos;
+            ScanRecord record;
+            synchronized (this) {
+                if (size == 0) {
+                    drainScheduled = false;
+                    return;
+                }
+                device = devices[head];
+                rssi = rssis[head];
+                timestampNanos = timestamps[head];
+                record = records[head];
+                releaseHead();
+            }
+
+            try {
+                parser.parse(device, rssi, timestampNanos, record);
+            } catch (RuntimeException e) {
+                BleLogger.error("Error al procesar resultado de escaneo BLE", e);
+            }
+            synchronized (this) {
+                parsed++;
+            }
+        }
+        // Quedan resultados: se vuelve a encolar para no acaparar el hilo
+        Handler handler;
+        synchronized (this) {
+            handler = parserHandler;
+            if (handler == null) {
+                drainScheduled = false;
+                return;
+            }
+        }
+        handler.post(drainRunnable);
+    }
+
+    // Arranca el hilo del parser la primera vez; llamar con el lock
+    private Handler parserHandler() {
+        if (parserHandler == null) {
+            parserThread = new HandlerThread("NearbyMultipeerScanParser");
+            parserThread.start();
+            parserHandler = new Handler(parserThread.getLooper());
+        }
+        return parserHandler;
+    }
+
+    // Libera el hueco más antiguo; llamar con el lock
+    private void releaseHead() {
+        devices[head] = null;
+        records[head] = null;
+        head = (head + 1) % devices.length;
+        size--;
+    }
+
+    /**
+     * Contadores de la cola
+     */
+    public static final class Stats {
+        public int pending;
+        public int capacity;
+        public int highWater;
+        public long captured;
+        public long parsed;
+        // Resultados descartados con la cola llena o al detener el escaneo
+        public long dropped;
+    }
+}
@@ -0,0 +1,357 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+
+import com.google.android.gms.nearby.connection.Payload;
+import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recepción incremental de payloads STREAM de Nearby.
+ *
+ * Cada stream se vacía en un hilo de trabajo hacia un buffer en memoria acotado; si el
+ * contenido supera ese límite se vuelca a un fichero y se sigue escribiendo en disco, de
+ * modo que el tamaño recibido no está limitado por la memoria ni por el tamaño máximo de
+ * un payload BYTES. El resultado sólo se entrega cuando el stream se ha leído completo y
+ * Nearby ha confirmado la transferencia con {@link PayloadTransferUpdate.Status#SUCCESS}.
+ *
+ * Los streams que empiezan con una cabecera {@link FrameCodec#TYPE_STREAM_MESSAGE} son
+ * mensajes grandes enviados por este plugin: se mantienen siempre en memoria (hasta
+ * messageLimit) para entregarse como mensaje y no como fichero.
+ */
+public final class StreamPayloadReceiver {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // Streams leídos a la vez y streams que pueden esperar lector; por encima se descartan
+    private static final int MAX_READER_THREADS = 4;
+    private static final int MAX_QUEUED_STREAMS = 16;
+    private static final long READER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Receptor de los streams completados. Se llama desde el hilo de trabajo o desde
+     * el hilo que notifica las actualizaciones de transferencia.
+     */
+    public interface Listener {
+        /**
+         * Stream completo que cabe en memoria
+         * @param data Datos recibidos; sólo los primeros "length" bytes son válidos
+         */
+        void onStreamReceived(String endpointId, long payloadId, byte[] data, int length);
+
+        /**
+         * Stream completo volcado a disco por superar el límite en memoria
+         */
+        void onStreamSpilled(String endpointId, long payloadId, File file, long size);
+    }
+
+    /**
+     * Crea el fichero donde se vuelca un stream grande
+     */
+    public interface SpillFileFactory {
+        File create(long payloadId) throws IOException;
+    }
+
+    private final int memoryLimit;
+    private final int messageLimit;
+    private final SpillFileFactory spillFileFactory;
+    private final Listener listener;
+    private final Map<Long, IncomingStream> incoming = new HashMap<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    // Each stream blocks its reader until the sender finishes; the pool bounds how many peers
+    // can pin a thread at once, and further streams wait in a bounded queue
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        MAX_READER_THREADS, MAX_READER_THREADS,
+        READER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(MAX_QUEUED_STREAMS),
+        runnable -> {
+            Thread thread = new Thread(runnable, "NearbyStreamReader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    /**
+     * @param memoryLimit Bytes que se retienen en memoria antes de volcar el stream a disco
+     * @param messageLimit Tamaño máximo de un stream de mensaje (se descarta si lo supera)
+     * @param spillFileFactory Crea los ficheros de volcado
+     * @param listener Receptor de los streams completados
+     */
+    public StreamPayloadReceiver(int memoryLimit, int messageLimit, SpillFileFactory spillFileFactory, Listener listener) {
+        this.memoryLimit = Math.max(READ_BUFFER_SIZE, memoryLimit);
+        this.messageLimit = Math.max(this.memoryLimit, messageLimit);
+        this.spillFileFactory = spillFileFactory;
+        this.listener = listener;
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Empieza a leer un payload STREAM recién recibido
+     * @param endpointId Endpoint de origen
+     * @param payload Payload de tipo {@link Payload.Type#STREAM}
+     */
+    public void onPayloadReceived(String endpointId, Payload payload) {
+        Payload.Stream stream = payload.asStream();
+        if (stream == null) {
+            BleLogger.warn("Payload STREAM sin stream: {}", payload.getId());
+            return;
+        }
+
+        IncomingStream item = new IncomingStream(endpointId, payload.getId(), stream);
+        synchronized (incoming) {
+            incoming.put(item.payloadId, item);
+        }
+        try {
+            executor.execute(item::drain);
+        } catch (RejectedExecutionException e) {
+            item.abort("Demasiados streams en curso");
+        }
+    }
+
+    /**
+     * Sigue el estado de la transferencia de un stream en curso
+     * @return true si la actualización corresponde a un stream gestionado por este receptor
+     */
+    public boolean onPayloadTransferUpdate(PayloadTransferUpdate update) {
+        int status = update.getStatus();
+        if (status == PayloadTransferUpdate.Status.IN_PROGRESS) {
+            synchronized (incoming) {
+                return incoming.containsKey(update.getPayloadId());
+            }
+        }
+
+        IncomingStream item;
+        synchronized (incoming) {
+            item = incoming.get(update.getPayloadId());
+        }
+        if (item == null) {
+            return false;
+        }
+
+        if (status == PayloadTransferUpdate.Status.SUCCESS) {
+            item.onTransferSucceeded();
+        } else {
+            item.abort("Transferencia no completada (estado " + status + ")");
+        }
+        return true;
+    }
+
+    /**
+     * Número de streams que se están recibiendo
+     */
+    public int getActiveCount() {
+        synchronized (incoming) {
+            return incoming.size();
+        }
+    }
+
+    /**
+     * Cancela todos los streams en curso y descarta lo recibido
+     */
+    public void cancelAll() {
+        IncomingStream[] items;
+        synchronized (incoming) {
+            items = incoming.values().toArray(new IncomingStream[0]);
+        }
+        for (IncomingStream item : items) {
+            item.abort("Recepción cancelada");
+        }
+    }
+
+    private void remove(IncomingStream item) {
+        synchronized (incoming) {
+            if (incoming.get(item.payloadId) == item) {
+                incoming.remove(item.payloadId);
+            }
+        }
+    }
+
+    // Un stream en curso de recepción: lo vacía el hilo de trabajo y lo cierra la última actualización
+    private final class IncomingStream {
+        final String endpointId;
+        final long payloadId;
+        final Payload.Stream stream;
+
+        private byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int buffered = 0;
+        private File spillFile;
+        private OutputStream spillOut;
+        private long size = 0;
+        private int limit = memoryLimit;
+        private boolean message = false;
+
+        // Guarded by this
+        private boolean drained = false;
+        private boolean transferSucceeded = false;
+        private boolean finished = false;
+
+        IncomingStream(String endpointId, long payloadId, Payload.Stream stream) {
+            this.endpointId = endpointId;
+            this.payloadId = payloadId;
+            this.stream = stream;
+        }
+
+        void drain() {
+            InputStream in = stream.asInputStream();
+            try {
+                byte[] chunk = new byte[READ_BUFFER_SIZE];
+                int n = readPreamble(in, chunk);
+                if (n > 0) {
+                    append(chunk, n);
+                }
+                while ((n = in.read(chunk)) != -1) {
+                    append(chunk, n);
+                }
+                if (spillOut != null) {
+                    spillOut.close();
+                    spillOut = null;
+                }
+            } catch (IOException e) {
+                if (!isFinished()) {
+                    BleLogger.error(() -> "Error al leer el stream " + payloadId, e);
+                    abort("Error de lectura: " + e.getMessage());
+                }
+            } finally {
+                stream.close();
+            }
+
+            // Only abort() can finish a stream that has not been drained yet
+            boolean aborted;
+            synchronized (this) {
+                drained = true;
+                aborted = finished;
+            }
+            if (aborted) {
+                // abort() ran while we were still reading; the spill file is ours to remove
+                discardSpill();
+                return;
+            }
+            deliverIfComplete();
+        }
+
+        // Reads the first bytes; a message preamble is consumed, anything else is returned as data
+        private int readPreamble(InputStream in, byte[] chunk) throws IOException {
+            int filled = 0;
+            while (filled < FrameCodec.HEADER_SIZE) {
+                int n = in.read(chunk, filled, FrameCodec.HEADER_SIZE - filled);
+                if (n == -1) {
+                    return filled;
+                }
+                filled += n;
+            }
+            if (FrameCodec.isFrame(Arrays.copyOf(chunk, FrameCodec.HEADER_SIZE), FrameCodec.TYPE_STREAM_MESSAGE)) {
+                message = true;
+                limit = messageLimit;
+                return 0;
+            }
+            return filled;
+        }
+
+        // Keeps small streams in memory and moves to disk once the limit is crossed
+        private void append(byte[] chunk, int length) throws IOException {
+            size += length;
+            if (spillOut != null) {
+                spillOut.write(chunk, 0, length);
+                return;
+            }
+
+            if (buffered + length <= limit) {
+                if (buffered + length > buffer.length) {
+                    int capacity = buffer.length;
+                    while (capacity < buffered + length) {
+                        capacity *= 2;
+                    }
+                    byte[] grown = new byte[Math.min(capacity, limit)];
+                    System.arraycopy(buffer, 0, grown, 0, buffered);
+                    buffer = grown;
+                }
+                System.arraycopy(chunk, 0, buffer, buffered, length);
+                buffered += length;
+                return;
+            }
+
+            if (message) {
+                throw new IOException("Mensaje demasiado grande: más de " + limit + " bytes");
+            }
+            spillFile = spillFileFactory.create(payloadId);
+            spillOut = new FileOutputStream(spillFile);
+            spillOut.write(buffer, 0, buffered);
+            spillOut.write(chunk, 0, length);
+            buffer = null;
+            buffered = 0;
+            BleLogger.debug("Stream {} supera {} bytes, se vuelca a {}", payloadId, memoryLimit, spillFile);
+        }
+
+        void onTransferSucceeded() {
+            synchronized (this) {
+                transferSucceeded = true;
+            }
+            deliverIfComplete();
+        }
+
+        private void deliverIfComplete() {
+            synchronized (this) {
+                if (finished || !drained || !transferSucceeded) {
+                    return;
+                }
+                finished = true;
+            }
+            remove(this);
+
+            if (spillFile != null) {
+                listener.onStreamSpilled(endpointId, payloadId, spillFile, size);
+            } else {
+                listener.onStreamReceived(endpointId, payloadId, buffer, buffered);
+            }
+        }
+
+        private synchronized boolean isFinished() {
+            return finished;
+        }
+
+        void abort(String reason) {
+            boolean readerDone;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                readerDone = drained;
+            }
+            remove(this);
+            BleLogger.warn("Stream {} descartado: {}", payloadId, reason);
+
+            if (readerDone) {
+                discardSpill();
+            } else {
+                // Closing the stream unblocks the reader thread, which then discards the spill file
+                stream.close();
+            }
+        }
+
+        private void discardSpill() {
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                } catch (IOException e) {
+                    BleLogger.warn("Error al cerrar el fichero de volcado", e);
+                }
+                spillOut = null;
+            }
+            if (spillFile != null && !spillFile.delete()) {
+                BleLogger.warn("No se pudo borrar el fichero de volcado {}", spillFile);
+            }
+            buffer = null;
+        }
+    }
+}
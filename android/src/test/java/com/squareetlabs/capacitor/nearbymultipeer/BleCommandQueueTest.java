@@ -0,0 +1,195 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class BleCommandQueueTest {
+
+    private ScheduledExecutorService timeouts;
+    private BleCommandQueue queue;
+
+    @Before
+    public void setUp() {
+        timeouts = Executors.newSingleThreadScheduledExecutor();
+        // Los comandos arrancan en el hilo que los programa, así el orden es determinista
+        queue = new BleCommandQueue(2, Runnable::run, timeouts);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    public void commandsInALaneRunInOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Integer> last = null;
+        for (int i = 0; i < 50; i++) {
+            int value = i;
+            last = queue.enqueue("AA", () -> {
+                order.add(value);
+                return value;
+            });
+        }
+
+        assertEquals(49, (int) last.get(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void laneWaitsForTheRunningCommand() {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        CompletableFuture<String> first = queue.enqueueAsync("AA", hold(started), 0);
+        CompletableFuture<String> second = queue.enqueueAsync("AA", hold(started), 0);
+
+        assertEquals(1, started.size());
+        assertFalse(second.isDone());
+
+        started.get(0).complete("uno");
+        assertTrue(first.isDone());
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void concurrencyCapIsSharedByAllLanes() {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        queue.enqueueAsync("AA", hold(started), 0);
+        queue.enqueueAsync("BB", hold(started), 0);
+        queue.enqueueAsync("CC", hold(started), 0);
+
+        assertEquals(2, started.size());
+        assertEquals(2, queue.getRunningCount());
+        assertEquals(3, queue.getPendingCount());
+
+        started.get(0).complete("uno");
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    public void commandTimesOutAndLaneMovesOn() throws Exception {
+        CompletableFuture<String> stuck = queue.enqueueAsync("AA", result -> { }, 50);
+        CompletableFuture<String> next = queue.enqueue("AA", () -> "siguiente");
+
+        try {
+            stuck.get(2, TimeUnit.SECONDS);
+            fail("El comando debería haber expirado");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals("siguiente", next.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledCommandNeverStarts() throws Exception {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        queue.enqueueAsync("AA", hold(started), 0);
+        CompletableFuture<String> cancelled = queue.enqueue("AA", () -> {
+            fail("Un comando cancelado no debe ejecutarse");
+            return null;
+        });
+        CompletableFuture<String> after = queue.enqueue("AA", () -> "después");
+
+        assertTrue(cancelled.cancel(false));
+        started.get(0).complete("uno");
+
+        assertEquals("después", after.get(1, TimeUnit.SECONDS));
+        assertEquals(1, started.size());
+    }
+
+    @Test
+    public void cancelLaneCancelsRunningAndQueuedCommands() {
+        CompletableFuture<String> running = queue.enqueueAsync("AA", result -> { }, 0);
+        CompletableFuture<String> queued = queue.enqueue("AA", () -> "nunca");
+        CompletableFuture<String> other = queue.enqueueAsync("BB", result -> { }, 0);
+
+        queue.cancelLane("AA");
+
+        assertTrue(running.isCancelled());
+        assertTrue(queued.isCancelled());
+        assertFalse(other.isDone());
+        assertFalse(queue.getLaneStats().containsKey("AA"));
+    }
+
+    @Test
+    public void idleLanesAreRemoved() throws Exception {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        queue.enqueueAsync("AA", hold(started), 0);
+        CompletableFuture<String> queued = queue.enqueue("AA", () -> "dos");
+        CompletableFuture<String> other = queue.enqueue("BB", () -> "otro");
+        assertEquals(1, queue.getLaneStats().get("AA").queued);
+        assertEquals("otro", other.get(1, TimeUnit.SECONDS));
+
+        started.get(0).complete("uno");
+        assertEquals("dos", queued.get(1, TimeUnit.SECONDS));
+
+        assertTrue(queue.getLaneStats().isEmpty());
+    }
+
+    @Test
+    public void laneCancelledWhileWaitingIsRemoved() {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        queue.enqueueAsync("AA", hold(started), 0);
+        queue.enqueueAsync("BB", hold(started), 0);
+        CompletableFuture<String> waiting = queue.enqueue("CC", () -> "nunca");
+        assertTrue(queue.getLaneStats().containsKey("CC"));
+
+        waiting.cancel(false);
+
+        assertFalse(queue.getLaneStats().containsKey("CC"));
+    }
+
+    @Test
+    public void failingCommandCompletesExceptionally() throws Exception {
+        CompletableFuture<String> failing = queue.enqueue("AA", () -> {
+            throw new IllegalStateException("fallo");
+        });
+        CompletableFuture<String> next = queue.enqueue("AA", () -> "siguiente");
+
+        try {
+            failing.get(1, TimeUnit.SECONDS);
+            fail("El comando debería haber fallado");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("siguiente", next.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void commandsAfterShutdownAreCancelled() {
+        queue.shutdown();
+
+        CompletableFuture<String> future = queue.enqueue("AA", () -> "nunca");
+
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.join();
+            fail("El comando debería estar cancelado");
+        } catch (CancellationException e) {
+            // esperado
+        }
+    }
+
+    // Comando asíncrono que sólo guarda su future para que el test lo complete
+    private static BleCommandQueue.AsyncCommand<String> hold(List<CompletableFuture<String>> started) {
+        return started::add;
+    }
+}
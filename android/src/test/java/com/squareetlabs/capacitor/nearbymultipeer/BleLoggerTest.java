@@ -0,0 +1,66 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BleLoggerTest {
+
+    @After
+    public void tearDown() {
+        BleLogger.setLogLevel(BleLogger.LogLevel.INFO);
+    }
+
+    @Test
+    public void formatReplacesPlaceholdersInOrder() {
+        assertEquals("a=1, b=dos", BleLogger.format("a={}, b={}", 1, "dos"));
+        assertEquals("sin argumentos {}", BleLogger.format("sin argumentos {}"));
+        assertEquals("sobra 1", BleLogger.format("sobra {}", 1, 2));
+    }
+
+    @Test
+    public void disabledLevelsDoNotBuildTheMessage() {
+        BleLogger.setLogLevel(BleLogger.LogLevel.NONE);
+        BleLogger.MessageSupplier supplier = () -> {
+            fail("El mensaje no debe generarse con el nivel desactivado");
+            return null;
+        };
+
+        BleLogger.error(supplier);
+        BleLogger.error(supplier, new RuntimeException());
+        BleLogger.warn(supplier);
+        BleLogger.info(supplier);
+        BleLogger.debug(supplier);
+        BleLogger.verbose(supplier);
+    }
+
+    @Test
+    public void toHexEncodesEveryByteValue() {
+        byte[] data = new byte[256];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+            if (i > 0) {
+                expected.append(' ');
+            }
+            expected.append(String.format("%02X", i));
+        }
+
+        assertEquals(expected.toString(), BleLogger.toHex(data, 0, data.length));
+    }
+
+    @Test
+    public void toHexHonoursOffsetAndLength() {
+        byte[] data = {0x00, 0x4E, 0x4D, 0x50, (byte) 0xFF};
+
+        assertEquals("4E 4D 50", BleLogger.toHex(data, 1, 3));
+        assertEquals("FF", BleLogger.toHex(data, 4, 1));
+    }
+
+    @Test
+    public void toHexOfNothingIsEmpty() {
+        assertEquals("", BleLogger.toHex(new byte[4], 2, 0));
+    }
+}
@@ -0,0 +1,63 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BleScanStatsTest {
+
+    @Test
+    public void countsResultAndBatchCallbacks() {
+        BleScanStats stats = new BleScanStats();
+
+        stats.onResult();
+        stats.onResult();
+        stats.onBatch(10, 4);
+        stats.onBatch(3, 3);
+
+        BleScanStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(2, snapshot.resultCallbacks);
+        assertEquals(2, snapshot.batchCallbacks);
+        assertEquals(13, snapshot.batchResults);
+        assertEquals(6, snapshot.batchDuplicates);
+    }
+
+    @Test
+    public void resetClearsCounters() {
+        BleScanStats stats = new BleScanStats();
+        stats.onResult();
+        stats.onBatch(5, 1);
+
+        stats.reset();
+
+        BleScanStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(0, snapshot.resultCallbacks);
+        assertEquals(0, snapshot.batchCallbacks);
+        assertEquals(0, snapshot.batchResults);
+        assertEquals(0, snapshot.batchDuplicates);
+    }
+
+    @Test
+    public void concurrentCallbacksAreNotLost() throws Exception {
+        BleScanStats stats = new BleScanStats();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    stats.onResult();
+                    stats.onBatch(2, 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        BleScanStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(40_000, snapshot.resultCallbacks);
+        assertEquals(40_000, snapshot.batchCallbacks);
+        assertEquals(80_000, snapshot.batchResults);
+        assertEquals(40_000, snapshot.batchDuplicates);
+    }
+}
@@ -0,0 +1,92 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024, 4);
+
+        assertEquals(256, pool.acquire(1).length);
+        assertEquals(256, pool.acquire(256).length);
+        assertEquals(512, pool.acquire(257).length);
+        assertEquals(64 * 1024, pool.acquire(64 * 1024).length);
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024, 4);
+
+        byte[] first = pool.acquire(1000);
+        pool.release(first);
+        byte[] second = pool.acquire(1000);
+
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(2, pool.getAcquisitionCount());
+    }
+
+    @Test
+    public void steadyStateReceiveLoopDoesNotAllocate() {
+        ByteBufferPool pool = new ByteBufferPool(64 * 1024, 4);
+
+        // Un lector que entrega cada mensaje antes de leer el siguiente sólo necesita un buffer por clase
+        for (int i = 0; i < 10_000; i++) {
+            byte[] buffer = pool.acquire(100 + (i % 5) * 1000);
+            pool.release(buffer);
+        }
+
+        // 100 -> 256, 1100 -> 2048, 2100/3100 -> 4096, 4100 -> 8192
+        assertEquals(4, pool.getAllocationCount());
+        assertEquals(10_000, pool.getAcquisitionCount());
+    }
+
+    @Test
+    public void oversizedBuffersAreNotPooled() {
+        ByteBufferPool pool = new ByteBufferPool(4096, 4);
+
+        byte[] big = pool.acquire(10_000);
+        assertEquals(10_000, big.length);
+        pool.release(big);
+
+        assertNotSame(big, pool.acquire(10_000));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void foreignBuffersAreIgnoredOnRelease() {
+        ByteBufferPool pool = new ByteBufferPool(4096, 4);
+
+        pool.release(new byte[300]); // no es potencia de dos
+        pool.release(new byte[128]); // menor que la clase más pequeña
+        pool.release(null);
+
+        pool.acquire(200);
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void freeListIsBoundedPerClass() {
+        ByteBufferPool pool = new ByteBufferPool(4096, 2);
+
+        byte[][] buffers = new byte[4][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(512);
+        }
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            pool.acquire(512);
+        }
+
+        // Sólo se retienen 2 de los 4 buffers devueltos
+        assertEquals(6, pool.getAllocationCount());
+        assertEquals(8, pool.getAcquisitionCount());
+    }
+}
@@ -0,0 +1,185 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EndpointRegistryTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20_000;
+
+    @Test
+    public void removeConnectionOnlyRemovesTheExpectedThread() {
+        EndpointRegistry<Object, Object> registry = new EndpointRegistry<>();
+        Object first = new Object();
+        Object second = new Object();
+
+        registry.putConnected("AA", null, first);
+        registry.putConnected("AA", null, second);
+
+        assertNull(registry.removeConnection("AA", first));
+        assertSame(second, registry.removeConnection("AA", second).connectedThread);
+        assertNull(registry.get("AA"));
+    }
+
+    @Test
+    public void connectionSurvivesDiscoveryChanges() {
+        EndpointRegistry<Object, Object> registry = new EndpointRegistry<>();
+        Object thread = new Object();
+
+        registry.putDiscovered("AA", null);
+        registry.putConnected("AA", null, thread);
+        registry.forgetDiscovered("AA");
+        registry.clearDiscovered();
+
+        assertSame(thread, registry.getConnectedThread("AA"));
+    }
+
+    @Test
+    public void forgetDiscoveredKeepsClassicDiscovery() {
+        EndpointRegistry<Object, Object> registry = new EndpointRegistry<>();
+
+        registry.putDiscovered("AA", null);
+        registry.putBleDiscovered("AA", null);
+        registry.putBleDiscovered("BB", null);
+        registry.forgetDiscovered("AA");
+        registry.forgetDiscovered("BB");
+
+        assertTrue(registry.isDiscovered("AA"));
+        assertFalse(registry.isDiscovered("BB"));
+        assertNull(registry.get("BB"));
+    }
+
+    @Test
+    public void concurrentConnectAndRemoveLosesNoConnection() throws Exception {
+        EndpointRegistry<Object, Object> registry = new EndpointRegistry<>();
+        // Cada conexión registrada debe retirarse exactamente una vez
+        Set<Object> removed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger registered = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            workers.add(new Thread(() -> {
+                await(start);
+                for (int i = 0; i < ROUNDS; i++) {
+                    // Una dirección por hilo: sólo compite con removeAllConnections
+                    String address = "AA:" + id;
+                    Object connection = new Object();
+                    registry.putConnected(address, null, connection);
+                    registered.incrementAndGet();
+                    if (i % 3 == 0) {
+                        registry.putDiscovered(address, null);
+                    }
+                    EndpointRegistry.Connection<Object> result = registry.removeConnection(address, connection);
+                    if (result != null && !removed.add(result.connectedThread)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        Thread sweeper = new Thread(() -> {
+            await(start);
+            while (!done.get()) {
+                for (EndpointRegistry.Connection<Object> result : registry.removeAllConnections()) {
+                    if (!removed.add(result.connectedThread)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        sweeper.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        done.set(true);
+        sweeper.join();
+
+        for (EndpointRegistry.Connection<Object> result : registry.removeAllConnections()) {
+            if (!removed.add(result.connectedThread)) {
+                duplicates.incrementAndGet();
+            }
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(registered.get(), removed.size());
+        assertTrue(registry.getConnectedThreads().isEmpty());
+    }
+
+    @Test
+    public void concurrentWritersOnDistinctFieldsLoseNoEntry() throws Exception {
+        EndpointRegistry<Object, Object> registry = new EndpointRegistry<>();
+        Object[] threads = new Object[THREADS];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            threads[t] = new Object();
+            workers.add(new Thread(() -> {
+                await(start);
+                String address = "BB:" + id;
+                for (int i = 0; i < ROUNDS; i++) {
+                    // Un hilo de conexión y el discovery tocan el mismo endpoint a la vez
+                    registry.putConnectThread(address, threads[id]);
+                    registry.putDiscovered(address, null);
+                    registry.removeConnectThread(address);
+                    registry.forgetDiscovered(address);
+                }
+                registry.putConnected(address, null, threads[id]);
+            }));
+            workers.add(new Thread(() -> {
+                await(start);
+                for (int i = 0; i < ROUNDS; i++) {
+                    registry.clearDiscovered();
+                }
+            }));
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        for (int t = 0; t < THREADS; t++) {
+            assertSame(threads[t], registry.getConnectedThread("BB:" + t));
+            assertNotNull(registry.get("BB:" + t));
+        }
+        assertEquals(THREADS, registry.removeAllConnections().size());
+        registry.clearDiscovered();
+        assertEquals(0, registry.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class PeerSignatureTest {
+
+    @Test
+    public void headerStartsWithMagicVersionAndType() {
+        byte[] header = PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_IOS);
+
+        assertArrayEquals(new byte[]{0x4E, 0x4D, 0x50, 0x01, 0x02}, header);
+        assertEquals(PeerSignature.HEADER_SIZE, header.length);
+    }
+
+    @Test
+    public void headerMaskComparesEveryHeaderByte() {
+        byte[] mask = PeerSignature.headerMask();
+
+        assertEquals(PeerSignature.HEADER_SIZE, mask.length);
+        for (byte b : mask) {
+            assertEquals((byte) 0xFF, b);
+        }
+    }
+
+    @Test
+    public void matchesAcceptedDeviceTypes() {
+        assertEquals(PeerSignature.DEVICE_TYPE_ANDROID, PeerSignature.matchDeviceType(
+                PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_ANDROID)));
+        assertEquals(PeerSignature.DEVICE_TYPE_IOS, PeerSignature.matchDeviceType(
+                PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_IOS)));
+    }
+
+    @Test
+    public void ignoresBytesAfterTheHeader() {
+        byte[] name = "iPhone".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[PeerSignature.HEADER_SIZE + name.length];
+        System.arraycopy(PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_IOS),
+                0, data, 0, PeerSignature.HEADER_SIZE);
+        System.arraycopy(name, 0, data, PeerSignature.HEADER_SIZE, name.length);
+
+        assertEquals(PeerSignature.DEVICE_TYPE_IOS, PeerSignature.matchDeviceType(data));
+    }
+
+    @Test
+    public void rejectsForeignOrMalformedData() {
+        assertEquals(-1, PeerSignature.matchDeviceType(null));
+        assertEquals(-1, PeerSignature.matchDeviceType(new byte[]{0x4E, 0x4D, 0x50, 0x01}));
+        assertEquals(-1, PeerSignature.matchDeviceType(new byte[]{0x4E, 0x4D, 0x51, 0x01, 0x01}));
+        // Versión de protocolo desconocida
+        assertEquals(-1, PeerSignature.matchDeviceType(PeerSignature.header(0x02, PeerSignature.DEVICE_TYPE_ANDROID)));
+        // Tipo de dispositivo desconocido
+        assertEquals(-1, PeerSignature.matchDeviceType(PeerSignature.header(PeerSignature.PROTOCOL_VERSION, 0x03)));
+    }
+
+    @Test
+    public void filterHeadersCoverEveryAcceptedType() {
+        List<byte[]> headers = PeerSignature.filterHeaders();
+
+        assertEquals(2, headers.size());
+        assertArrayEquals(PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_ANDROID),
+                headers.get(0));
+        assertArrayEquals(PeerSignature.header(PeerSignature.PROTOCOL_VERSION, PeerSignature.DEVICE_TYPE_IOS),
+                headers.get(1));
+        // Cada cabecera de filtro debe reconocerse al clasificar el resultado
+        for (byte[] header : headers) {
+            assertEquals(header[4], PeerSignature.matchDeviceType(header));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.squareetlabs.capacitor.nearbymultipeer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+
+import org.junit.Test;
+
+public class PermissionCacheTest {
+
+    @Test
+    public void withoutContextNothingIsGranted() {
+        PermissionCache cache = new PermissionCache();
+
+        cache.refresh();
+
+        assertFalse(cache.hasConnect());
+        assertFalse(cache.hasScan());
+        assertFalse(cache.hasAdvertise());
+        assertEquals(0, cache.getRefreshCount());
+    }
+
+    @Test
+    public void readsPermissionsOnlyOnRefresh() {
+        FakeContext context = new FakeContext();
+        PermissionCache cache = new PermissionCache();
+
+        cache.refresh(context);
+        assertFalse(cache.hasConnect());
+        assertTrue(context.checks > 0);
+
+        // Las lecturas no vuelven a consultar al sistema
+        int checks = context.checks;
+        context.granted = true;
+        assertFalse(cache.hasScan());
+        assertEquals(checks, context.checks);
+
+        cache.refresh();
+        assertTrue(cache.hasConnect());
+        assertTrue(cache.hasScan());
+        assertTrue(cache.hasAdvertise());
+        assertEquals(2, cache.getRefreshCount());
+    }
+
+    // Contexto que concede o deniega todos los permisos y cuenta las consultas
+    private static final class FakeContext extends ContextWrapper {
+        volatile boolean granted = false;
+        int checks = 0;
+
+        FakeContext() {
+            super(null);
+        }
+
+        @Override
+        public int checkSelfPermission(String permission) {
+            checks++;
+            return granted ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+        }
+    }
+}
@@ -77,12 +77,225 @@ export interface NearbyMultipeerPlugin {
    */
   sendMessage(options: { endpointId: string, data: string }): Promise<void>;
 
+  /**
+   * Envía varios mensajes con una sola llamada al puente (sólo Android).
+   * Los mensajes se encolan en orden; los de un mismo endpoint se envían en ese orden.
+   * @param options.messages Mensajes a enviar
+   * @returns Resultado de cada mensaje, en el mismo orden que la entrada
+   */
+  sendMessages(options: { messages: { endpointId: string, data: string }[] }): Promise<{ results: SendMessageResult[] }>;
+
+  /**
+   * Envía el mismo mensaje a varios endpoints con una sola llamada (sólo Android).
+   * El mensaje se codifica una vez y se comparte entre todos los destinos.
+   * @param options Opciones del mensaje
+   * @returns Resultado del envío para cada endpoint
+   */
+  broadcastMessage(options: { endpointIds: string[], data: string }): Promise<{ results: BroadcastResult[] }>;
+
+  /**
+   * Envía un fichero a un endpoint conectado sin pasar su contenido por el puente JS (sólo Android).
+   * Por Bluetooth se resuelve cuando el fichero se ha escrito completo; por Nearby, cuando
+   * el envío ha comenzado. El progreso se notifica con el evento 'payloadTransferUpdate'.
+   * @param options Opciones del envío
+   * @param options.path Ruta absoluta o URI file:// del fichero
+   * @returns ID del payload, para relacionarlo con los eventos de progreso
+   */
+  sendFile(options: { endpointId: string, path: string }): Promise<{ payloadId: number }>;
+
+  /**
+   * Configura la cola de salida de cada conexión Bluetooth (sólo Android).
+   * Se aplica a las conexiones que se establezcan después de la llamada.
+   * @param options Opciones de la cola
+   * @param options.capacity Número máximo de mensajes pendientes por conexión (por defecto: 64)
+   * @param options.policy Qué hacer cuando la cola está llena: 'reject' falla inmediatamente, 'block' espera hueco
+   *   bloqueando la llamada nativa hasta blockTimeoutMs (por defecto: 'reject')
+   * @param options.blockTimeoutMs Tiempo máximo de espera con la política 'block' (por defecto: 5000)
+   */
+  setOutboundQueueOptions(options: {
+    capacity?: number;
+    policy?: 'block' | 'reject';
+    blockTimeoutMs?: number;
+  }): Promise<void>;
+
+  /**
+   * Configura la cola de entrada de cada conexión Bluetooth, entre el lector del socket y la
+   * entrega de eventos (sólo Android). Se aplica a las conexiones que se establezcan después de la llamada.
+   * @param options Opciones de la cola
+   * @param options.capacity Número máximo de mensajes recibidos pendientes de entregar (por defecto: 256)
+   * @param options.policy Qué hacer cuando la cola está llena: 'dropOldest' descarta el más antiguo,
+   *   'block' deja de leer el socket hasta que haya hueco, 'disconnect' cierra la conexión (por defecto: 'block')
+   */
+  setInboundQueueOptions(options: {
+    capacity?: number;
+    policy?: 'dropOldest' | 'block' | 'disconnect';
+  }): Promise<void>;
+
+  /**
+   * Limita los ficheros que un peer puede enviar por Bluetooth (sólo Android).
+   * Un fichero mayor que maxFileSize o que no quepa en el espacio libre, o que supere
+   * maxOpenTransfers transferencias abiertas en la conexión, se rechaza con un evento
+   * 'payloadTransferUpdate' de fallo.
+   * @param options Límites
+   * @param options.maxFileSize Tamaño máximo de un fichero recibido, en bytes (por defecto: 1 GB)
+   * @param options.maxOpenTransfers Ficheros recibiéndose a la vez por conexión (por defecto: 4)
+   */
+  setInboundFileOptions(options: { maxFileSize?: number; maxOpenTransfers?: number }): Promise<void>;
+
+  /**
+   * Devuelve el estado de la cola de entrada de cada conexión Bluetooth activa (sólo Android)
+   */
+  getInboundQueueStats(): Promise<{ queues: InboundQueueStats[] }>;
+
+  /**
+   * Activa la agrupación de mensajes pequeños en una sola escritura al socket Bluetooth (sólo Android).
+   * Reduce el número de paquetes enviados cuando se mandan muchos mensajes cortos.
+   * @param options Opciones de agrupación
+   * @param options.endpointId Endpoint al que se aplica (si se omite, se cambia el valor por defecto)
+   * @param options.enabled Si se agrupan los mensajes
+   * @param options.maxBytes Tamaño máximo de una escritura agrupada (por defecto: 4096)
+   * @param options.maxDelayMs Tiempo máximo que se retiene un mensaje esperando a otros (por defecto: 5)
+   */
+  setCoalescingOptions(options: {
+    endpointId?: string;
+    enabled: boolean;
+    maxBytes?: number;
+    maxDelayMs?: number;
+  }): Promise<void>;
+
+  /**
+   * Activa la entrega de mensajes recibidos en lotes (sólo Android).
+   * Con la agrupación activa, los mensajes se emiten con el evento 'messages' (un array)
+   * en lugar de un evento 'message' por mensaje, conservando el orden de llegada.
+   * @param options Opciones de agrupación
+   * @param options.enabled Si se agrupan los mensajes (al desactivarla se entregan los pendientes)
+   * @param options.flushIntervalMs Tiempo máximo que un mensaje espera en el lote (por defecto: 50)
+   * @param options.maxBatchSize Número máximo de mensajes por lote (por defecto: 50)
+   */
+  setInboundBatching(options: {
+    enabled: boolean;
+    flushIntervalMs?: number;
+    maxBatchSize?: number;
+  }): Promise<void>;
+
+  /**
+   * Configura el envío por Nearby de mensajes que no caben en un único payload BYTES (sólo Android).
+   * Hasta maxBytesPayloadSize se envía un payload BYTES; por encima, el mensaje se divide en
+   * fragmentos numerados y, a partir de streamThreshold, se envía como un único payload STREAM.
+   * El receptor reconstruye el mensaje y lo entrega con el evento 'message'.
+   * @param options Opciones de fragmentación
+   * @param options.maxBytesPayloadSize Tamaño máximo de un payload BYTES (por defecto y como máximo: límite de Nearby)
+   * @param options.streamThreshold Tamaño a partir del cual se usa STREAM (por defecto: 4 MB)
+   */
+  setFragmentationOptions(options: {
+    maxBytesPayloadSize?: number;
+    streamThreshold?: number;
+  }): Promise<void>;
+
+  /**
+   * Devuelve los contadores de las peticiones de escaneo y advertising BLE (sólo Android).
+   * Las peticiones redundantes o sustituidas por otra posterior se descartan, y los arranques
+   * de escaneo se aplazan para no superar el límite de Android (5 arranques cada 30 segundos).
+   */
+  getBleOperationStats(): Promise<{ scan: BleOperationStats; advertise: BleOperationStats }>;
+
+  /**
+   * Agrupa los resultados del escaneo BLE en el controlador Bluetooth, de modo que la app se despierta
+   * una vez por lote en lugar de una vez por anuncio (sólo Android). Si el hardware no lo soporta se
+   * sigue escaneando con reporte inmediato.
+   * @param options Opciones
+   * @param options.enabled Si se agrupan los resultados
+   * @param options.reportDelayMs Cada cuánto entrega el controlador los resultados (por defecto: 5000)
+   * @returns supported indica si el hardware soporta batching
+   */
+  setBatchScanning(options: { enabled: boolean; reportDelayMs?: number }): Promise<{ supported: boolean }>;
+
+  /**
+   * Devuelve los contadores de callbacks del escaneo BLE (sólo Android)
+   * @param options Opciones
+   * @param options.reset Si se ponen a cero los contadores después de leerlos
+   */
+  getScanStats(options?: { reset?: boolean }): Promise<ScanStats>;
+
+  /**
+   * Configura el escaneo y advertising BLE adaptativo (sólo Android). Tras arrancar o al aparecer un peer
+   * nuevo se escanea y anuncia a máxima intensidad; si no hay peers nuevos se baja a 'balanced' y después
+   * a 'lowPower' para ahorrar batería.
+   * @param options Política
+   * @param options.adaptive Si es false se trabaja siempre a máxima intensidad (por defecto: true)
+   * @param options.aggressiveMs Tiempo sin peers nuevos antes de bajar a 'balanced' (por defecto: 10000)
+   * @param options.balancedMs Tiempo en 'balanced' antes de bajar a 'lowPower' (por defecto: 50000)
+   * @param options.minLevel Nivel más bajo permitido (por defecto: 'lowPower')
+   */
+  setDutyCyclePolicy(options: {
+    adaptive?: boolean;
+    aggressiveMs?: number;
+    balancedMs?: number;
+    minLevel?: 'balanced' | 'lowPower';
+  }): Promise<void>;
+
+  /**
+   * Devuelve el nivel actual de escaneo/advertising BLE y el tiempo pasado en cada nivel (sólo Android)
+   */
+  getDutyCycleStats(): Promise<DutyCycleStats>;
+
+  /**
+   * Configura la caché de peers descubiertos por BLE (sólo Android). Un peer que no se ve durante
+   * el TTL, o que se retira al superar el máximo de entradas, genera un evento 'endpointLost'.
+   * Los peers conectados no se retiran.
+   * @param options Opciones de la caché
+   * @param options.ttlMs Tiempo sin ver un peer tras el que se da por perdido; 0 para no expirar (por defecto: 30000)
+   * @param options.maxEntries Número máximo de peers; se retira el que lleva más tiempo sin verse (por defecto: 256)
+   * @param options.rssiSmoothing Peso de cada lectura nueva en el RSSI suavizado, entre 0 y 1 (por defecto: 0.25)
+   */
+  setDiscoveryCacheOptions(options: { ttlMs?: number; maxEntries?: number; rssiSmoothing?: number }): Promise<void>;
+
+  /**
+   * Devuelve los peers BLE de la caché de descubrimiento, del que lleva más tiempo sin verse al más reciente (sólo Android)
+   */
+  getDiscoveredEndpoints(): Promise<{ endpoints: DiscoveredEndpoint[]; expired: number; evicted: number }>;
+
+  /**
+   * Elige el hilo en el que se entregan los callbacks y eventos (sólo Android).
+   * Por defecto se usa un hilo propio para no cargar el hilo principal con el tráfico entrante.
+   * Los eventos ya encolados se entregan en el hilo anterior y pueden llegar después que los
+   * nuevos, así que conviene llamarlo antes de empezar el discovery o el advertising.
+   * @param options Opciones del hilo de callbacks
+   * @param options.thread 'background' (hilo propio, por defecto) o 'main' (hilo principal)
+   */
+  setCallbackDispatcher(options: { thread: 'background' | 'main' }): Promise<void>;
+
+  /**
+   * Devuelve cuánto esperan los eventos en la cola antes de entregarse (sólo Android)
+   * @param options Opciones
+   * @param options.reset Si se ponen a cero las estadísticas después de leerlas
+   */
+  getCallbackDispatcherStats(options?: { reset?: boolean }): Promise<CallbackDispatcherStats>;
+
   /**
    * Establece el nivel de logs del plugin
    * @param options Opciones de configuración de logs
    * @param options.logLevel Nivel de logs (0=ninguno, 1=error, 2=warn, 3=info, 4=debug, 5=verbose)
+   * @param options.logPayloads Si se registra el contenido de los mensajes; si no, sólo su longitud (por defecto: false)
+   */
+  setLogLevel(options: { logLevel: number; logPayloads?: boolean }): Promise<void>;
+
+  /**
+   * Activa la grabación en memoria de las tramas Bluetooth y los anuncios BLE (sólo Android).
+   * Los registros se guardan en un anillo de tamaño fijo; al llenarse se sobrescriben los más antiguos.
+   * @param options Opciones de grabación
+   * @param options.enabled Si se graban tramas y anuncios
+   * @param options.capacity Número de registros que se conservan (por defecto: 256)
+   * @param options.maxRecordBytes Bytes que se guardan de cada registro; el resto se trunca (por defecto: 256)
    */
-  setLogLevel(options: { logLevel: number }): Promise<void>;
+  setTraceRecording(options: { enabled: boolean; capacity?: number; maxRecordBytes?: number }): Promise<void>;
+
+  /**
+   * Devuelve los registros grabados, del más antiguo al más reciente (sólo Android)
+   * @param options Opciones
+   * @param options.clear Si se vacía la grabación después de leerla
+   */
+  dumpTrace(options?: { clear?: boolean }): Promise<{ records: TraceRecord[]; overwritten: number }>;
 
   /**
    * Agrega un listener para un evento específico
@@ -113,6 +326,14 @@ export interface NearbyMultipeerPlugin {
     eventName: 'payloadTransferUpdate',
     listenerFunc: (event: PayloadTransferUpdateEvent) => void
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(
+    eventName: 'messages',
+    listenerFunc: (event: MessagesReceivedEvent) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(
+    eventName: 'fileReceived',
+    listenerFunc: (event: FileReceivedEvent) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
 
   /**
    * Remueve todos los listeners registrados
@@ -149,10 +370,22 @@ export interface NearbyMultipeerEvents {
    */
   message: MessageReceivedEvent;
 
+  /**
+   * Disparado con un lote de mensajes cuando la agrupación está activa (sólo Android)
+   */
+  messages: MessagesReceivedEvent;
+
   /**
    * Disparado durante la transferencia de un payload
    */
   payloadTransferUpdate: PayloadTransferUpdateEvent;
+
+  /**
+   * Disparado cuando se ha recibido un fichero completo (sólo Android).
+   * También se usa para los payloads STREAM de Nearby demasiado grandes para
+   * entregarse como mensaje; en ese caso no hay fileName.
+   */
+  fileReceived: FileReceivedEvent;
 }
 
 /**
@@ -242,6 +475,86 @@ export interface MessageReceivedEvent {
   data: string;
 }
 
+/**
+ * Evento con un lote de mensajes recibidos, en orden de llegada
+ */
+export interface MessagesReceivedEvent {
+  /**
+   * Mensajes del lote
+   */
+  messages: MessageReceivedEvent[];
+}
+
+/**
+ * Resultado del envío de un mensaje de sendMessages
+ */
+export interface SendMessageResult {
+  /**
+   * ID del endpoint de destino
+   */
+  endpointId: string;
+
+  /**
+   * Si el mensaje se ha enviado correctamente
+   */
+  success: boolean;
+
+  /**
+   * Motivo del fallo, si lo hay
+   */
+  error?: string;
+}
+
+/**
+ * Resultado del envío de un broadcast a un endpoint
+ */
+export interface BroadcastResult {
+  /**
+   * ID del endpoint
+   */
+  endpointId: string;
+
+  /**
+   * Si el mensaje se ha enviado correctamente
+   */
+  success: boolean;
+
+  /**
+   * Motivo del fallo, si lo hay
+   */
+  error?: string;
+}
+
+/**
+ * Evento cuando se recibe un fichero
+ */
+export interface FileReceivedEvent {
+  /**
+   * ID del endpoint que envió el fichero
+   */
+  endpointId: string;
+
+  /**
+   * ID del payload del fichero
+   */
+  payloadId: number;
+
+  /**
+   * Ruta absoluta del fichero recibido (en la caché de la aplicación)
+   */
+  path: string;
+
+  /**
+   * Nombre original del fichero, si el emisor lo indicó
+   */
+  fileName?: string;
+
+  /**
+   * Tamaño del fichero en bytes
+   */
+  size: number;
+}
+
 /**
  * Evento con información de progreso de transferencia
  */
@@ -251,6 +564,11 @@ export interface PayloadTransferUpdateEvent {
    */
   endpointId: string;
 
+  /**
+   * ID del payload al que se refiere la actualización (sólo Android)
+   */
+  payloadId?: number;
+
   /**
    * Bytes transferidos
    */
@@ -268,3 +586,312 @@ export interface PayloadTransferUpdateEvent {
    */
   status: number;
 }
+
+/**
+ * Contadores de una operación BLE (escaneo o advertising)
+ */
+export interface BleOperationStats {
+  /**
+   * Si la operación está activa
+   */
+  active: boolean;
+
+  /**
+   * Si hay una petición pendiente de aplicar (agrupándose o aplazada)
+   */
+  pending: boolean;
+
+  /**
+   * Peticiones de arranque recibidas
+   */
+  requestedStarts: number;
+
+  /**
+   * Peticiones de parada recibidas
+   */
+  requestedStops: number;
+
+  /**
+   * Arranques ejecutados en la radio
+   */
+  executedStarts: number;
+
+  /**
+   * Paradas ejecutadas en la radio
+   */
+  executedStops: number;
+
+  /**
+   * Peticiones descartadas por redundantes o sustituidas por otra posterior
+   */
+  suppressed: number;
+
+  /**
+   * Arranques aplazados por el límite de arranques de escaneo
+   */
+  deferred: number;
+}
+
+/**
+ * Estadísticas de la cola de callbacks y eventos
+ */
+export interface CallbackDispatcherStats {
+  /**
+   * Hilo en el que se entregan los callbacks
+   */
+  thread: 'background' | 'main';
+
+  /**
+   * Callbacks entregados desde la última puesta a cero
+   */
+  dispatched: number;
+
+  /**
+   * Callbacks en cola pendientes de entregar
+   */
+  pending: number;
+
+  /**
+   * Espera media en la cola (ms)
+   */
+  averageLatencyMs: number;
+
+  /**
+   * Espera máxima en la cola (ms)
+   */
+  maxLatencyMs: number;
+
+  /**
+   * Espera del último callback entregado (ms)
+   */
+  lastLatencyMs: number;
+}
+
+/**
+ * Estado de la cola de entrada de una conexión Bluetooth
+ */
+export interface InboundQueueStats {
+  /**
+   * ID del endpoint
+   */
+  endpointId: string;
+
+  /**
+   * Mensajes pendientes de entregar
+   */
+  size: number;
+
+  /**
+   * Capacidad de la cola
+   */
+  capacity: number;
+
+  /**
+   * Máximo de mensajes pendientes alcanzado
+   */
+  highWater: number;
+
+  /**
+   * Mensajes descartados por la política de desbordamiento
+   */
+  dropped: number;
+
+  /**
+   * Mensajes entregados
+   */
+  delivered: number;
+}
+
+/**
+ * Trama o anuncio BLE grabado con setTraceRecording
+ */
+export interface TraceRecord {
+  /**
+   * Momento de la grabación (ms desde epoch)
+   */
+  timestamp: number;
+
+  /**
+   * Tipo de registro: trama recibida, trama enviada o anuncio BLE
+   */
+  kind: 'frameIn' | 'frameOut' | 'advertisement';
+
+  /**
+   * ID del endpoint (dirección del dispositivo)
+   */
+  endpointId: string;
+
+  /**
+   * Tipo de trama, o 0 en los anuncios
+   */
+  type: number;
+
+  /**
+   * Longitud original en bytes
+   */
+  length: number;
+
+  /**
+   * Datos en hexadecimal, truncados a maxRecordBytes
+   */
+  data: string;
+}
+
+/**
+ * Peer BLE de la caché de descubrimiento
+ */
+export interface DiscoveredEndpoint {
+  /**
+   * ID del endpoint (dirección del dispositivo)
+   */
+  endpointId: string;
+
+  /**
+   * Nombre del endpoint
+   */
+  endpointName: string;
+
+  /**
+   * ID del servicio
+   */
+  serviceId: string;
+
+  /**
+   * RSSI suavizado (dBm)
+   */
+  rssi: number;
+
+  /**
+   * Última lectura de RSSI (dBm)
+   */
+  lastRssi: number;
+
+  /**
+   * Tiempo desde que se vio por última vez (ms)
+   */
+  lastSeenMsAgo: number;
+
+  /**
+   * Número de veces que se ha visto
+   */
+  sightings: number;
+}
+
+/**
+ * Tiempo que una operación BLE ha estado activa en cada nivel (ms)
+ */
+export interface DutyCycleTimes {
+  aggressiveMs: number;
+  balancedMs: number;
+  lowPowerMs: number;
+}
+
+/**
+ * Estado del escaneo/advertising BLE adaptativo
+ */
+export interface DutyCycleStats {
+  /**
+   * Nivel actual
+   */
+  level: 'aggressive' | 'balanced' | 'lowPower';
+
+  /**
+   * Si la política adaptativa está activa
+   */
+  adaptive: boolean;
+
+  /**
+   * Número de cambios de nivel
+   */
+  transitions: number;
+
+  /**
+   * Tiempo de escaneo en cada nivel
+   */
+  scan: DutyCycleTimes;
+
+  /**
+   * Tiempo de advertising en cada nivel
+   */
+  advertise: DutyCycleTimes;
+}
+
+/**
+ * Contadores de callbacks del escaneo BLE desde el último reset
+ */
+export interface ScanStats {
+  /**
+   * Si el hardware soporta batching de resultados
+   */
+  batchSupported: boolean;
+
+  /**
+   * Callbacks con un único resultado
+   */
+  resultCallbacks: number;
+
+  /**
+   * Callbacks con un lote de resultados
+   */
+  batchCallbacks: number;
+
+  /**
+   * Resultados recibidos en lotes
+   */
+  batchResults: number;
+
+  /**
+   * Resultados descartados por repetir dispositivo dentro de un lote
+   */
+  batchDuplicates: number;
+
+  /**
+   * Tiempo medido (ms)
+   */
+  elapsedMs: number;
+
+  /**
+   * Callbacks de escaneo por minuto
+   */
+  callbacksPerMinute: number;
+
+  /**
+   * Cola entre el callback de escaneo y el hilo que clasifica los resultados
+   */
+  queue: ScanQueueStats;
+}
+
+/**
+ * Estado de la cola de resultados de escaneo BLE. Los contadores no se ponen a cero con reset.
+ */
+export interface ScanQueueStats {
+  /**
+   * Resultados pendientes de clasificar
+   */
+  pending: number;
+
+  /**
+   * Capacidad de la cola
+   */
+  capacity: number;
+
+  /**
+   * Máximo de resultados pendientes alcanzado
+   */
+  highWater: number;
+
+  /**
+   * Resultados encolados
+   */
+  captured: number;
+
+  /**
+   * Resultados clasificados
+   */
+  parsed: number;
+
+  /**
+   * Resultados descartados (los más antiguos con la cola llena, o pendientes al detener el escaneo)
+   */
+  dropped: number;
+}
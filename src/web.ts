@@ -8,7 +8,18 @@ import type {
   EndpointFoundEvent,
   EndpointLostEvent,
   MessageReceivedEvent,
-  PayloadTransferUpdateEvent
+  PayloadTransferUpdateEvent,
+  FileReceivedEvent,
+  MessagesReceivedEvent,
+  BroadcastResult,
+  SendMessageResult,
+  BleOperationStats,
+  CallbackDispatcherStats,
+  InboundQueueStats,
+  TraceRecord,
+  DiscoveredEndpoint,
+  DutyCycleStats,
+  ScanStats
 } from './definitions';
 
 export class NearbyMultipeerWeb
@@ -80,7 +91,144 @@ export class NearbyMultipeerWeb
     throw this.unavailable('Nearby Connections API not available on web');
   }
 
-  async setLogLevel(options: { logLevel: number }): Promise<void> {
+  async sendMessages(options: { messages: { endpointId: string, data: string }[] }): Promise<{ results: SendMessageResult[] }> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async broadcastMessage(options: { endpointIds: string[], data: string }): Promise<{ results: BroadcastResult[] }> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async sendFile(options: { endpointId: string, path: string }): Promise<{ payloadId: number }> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setOutboundQueueOptions(options: {
+    capacity?: number;
+    policy?: 'block' | 'reject';
+    blockTimeoutMs?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setInboundQueueOptions(options: {
+    capacity?: number;
+    policy?: 'dropOldest' | 'block' | 'disconnect';
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setInboundFileOptions(options: { maxFileSize?: number; maxOpenTransfers?: number }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getInboundQueueStats(): Promise<{ queues: InboundQueueStats[] }> {
+    console.log('Web implementation not available for Nearby Connections API');
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setInboundBatching(options: {
+    enabled: boolean;
+    flushIntervalMs?: number;
+    maxBatchSize?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setFragmentationOptions(options: {
+    maxBytesPayloadSize?: number;
+    streamThreshold?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getBleOperationStats(): Promise<{ scan: BleOperationStats; advertise: BleOperationStats }> {
+    console.log('Web implementation not available for Nearby Connections API');
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setBatchScanning(options: { enabled: boolean; reportDelayMs?: number }): Promise<{ supported: boolean }> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getScanStats(options?: { reset?: boolean }): Promise<ScanStats> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setDutyCyclePolicy(options: {
+    adaptive?: boolean;
+    aggressiveMs?: number;
+    balancedMs?: number;
+    minLevel?: 'balanced' | 'lowPower';
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getDutyCycleStats(): Promise<DutyCycleStats> {
+    console.log('Web implementation not available for Nearby Connections API');
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setDiscoveryCacheOptions(options: {
+    ttlMs?: number;
+    maxEntries?: number;
+    rssiSmoothing?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getDiscoveredEndpoints(): Promise<{ endpoints: DiscoveredEndpoint[]; expired: number; evicted: number }> {
+    console.log('Web implementation not available for Nearby Connections API');
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setCallbackDispatcher(options: { thread: 'background' | 'main' }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async getCallbackDispatcherStats(options?: { reset?: boolean }): Promise<CallbackDispatcherStats> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setCoalescingOptions(options: {
+    endpointId?: string;
+    enabled: boolean;
+    maxBytes?: number;
+    maxDelayMs?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setLogLevel(options: { logLevel: number; logPayloads?: boolean }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async setTraceRecording(options: {
+    enabled: boolean;
+    capacity?: number;
+    maxRecordBytes?: number;
+  }): Promise<void> {
+    console.log('Web implementation not available for Nearby Connections API', options);
+    throw this.unavailable('Nearby Connections API not available on web');
+  }
+
+  async dumpTrace(options?: { clear?: boolean }): Promise<{ records: TraceRecord[]; overwritten: number }> {
     console.log('Web implementation not available for Nearby Connections API', options);
     throw this.unavailable('Nearby Connections API not available on web');
   }
@@ -109,6 +257,14 @@ export class NearbyMultipeerWeb
     eventName: 'payloadTransferUpdate',
     listenerFunc: (event: PayloadTransferUpdateEvent) => void
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(
+    eventName: 'messages',
+    listenerFunc: (event: MessagesReceivedEvent) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  addListener(
+    eventName: 'fileReceived',
+    listenerFunc: (event: FileReceivedEvent) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
   addListener(
     eventName: string,
     listenerFunc: (event: any) => void